@@ -0,0 +1,516 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Asynchronous Structured Access Log
+ *
+ * Request threads never write to a file or the console. The handler wrapper
+ * records each request (method, path, status, body bytes, latency, time spent
+ * holding database connections and a request id) in a bounded lock-free ring
+ * buffer. One background thread drains the buffer in batches and appends JSON
+ * lines to a file that is rotated by size.
+ *
+ * Successful requests are sampled at taskserver.accessLog.sampleRate; errors
+ * (status 400 and up) are always logged. Requests slower than
+ * taskserver.accessLog.slowMs are always logged, and are also written in full
+ * (query, client, round trips) to a separate slow-request file. When the
+ * buffer is full, entries are dropped and counted rather than blocking the
+ * request, and the count is written to the log once there is room.
+ *
+ * Diagnostics raised on request and event-loop threads (see event()) go
+ * through the same buffer.
+ */
+public final class AccessLog {
+
+    /** Request and response header carrying the request id */
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    private static final int BATCH_SIZE = 512;
+    // Sleep of the drain thread when the buffer is empty
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    // Request ids from clients are echoed only if they are short and harmless
+    private static final Pattern CLIENT_REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+    private static final String ID_PREFIX = Integer.toHexString(ThreadLocalRandom.current().nextInt(0x10000, 0x100000));
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private static volatile AccessLog instance;
+
+    private final Ring ring;
+    private final RotatingFile accessFile;
+    private final RotatingFile slowFile;
+    private final Thread drainer;
+    private volatile boolean running = true;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported;   // drain thread only
+
+    private AccessLog(ServerConfig config) throws IOException {
+        this.ring = new Ring(config.getInt("taskserver.accessLog.bufferSize"));
+        long maxBytes = config.getLong("taskserver.accessLog.maxBytes");
+        int maxFiles = config.getInt("taskserver.accessLog.maxFiles");
+        this.accessFile = new RotatingFile(Paths.get(config.getString("taskserver.accessLog.file")), maxBytes, maxFiles);
+        String slow = config.getString("taskserver.accessLog.slowFile");
+        this.slowFile = slow.isEmpty() ? null : new RotatingFile(Paths.get(slow), maxBytes, maxFiles);
+        this.drainer = new Thread(this::drain, "access-log");
+        this.drainer.setDaemon(true);
+    }
+
+    /**
+     * Opens the log files and starts the drain thread. Without a file configured
+     * nothing is logged and event() falls back to the console.
+     * @param config settings at startup
+     * @throws IOException if a log file cannot be opened
+     */
+    public static synchronized void start(ServerConfig config) throws IOException {
+        if (instance != null || config.getString("taskserver.accessLog.file").isEmpty()) {
+            return;
+        }
+        AccessLog log = new AccessLog(config);
+        log.drainer.start();
+        instance = log;
+    }
+
+    /**
+     * Writes what is still buffered and closes the files; call on shutdown
+     */
+    public static synchronized void stop() {
+        AccessLog log = instance;
+        if (log == null) {
+            return;
+        }
+        log.running = false;
+        try {
+            log.drainer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return one-line summary of what was logged, sampled out and dropped
+     */
+    public static String getStats() {
+        AccessLog log = instance;
+        if (log == null) {
+            return "Access log: off";
+        }
+        return String.format("Access log: %d entries written, %d sampled out, %d dropped (buffer full)",
+            log.written.sum(), log.sampledOut.sum(), log.dropped.sum());
+    }
+
+    /**
+     * Wraps a route's handler so each request gets a request id, an access log
+     * entry and a Flight Recorder event
+     * @param handler handler to wrap
+     * @return logging handler
+     */
+    public static HttpHandler wrap(HttpHandler handler) {
+        return ex -> {
+            TaskEvents.Request event = new TaskEvents.Request();
+            event.begin();
+            long start = System.nanoTime();
+            String requestId = requestId(ex);
+            ex.getResponseHeaders().set(REQUEST_ID_HEADER, requestId);
+            // The response may be finished on a database thread after handle() returns,
+            // so the request is recorded when its body is closed
+            CountingOutputStream body = new CountingOutputStream(ex.getResponseBody(),
+                bytes -> completed(ex, event, requestId, System.nanoTime() - start, bytes));
+            ex.setStreams(null, body);
+            try {
+                handler.handle(ex);
+            } catch (IOException | RuntimeException e) {
+                body.complete();
+                throw e;
+            }
+        };
+    }
+
+    private static void completed(HttpExchange ex, TaskEvents.Request event, String requestId,
+                                  long latencyNanos, long bytes) {
+        RequestContext ctx = (RequestContext) ex.getAttribute(RequestContext.ATTRIBUTE);
+        event.done(ctx != null ? ctx.getRoute() : null, ex.getRequestMethod(),
+            ex.getRequestURI().getRawPath(), ex.getResponseCode(), requestId,
+            ctx != null ? ctx.getRoundTrips() : 0);
+        AccessLog log = instance;
+        if (log != null) {
+            log.record(ex, requestId, latencyNanos, bytes);
+        }
+    }
+
+    /**
+     * Logs a diagnostic message without blocking the caller
+     * @param source component name, e.g. "pool"
+     * @param message what happened
+     */
+    public static void event(String source, String message) {
+        AccessLog log = instance;
+        if (log == null) {
+            System.err.println(message);
+            return;
+        }
+        log.offer(new Entry(source, message));
+    }
+
+    private static String requestId(HttpExchange ex) {
+        String id = ex.getRequestHeaders().getFirst(REQUEST_ID_HEADER);
+        if (id != null && CLIENT_REQUEST_ID.matcher(id).matches()) {
+            return id;
+        }
+        return ID_PREFIX + "-" + Long.toString(nextId.incrementAndGet(), 36);
+    }
+
+    private void record(HttpExchange ex, String requestId, long latencyNanos, long bytes) {
+        ServerConfig config = ServerConfig.current();
+        int status = ex.getResponseCode();
+        boolean slow = latencyNanos >= TimeUnit.MILLISECONDS.toNanos(config.getLong("taskserver.accessLog.slowMs"));
+        if (!slow && status > 0 && status < 400) {
+            double rate = config.getDouble("taskserver.accessLog.sampleRate");
+            if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+                sampledOut.increment();
+                return;
+            }
+        }
+        RequestContext ctx = (RequestContext) ex.getAttribute(RequestContext.ATTRIBUTE);
+        InetSocketAddress remote = ex.getRemoteAddress();
+        offer(new Entry(requestId, ex.getRequestMethod(), ex.getRequestURI().getRawPath(),
+            ex.getRequestURI().getRawQuery(), remote == null ? null : remote.getAddress().getHostAddress(),
+            status, bytes, latencyNanos, ctx != null ? ctx.getDatabaseNanos() : 0,
+            ctx != null ? ctx.getRoundTrips() : 0, slow));
+    }
+
+    private void offer(Entry entry) {
+        if (!ring.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            Entry entry;
+            while (batch.size() < BATCH_SIZE && (entry = ring.poll()) != null) {
+                batch.add(entry);
+            }
+            if (batch.isEmpty()) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                System.err.println("Access log write failed, " + batch.size() + " entries lost: " + e.getMessage());
+            }
+            batch.clear();
+        }
+        accessFile.close();
+        if (slowFile != null) {
+            slowFile.close();
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        long drops = dropped.sum();
+        if (drops > droppedReported) {
+            sb.append("{\"ts\":\"").append(Instant.now()).append("\",\"event\":\"dropped\",\"count\":")
+                .append(drops - droppedReported).append("}\n");
+            droppedReported = drops;
+        }
+        boolean slowWritten = false;
+        for (Entry e : batch) {
+            e.appendJson(sb, false);
+            if (e.slow && slowFile != null) {
+                StringBuilder full = new StringBuilder(256);
+                e.appendJson(full, true);
+                slowFile.write(full.toString());
+                slowWritten = true;
+            }
+        }
+        accessFile.write(sb.toString());
+        accessFile.flush();
+        if (slowWritten) {
+            slowFile.flush();
+        }
+        written.add(batch.size());
+    }
+
+    private static void appendString(StringBuilder sb, String key, String value) {
+        sb.append(",\"").append(key).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * One buffered log line: a request, or a diagnostic event when source is set
+     */
+    static final class Entry {
+        final long timeMillis = System.currentTimeMillis();
+        final String requestId;
+        final String method;
+        final String path;
+        final String query;
+        final String client;
+        final int status;
+        final long bytes;
+        final long latencyNanos;
+        final long databaseNanos;
+        final int roundTrips;
+        final boolean slow;
+        final String source;
+        final String message;
+
+        Entry(String requestId, String method, String path, String query, String client, int status,
+              long bytes, long latencyNanos, long databaseNanos, int roundTrips, boolean slow) {
+            this(requestId, method, path, query, client, status, bytes, latencyNanos, databaseNanos,
+                roundTrips, slow, null, null);
+        }
+
+        Entry(String source, String message) {
+            this(null, null, null, null, null, 0, 0, 0, 0, 0, false, source, message);
+        }
+
+        private Entry(String requestId, String method, String path, String query, String client, int status,
+                      long bytes, long latencyNanos, long databaseNanos, int roundTrips, boolean slow,
+                      String source, String message) {
+            this.requestId = requestId;
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.client = client;
+            this.status = status;
+            this.bytes = bytes;
+            this.latencyNanos = latencyNanos;
+            this.databaseNanos = databaseNanos;
+            this.roundTrips = roundTrips;
+            this.slow = slow;
+            this.source = source;
+            this.message = message;
+        }
+
+        void appendJson(StringBuilder sb, boolean full) {
+            sb.append("{\"ts\":\"").append(Instant.ofEpochMilli(timeMillis)).append('"');
+            if (source != null) {
+                appendString(sb, "event", source);
+                appendString(sb, "message", message);
+                sb.append("}\n");
+                return;
+            }
+            appendString(sb, "id", requestId);
+            appendString(sb, "method", method);
+            appendString(sb, "path", path);
+            sb.append(",\"status\":").append(status)
+                .append(",\"bytes\":").append(bytes)
+                .append(",\"ms\":").append(String.format("%.3f", latencyNanos / 1e6))
+                .append(",\"db_ms\":").append(String.format("%.3f", databaseNanos / 1e6));
+            if (slow) {
+                sb.append(",\"slow\":true");
+            }
+            if (full) {
+                if (query != null) {
+                    appendString(sb, "query", query);
+                }
+                if (client != null) {
+                    appendString(sb, "client", client);
+                }
+                sb.append(",\"round_trips\":").append(roundTrips);
+            }
+            sb.append("}\n");
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring buffer. Each slot carries a
+     * sequence number telling producers when it is free and the consumer when it
+     * is filled, so offer() is one CAS on the tail and poll() takes no lock.
+     */
+    static final class Ring {
+        private final Entry[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private long head;   // consumer only
+
+        Ring(int requested) {
+            int capacity = Integer.highestOneBit(Math.max(2, requested - 1)) << 1;
+            this.slots = new Entry[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Entry entry) {
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        slots[index] = entry;
+                        sequences.lazySet(index, pos + 1);   // publishes the slot to the consumer
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    return false;   // full: the consumer has not freed this slot yet
+                } else {
+                    pos = tail.get();   // another producer took this slot
+                }
+            }
+        }
+
+        Entry poll() {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            Entry entry = slots[index];
+            slots[index] = null;
+            sequences.lazySet(index, head + slots.length);   // free for the producer one lap ahead
+            head++;
+            return entry;
+        }
+    }
+
+    /**
+     * Append-only file that is renamed to file.1 (file.1 to file.2, ...) once it
+     * exceeds maxBytes; the oldest beyond maxFiles is deleted
+     */
+    private static final class RotatingFile {
+        private final Path path;
+        private final long maxBytes;
+        private final int maxFiles;
+        private OutputStream out;
+        private long size;
+
+        RotatingFile(Path path, long maxBytes, int maxFiles) throws IOException {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.maxFiles = maxFiles;
+            open();
+        }
+
+        private void open() throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+            size = Files.size(path);
+        }
+
+        void write(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (size > 0 && size + bytes.length > maxBytes) {
+                rotate();
+            }
+            out.write(bytes);
+            size += bytes.length;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        private void rotate() throws IOException {
+            out.close();
+            Files.deleteIfExists(numbered(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(numbered(i))) {
+                    Files.move(numbered(i), numbered(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, numbered(1), StandardCopyOption.REPLACE_EXISTING);
+            open();
+        }
+
+        private Path numbered(int n) {
+            return path.resolveSibling(path.getFileName() + "." + n);
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error closing " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Counts the response body bytes the handler writes and reports them once, when closed
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private final LongConsumer onComplete;
+        private long count;
+        private boolean completed;
+
+        CountingOutputStream(OutputStream out, LongConsumer onComplete) {
+            super(out);
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                complete();
+            }
+        }
+
+        synchronized void complete() {
+            if (!completed) {
+                completed = true;
+                onComplete.accept(count);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example;
+
+import java.io.OutputStream;
+import java.sql.SQLTransientException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking Task Data Access
+ *
+ * Runs TaskDAO calls on a dedicated executor and returns CompletableFutures, so
+ * HTTP threads hand a request over and move on instead of waiting for
+ * PostgreSQL. The executor has one thread per pooled connection (pool size of
+ * all shards together); more threads could only wait for a connection. Calls
+ * beyond that wait in a bounded queue. When the queue is full the call fails at
+ * once with SQLTransientException, which the server answers with 503 and
+ * Retry-After, rather than letting latency grow without bound.
+ *
+ * The caller's RequestContext travels with each call, so deadlines, round-trip
+ * counts and tenant connection shares work as they do for direct TaskDAO calls.
+ * Futures complete on a database thread.
+ */
+public class AsyncTaskDAO {
+
+    private final TaskDAO dao;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param dao blocking DAO the calls are made on
+     * @param queueSize calls that may wait for a database thread
+     */
+    public AsyncTaskDAO(TaskDAO dao, int queueSize) {
+        this.dao = dao;
+        int threads = dao.getConnectionCapacity();
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), r -> {
+                Thread t = new Thread(r, "db-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Follows a changed pool size; threads above the new size exit after their current call
+     */
+    public void resize() {
+        int threads = dao.getConnectionCapacity();
+        // Keep core <= max at every step
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * @see TaskDAO#getAllTasks(String, Collection, boolean)
+     */
+    public CompletableFuture<List<Map<String, String>>> getAllTasks(String tenantId, Collection<String> fields,
+                                                                    boolean includeArchived) {
+        return submit(() -> dao.getAllTasks(tenantId, fields, includeArchived));
+    }
+
+    /**
+     * @see TaskDAO#getTasksPage(String, long, int, Collection, boolean)
+     */
+    public CompletableFuture<List<Map<String, String>>> getTasksPage(String tenantId, long afterId, int limit,
+                                                                     Collection<String> fields, boolean includeArchived) {
+        return submit(() -> dao.getTasksPage(tenantId, afterId, limit, fields, includeArchived));
+    }
+
+    /**
+     * @see TaskDAO#getTaskById(String, String, boolean)
+     */
+    public CompletableFuture<Map<String, String>> getTaskById(String tenantId, String id, boolean includeArchived) {
+        return submit(() -> dao.getTaskById(tenantId, id, includeArchived));
+    }
+
+    /**
+     * @see TaskDAO#createTask(String, String, String, String, String, String)
+     */
+    public CompletableFuture<Map<String, String>> createTask(String tenantId, String title, String description,
+                                                             String priority, String dueAt, String remindAt) {
+        return submit(() -> dao.createTask(tenantId, title, description, priority, dueAt, remindAt));
+    }
+
+    /**
+     * @see TaskDAO#updateTask(String, String, String, String, String, String, String, Long)
+     */
+    public CompletableFuture<Map<String, String>> updateTask(String tenantId, String id, String title, String description,
+                                                             String priority, String dueAt, String remindAt,
+                                                             Long expectedVersion) {
+        return submit(() -> dao.updateTask(tenantId, id, title, description, priority, dueAt, remindAt, expectedVersion));
+    }
+
+    /**
+     * @see TaskDAO#patchTask(String, String, Map, Long)
+     */
+    public CompletableFuture<Map<String, String>> patchTask(String tenantId, String id, Map<String, String> changes,
+                                                            Long expectedVersion) {
+        return submit(() -> dao.patchTask(tenantId, id, changes, expectedVersion));
+    }
+
+    /**
+     * @see TaskDAO#deleteTask(String, String)
+     */
+    public CompletableFuture<Map<String, String>> deleteTask(String tenantId, String id) {
+        return submit(() -> dao.deleteTask(tenantId, id));
+    }
+
+    /**
+     * @see TaskDAO#exportTasks(String, String, OutputStream)
+     */
+    public CompletableFuture<Long> exportTasks(String tenantId, String format, OutputStream out) {
+        return submit(() -> dao.exportTasks(tenantId, format, out));
+    }
+
+    /**
+     * @see TaskDAO#importTasks(String, Iterator, BiConsumer)
+     */
+    public CompletableFuture<Long> importTasks(String tenantId, Iterator<Map<String, String>> rows,
+                                               BiConsumer<Long, String> added) {
+        return submit(() -> dao.importTasks(tenantId, rows, added));
+    }
+
+    /**
+     * @see TaskDAO#getTasksInOrder(String, Iterator, int, Consumer)
+     */
+    public CompletableFuture<List<Map<String, String>>> getTasksInOrder(String tenantId, Iterator<Long> ids, int limit,
+                                                                       Consumer<Long> missing) {
+        return submit(() -> dao.getTasksInOrder(tenantId, ids, limit, missing));
+    }
+
+    /**
+     * Queues a call under the caller's request context
+     * @return future completed on a database thread, or failed with SQLTransientException if the queue is full
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> call) {
+        RequestContext ctx = RequestContext.current();
+        Callable<T> task = ctx != null ? ctx.propagate(call) : call;
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                T value;
+                try {
+                    value = task.call();
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                    return;
+                }
+                result.complete(value);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(new SQLTransientException("Database is busy, try again later", e));
+        }
+        return result;
+    }
+
+    /**
+     * @return one-line summary: threads, queued calls and calls turned away
+     */
+    public String getStats() {
+        return String.format("Database executor: %d threads, %d queued, %d completed, %d rejected (queue full)",
+            executor.getPoolSize(), executor.getQueue().size(), executor.getCompletedTaskCount(), rejected.sum());
+    }
+}
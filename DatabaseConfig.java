@@ -1,31 +1,83 @@
 package com.example;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * PostgreSQL Database Configuration
  * 
- * This class holds all database connection configuration settings.
- * You can modify these values according to your PostgreSQL setup.
+ * This class exposes the database settings of ServerConfig (taskserver.db.*):
+ * set them in taskserver.properties, as TASKSERVER_DB_* environment variables
+ * or as -D system properties according to your PostgreSQL setup.
+ *
+ * taskserver.db.shards lists extra shards as comma-separated host:port[/database]
+ * entries; the database above is shard 0. taskserver.db.replicas lists read replicas
+ * of shard 0 as host:port pairs (same database, user and password), and shard N's
+ * replicas come from taskserver.db.shard.N.replicas.
  */
 public class DatabaseConfig {
     
-    // Database connection parameters
-    private static final String DB_HOST = "localhost";
-    private static final String DB_PORT = "5432";
-    private static final String DB_NAME = "taskdb";
-    private static final String DB_USER = "postgres";
-    private static final String DB_PASSWORD = "5858";
-    
-    // Connection pool settings
-    private static final int MAX_POOL_SIZE = 10;
-    private static final int MIN_POOL_SIZE = 2;
-    private static final int CONNECTION_TIMEOUT = 30000; // 30 seconds
+    private static ServerConfig config() {
+        return ServerConfig.current();
+    }
     
     /**
      * Constructs the JDBC URL for PostgreSQL connection
      * @return JDBC connection URL
      */
     public static String getJdbcUrl() {
-        return String.format("jdbc:postgresql://%s:%s/%s", DB_HOST, DB_PORT, DB_NAME);
+        return String.format("jdbc:postgresql://%s:%s/%s", config().getString("taskserver.db.host"),
+            config().getInt("taskserver.db.port"), config().getString("taskserver.db.name"));
+    }
+    
+    /**
+     * Constructs the JDBC URLs of all shards
+     * @return shard JDBC URLs; index 0 is getJdbcUrl()
+     */
+    public static List<String> getShardJdbcUrls() {
+        List<String> urls = new ArrayList<>();
+        urls.add(getJdbcUrl());
+        for (String entry : config().getString("taskserver.db.shards").split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int slash = entry.indexOf('/');
+            String database = slash < 0 ? config().getString("taskserver.db.name") : entry.substring(slash + 1);
+            urls.add(toJdbcUrl(slash < 0 ? entry : entry.substring(0, slash), database));
+        }
+        return urls;
+    }
+    
+    /**
+     * Constructs the JDBC URLs of a shard's read replicas
+     * @param shard shard index
+     * @return replica JDBC URLs, empty if none are configured
+     */
+    public static List<String> getReplicaJdbcUrls(int shard) {
+        String shardUrl = getShardJdbcUrls().get(shard);
+        String database = shardUrl.substring(shardUrl.lastIndexOf('/') + 1);
+        String spec = config().getString(shard == 0 ? "taskserver.db.replicas" : "taskserver.db.shard." + shard + ".replicas");
+        List<String> urls = new ArrayList<>();
+        for (String hostPort : spec.split(",")) {
+            hostPort = hostPort.trim();
+            if (hostPort.isEmpty()) continue;
+            urls.add(toJdbcUrl(hostPort, database));
+        }
+        return urls;
+    }
+    
+    private static String toJdbcUrl(String hostPort, String database) {
+        int colon = hostPort.lastIndexOf(':');
+        String host = colon < 0 ? hostPort : hostPort.substring(0, colon);
+        String port = colon < 0 ? String.valueOf(config().getInt("taskserver.db.port")) : hostPort.substring(colon + 1);
+        return String.format("jdbc:postgresql://%s:%s/%s", host, port, database);
+    }
+    
+    /**
+     * Gets how long a client's reads are pinned to the primary after it writes
+     * @return read-your-writes window in milliseconds
+     */
+    public static long getReadYourWritesMillis() {
+        return config().getLong("taskserver.db.readYourWritesMs");
     }
     
     /**
@@ -33,7 +85,7 @@ public class DatabaseConfig {
      * @return database username
      */
     public static String getUsername() {
-        return DB_USER;
+        return config().getString("taskserver.db.user");
     }
     
     /**
@@ -41,7 +93,7 @@ public class DatabaseConfig {
      * @return database password
      */
     public static String getPassword() {
-        return DB_PASSWORD;
+        return config().getString("taskserver.db.password");
     }
     
     /**
@@ -49,7 +101,7 @@ public class DatabaseConfig {
      * @return maximum pool size
      */
     public static int getMaxPoolSize() {
-        return MAX_POOL_SIZE;
+        return config().getInt("taskserver.db.pool.max");
     }
     
     /**
@@ -57,15 +109,15 @@ public class DatabaseConfig {
      * @return minimum pool size
      */
     public static int getMinPoolSize() {
-        return MIN_POOL_SIZE;
+        return config().getInt("taskserver.db.pool.min");
     }
     
     /**
      * Gets the connection timeout in milliseconds
      * @return connection timeout
      */
-    public static int getConnectionTimeout() {
-        return CONNECTION_TIMEOUT;
+    public static long getConnectionTimeout() {
+        return config().getLong("taskserver.db.connectionTimeoutMs");
     }
     
     /**
@@ -73,11 +125,20 @@ public class DatabaseConfig {
      */
     public static void printConfig() {
         System.out.println("Database Configuration:");
-        System.out.println("  Host: " + DB_HOST);
-        System.out.println("  Port: " + DB_PORT);
-        System.out.println("  Database: " + DB_NAME);
-        System.out.println("  User: " + DB_USER);
+        System.out.println("  Host: " + config().getString("taskserver.db.host"));
+        System.out.println("  Port: " + config().getInt("taskserver.db.port"));
+        System.out.println("  Database: " + config().getString("taskserver.db.name"));
+        System.out.println("  User: " + getUsername());
         System.out.println("  JDBC URL: " + getJdbcUrl());
+        List<String> shards = getShardJdbcUrls();
+        for (int i = 0; i < shards.size(); i++) {
+            if (i > 0) {
+                System.out.println("  Shard " + i + ": " + shards.get(i));
+            }
+            for (String url : getReplicaJdbcUrls(i)) {
+                System.out.println("  Replica" + (shards.size() > 1 ? " of shard " + i : "") + ": " + url);
+            }
+        }
     }
 }
 
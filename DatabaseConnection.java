@@ -1,60 +1,155 @@
 package com.example;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Database Connection Manager
  * 
  * Manages PostgreSQL database connections with a simple connection pool.
  * This class handles connection creation, pooling, and cleanup.
+ * Connections handed out by getConnection() go back to the pool when closed,
+ * so callers can keep using try-with-resources.
+ * Each shard's primary and each read replica have a pool of their own.
  */
 public class DatabaseConnection {
     
-    private static DatabaseConnection instance;
-    private final BlockingQueue<Connection> connectionPool;
-    private final int poolSize;
+    private static List<DatabaseConnection> shards;
+    private static final Map<Integer, List<DatabaseConnection>> replicas = new HashMap<>();
+    private final String name;
+    private final String jdbcUrl;
+    private final BlockingQueue<Connection> connectionPool = new LinkedBlockingQueue<>();
+    private final AtomicInteger inUse = new AtomicInteger();
     
-    private DatabaseConnection() throws SQLException {
-        this.poolSize = DatabaseConfig.getMaxPoolSize();
-        this.connectionPool = new ArrayBlockingQueue<>(poolSize);
-        initializePool();
+    private DatabaseConnection(String name, String jdbcUrl) throws SQLException {
+        this.name = name;
+        this.jdbcUrl = jdbcUrl;
+        loadDriver();
     }
     
     /**
-     * Gets the singleton instance of DatabaseConnection
+     * Gets the singleton pool for the primary database (shard 0).
+     * No connections are opened here; call warmUp() to fill the pool.
      * @return DatabaseConnection instance
-     * @throws SQLException if connection initialization fails
+     * @throws SQLException if the JDBC driver cannot be loaded
      */
     public static synchronized DatabaseConnection getInstance() throws SQLException {
-        if (instance == null) {
-            instance = new DatabaseConnection();
+        return getShards().get(0);
+    }
+    
+    /**
+     * Gets one pool per shard primary
+     * @return shard pools; a single entry when sharding is not configured
+     * @throws SQLException if the JDBC driver cannot be loaded
+     */
+    public static synchronized List<DatabaseConnection> getShards() throws SQLException {
+        if (shards == null) {
+            List<String> urls = DatabaseConfig.getShardJdbcUrls();
+            List<DatabaseConnection> pools = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i++) {
+                pools.add(new DatabaseConnection(urls.size() == 1 ? "primary" : "shard-" + i, urls.get(i)));
+            }
+            shards = List.copyOf(pools);
         }
-        return instance;
+        return shards;
     }
     
     /**
-     * Initializes the connection pool with database connections
-     * @throws SQLException if connection creation fails
+     * Gets one pool per configured read replica of shard 0
+     * @return replica pools, empty if no replicas are configured
+     * @throws SQLException if the JDBC driver cannot be loaded
+     */
+    public static synchronized List<DatabaseConnection> getReplicas() throws SQLException {
+        return getReplicas(0);
+    }
+    
+    /**
+     * Gets one pool per configured read replica of a shard
+     * @param shard shard index
+     * @return replica pools, empty if no replicas are configured
+     * @throws SQLException if the JDBC driver cannot be loaded
+     */
+    public static synchronized List<DatabaseConnection> getReplicas(int shard) throws SQLException {
+        List<DatabaseConnection> pools = replicas.get(shard);
+        if (pools == null) {
+            String prefix = getShards().size() == 1 ? "" : "shard-" + shard + "-";
+            List<String> urls = DatabaseConfig.getReplicaJdbcUrls(shard);
+            List<DatabaseConnection> created = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i++) {
+                created.add(new DatabaseConnection(prefix + "replica-" + (i + 1), urls.get(i)));
+            }
+            pools = List.copyOf(created);
+            replicas.put(shard, pools);
+        }
+        return pools;
+    }
+    
+    /**
+     * Loads the PostgreSQL JDBC driver
+     * @throws SQLException if the driver is not on the classpath
      */
-    private void initializePool() throws SQLException {
-        // Load PostgreSQL JDBC driver
+    private void loadDriver() throws SQLException {
         try {
             Class.forName("org.postgresql.Driver");
         } catch (ClassNotFoundException e) {
             throw new SQLException("PostgreSQL JDBC Driver not found. Make sure postgresql.jar is in the classpath.", e);
         }
-        
-        // Create initial connections
-        for (int i = 0; i < DatabaseConfig.getMinPoolSize(); i++) {
-            Connection conn = createConnection();
-            connectionPool.offer(conn);
+    }
+    
+    /**
+     * Opens the minimum number of pooled connections in parallel
+     * @throws SQLException if any connection cannot be opened
+     */
+    public void warmUp() throws SQLException {
+        int missing = DatabaseConfig.getMinPoolSize() - connectionPool.size();
+        if (missing <= 0) {
+            return;
+        }
+        ExecutorService opener = Executors.newFixedThreadPool(missing);
+        try {
+            List<Future<Connection>> opened = new ArrayList<>();
+            for (int i = 0; i < missing; i++) {
+                opened.add(opener.submit(this::createConnection));
+            }
+            SQLException failure = null;
+            for (Future<Connection> f : opened) {
+                try {
+                    if (!connectionPool.offer(f.get())) {
+                        f.get().close();
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof SQLException
+                            ? (SQLException) e.getCause()
+                            : new SQLException("Failed to open connection", e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while warming up connection pool", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            opener.shutdown();
         }
-        
-        System.out.println("Database connection pool initialized with " + DatabaseConfig.getMinPoolSize() + " connections");
+        System.out.println("Database connection pool initialized with " + connectionPool.size() + " connections" + ("primary".equals(name) ? "" : " (" + name + ")"));
     }
     
     /**
@@ -63,11 +158,13 @@ public class DatabaseConnection {
      * @throws SQLException if connection fails
      */
     private Connection createConnection() throws SQLException {
-        Connection conn = DriverManager.getConnection(
-            DatabaseConfig.getJdbcUrl(),
-            DatabaseConfig.getUsername(),
-            DatabaseConfig.getPassword()
-        );
+        Properties props = new Properties();
+        props.setProperty("user", DatabaseConfig.getUsername());
+        props.setProperty("password", DatabaseConfig.getPassword());
+        String timeoutSeconds = String.valueOf((DatabaseConfig.getConnectionTimeout() + 999) / 1000);
+        props.setProperty("connectTimeout", timeoutSeconds);
+        props.setProperty("loginTimeout", timeoutSeconds);
+        Connection conn = DriverManager.getConnection(jdbcUrl, props);
         // Set auto-commit to true for simplicity
         conn.setAutoCommit(true);
         return conn;
@@ -76,15 +173,69 @@ public class DatabaseConnection {
     /**
      * Gets a connection from the pool
      * Creates a new connection if pool is empty and under max size
-     * @return Connection object
+     * @return Connection object; closing it returns it to the pool
      * @throws SQLException if connection creation fails
      */
     public Connection getConnection() throws SQLException {
+        TaskEvents.ConnectionAcquire event = new TaskEvents.ConnectionAcquire();
+        event.begin();
         Connection conn = connectionPool.poll();
-        if (conn == null || conn.isClosed()) {
+        boolean opened = conn == null || conn.isClosed();
+        if (opened) {
             conn = createConnection();
         }
-        return conn;
+        event.done(name, opened, inUse.incrementAndGet());
+        return pooled(conn);
+    }
+    
+    /**
+     * @return number of connections currently borrowed from this pool
+     */
+    public int getActiveConnections() {
+        return inUse.get();
+    }
+    
+    /**
+     * @return pool name ("primary" or "replica-N")
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Wraps a physical connection so that close() hands it back to the pool
+     * @param conn physical connection
+     * @return pooled connection proxy
+     */
+    private Connection pooled(Connection conn) {
+        boolean[] released = new boolean[1];
+        long borrowedAt = System.nanoTime();
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        if (!released[0]) {
+                            released[0] = true;
+                            inUse.decrementAndGet();
+                            RequestContext.recordDatabaseTime(System.nanoTime() - borrowedAt);
+                            returnConnection(conn);
+                        }
+                        return null;
+                    case "isClosed":
+                        return released[0] || conn.isClosed();
+                    default:
+                        if (released[0]) {
+                            throw new SQLException("Connection has been returned to the pool");
+                        }
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            });
     }
     
     /**
@@ -94,17 +245,40 @@ public class DatabaseConnection {
     public void returnConnection(Connection conn) {
         if (conn != null) {
             try {
-                if (!conn.isClosed() && connectionPool.size() < poolSize) {
+                // Limit read on every return so a lowered pool.max takes effect as connections come back
+                if (!conn.isClosed() && connectionPool.size() < DatabaseConfig.getMaxPoolSize()) {
                     connectionPool.offer(conn);
                 } else if (!conn.isClosed()) {
                     conn.close();
                 }
             } catch (SQLException e) {
-                System.err.println("Error returning connection to pool: " + e.getMessage());
+                AccessLog.event("pool", "Error returning connection to pool: " + e.getMessage());
             }
         }
     }
     
+    /**
+     * Applies changed pool limits: closes idle connections above the maximum and
+     * opens connections up to the minimum. Borrowed connections are left alone;
+     * they are closed on return if the pool is still over the limit.
+     */
+    public void resize() {
+        int excess = connectionPool.size() - DatabaseConfig.getMaxPoolSize();
+        Connection conn;
+        while (excess-- > 0 && (conn = connectionPool.poll()) != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+        }
+        try {
+            warmUp();
+        } catch (SQLException e) {
+            System.err.println("Could not grow " + name + " pool to its new minimum: " + e.getMessage());
+        }
+    }
+    
     /**
      * Closes all connections in the pool
      */
@@ -127,11 +301,10 @@ public class DatabaseConnection {
      */
     public boolean testConnection() {
         try (Connection conn = getConnection()) {
-            return conn != null && !conn.isClosed();
+            return conn != null && conn.isValid(5);
         } catch (SQLException e) {
             System.err.println("Database connection test failed: " + e.getMessage());
             return false;
         }
     }
 }
-
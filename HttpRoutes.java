@@ -0,0 +1,72 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP Route Table
+ *
+ * Maps path prefixes to handlers independently of the HTTP engine, so the same
+ * task routes can be served by com.sun.net.httpserver or by NioHttpServer.
+ * Matching follows HttpServer context rules: the longest registered prefix wins.
+ */
+public class HttpRoutes {
+
+    private final Map<String, HttpHandler> routes = new LinkedHashMap<>();
+
+    /**
+     * Registers a handler for a path prefix
+     * @param path path prefix (e.g. "/tasks")
+     * @param handler handler serving that prefix
+     * @return this route table
+     */
+    public HttpRoutes add(String path, HttpHandler handler) {
+        routes.put(path, handler);
+        return this;
+    }
+
+    /**
+     * Finds the handler for a request path
+     * @param path request path
+     * @return handler with the longest matching prefix, or null if none match
+     */
+    public HttpHandler resolve(String path) {
+        String prefix = resolvePrefix(path);
+        return prefix == null ? null : routes.get(prefix);
+    }
+
+    /**
+     * Finds the registered prefix that serves a request path
+     * @param path request path
+     * @return matching prefix, or null if none match
+     */
+    public String resolvePrefix(String path) {
+        String best = null;
+        for (String prefix : routes.keySet()) {
+            if (path.startsWith(prefix) && (best == null || prefix.length() > best.length())) {
+                best = prefix;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Creates one HttpServer context per route
+     * @param server JDK HTTP server
+     */
+    public void registerOn(HttpServer server) {
+        for (Map.Entry<String, HttpHandler> route : routes.entrySet()) {
+            server.createContext(route.getKey(), route.getValue());
+        }
+    }
+
+    /**
+     * @return read-only view of the registered routes
+     */
+    public Map<String, HttpHandler> asMap() {
+        return Collections.unmodifiableMap(routes);
+    }
+}
@@ -0,0 +1,562 @@
+package com.example;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HttpExchange implementation backed by a NioHttpServer connection.
+ *
+ * The request body is fed in by the event loop and read by the handler thread;
+ * the response is buffered in small blocks and handed to the event loop for writing,
+ * chunked when the handler does not know the length up front.
+ */
+class NioHttpExchange extends HttpExchange {
+
+    /**
+     * Attribute a handler sets before returning when it will answer later from
+     * another thread. The exchange then stays open until the handler closes it,
+     * as with com.sun.net.httpserver.
+     */
+    static final String ASYNC_ATTRIBUTE = NioHttpExchange.class.getName() + ".async";
+
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    private static final Map<Integer, String> REASONS = new HashMap<>();
+
+    static {
+        REASONS.put(100, "Continue");
+        REASONS.put(200, "OK");
+        REASONS.put(201, "Created");
+        REASONS.put(204, "No Content");
+        REASONS.put(304, "Not Modified");
+        REASONS.put(400, "Bad Request");
+        REASONS.put(401, "Unauthorized");
+        REASONS.put(404, "Not Found");
+        REASONS.put(405, "Method Not Allowed");
+        REASONS.put(412, "Precondition Failed");
+        REASONS.put(429, "Too Many Requests");
+        REASONS.put(500, "Internal Server Error");
+        REASONS.put(503, "Service Unavailable");
+        REASONS.put(504, "Gateway Timeout");
+    }
+
+    private final NioHttpServer.Connection conn;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final BodyStream body = new BodyStream();
+    private final ResponseStream response = new ResponseStream();
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private InputStream in = body;
+    private OutputStream out = response;
+    private NioHttpContext context;
+    private int responseCode = -1;
+    private volatile boolean headersSent;
+    private volatile boolean complete;
+    private volatile boolean broken;
+
+    private NioHttpExchange(NioHttpServer.Connection conn, String method, URI uri, String protocol, Headers headers) {
+        this.conn = conn;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = headers;
+    }
+
+    /**
+     * Parses a request line and header block (without the terminating blank line)
+     * @throws IllegalArgumentException if the request is malformed
+     */
+    static NioHttpExchange parse(String head, NioHttpServer.Connection conn) {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new IllegalArgumentException("Malformed request line: " + lines[0]);
+        }
+        Headers headers = new Headers();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Malformed header: " + lines[i]);
+            }
+            headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+        return new NioHttpExchange(conn, requestLine[0], URI.create(requestLine[1]), requestLine[2], headers);
+    }
+
+    boolean isKeepAlive() {
+        String connection = requestHeaders.getFirst("Connection");
+        if ("HTTP/1.0".equals(protocol)) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
+    void setContext(String path, HttpHandler handler) {
+        this.context = new NioHttpContext(path, handler);
+    }
+
+    BodyStream bodyStream() {
+        return body;
+    }
+
+    boolean isHeadersSent() {
+        return headersSent;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Marks the connection as unusable for further requests (e.g. a truncated response)
+     */
+    void markBroken() {
+        broken = true;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Called by the event loop when the client disconnects mid-exchange
+     */
+    void abort() {
+        broken = true;
+        body.abort();
+        // Nobody is left to read the answer: stop the handler's database work
+        if (attributes.get(RequestContext.ATTRIBUTE) instanceof RequestContext ctx) {
+            ctx.cancel("client disconnected");
+        }
+    }
+
+    // ---- HttpExchange ----
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        if (!headersSent) {
+            // Handler finished without responding: nothing sensible to reuse
+            broken = true;
+            try {
+                sendResponseHeaders(500, -1);
+            } catch (IOException e) {
+                // connection already gone
+            }
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        response.close();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return out;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (headersSent) {
+            throw new IOException("Response headers already sent");
+        }
+        headersSent = true;
+        responseCode = rCode;
+        boolean keepAlive = isKeepAlive() && !broken;
+        boolean bodyForbidden = rCode == 204 || rCode == 304 || rCode < 200;
+        boolean head = "HEAD".equalsIgnoreCase(method);
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(rCode).append(' ').append(REASONS.getOrDefault(rCode, "Status")).append("\r\n");
+        for (Map.Entry<String, List<String>> h : responseHeaders.entrySet()) {
+            for (String v : h.getValue()) {
+                sb.append(h.getKey()).append(": ").append(v).append("\r\n");
+            }
+        }
+        boolean chunked = false;
+        long length = 0;
+        if (bodyForbidden) {
+            // no framing headers at all
+        } else if (responseLength == -1 || head) {
+            sb.append("Content-Length: ").append(Math.max(0, responseLength)).append("\r\n");
+        } else if (responseLength > 0) {
+            sb.append("Content-Length: ").append(responseLength).append("\r\n");
+            length = responseLength;
+        } else if ("HTTP/1.0".equals(protocol)) {
+            // HTTP/1.0 has no chunked encoding: the body is delimited by closing the connection
+            keepAlive = false;
+            length = Long.MAX_VALUE;
+        } else {
+            sb.append("Transfer-Encoding: chunked\r\n");
+            chunked = true;
+        }
+        if (!keepAlive) {
+            broken = true;
+            sb.append("Connection: close\r\n");
+        } else if ("HTTP/1.0".equals(protocol)) {
+            sb.append("Connection: keep-alive\r\n");
+        }
+        sb.append("\r\n");
+        response.start(sb.toString().getBytes(StandardCharsets.ISO_8859_1), chunked, length);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return conn.remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return conn.localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) in = i;
+        if (o != null) out = o;
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * Request body fed by the event loop. The loop stops reading from the socket
+     * while too much unread body is queued, and resumes once the handler catches up.
+     */
+    final class BodyStream extends InputStream {
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private int headOffset;
+        private long queued;
+        private boolean finished;
+        private boolean aborted;
+        private boolean discarding;
+        private boolean resumeRequested;
+
+        synchronized void offer(byte[] src, int off, int len) {
+            if (discarding || len == 0) return;
+            byte[] copy = new byte[len];
+            System.arraycopy(src, off, copy, 0, len);
+            chunks.add(copy);
+            queued += len;
+            notifyAll();
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        /**
+         * Drops queued and future body bytes (the handler no longer wants them)
+         */
+        synchronized void discard() {
+            discarding = true;
+            chunks.clear();
+            queued = 0;
+            notifyAll();
+        }
+
+        synchronized boolean isFull() {
+            if (queued > NioHttpServer.BODY_HIGH_WATER) {
+                resumeRequested = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            boolean resume = false;
+            int n;
+            synchronized (this) {
+                while (chunks.isEmpty() && !finished && !aborted && !discarding) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading request body", e);
+                    }
+                }
+                if (aborted) throw new IOException("Connection closed by client");
+                if (chunks.isEmpty()) return -1;
+                byte[] head = chunks.peek();
+                n = Math.min(len, head.length - headOffset);
+                System.arraycopy(head, headOffset, b, off, n);
+                headOffset += n;
+                if (headOffset == head.length) {
+                    chunks.poll();
+                    headOffset = 0;
+                }
+                queued -= n;
+                if (resumeRequested && queued <= NioHttpServer.BODY_LOW_WATER) {
+                    resumeRequested = false;
+                    resume = true;
+                }
+            }
+            if (resume) conn.bodyDrained();
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) Math.min(Integer.MAX_VALUE, queued);
+        }
+
+        @Override
+        public void close() {
+            boolean resume;
+            synchronized (this) {
+                if (finished && chunks.isEmpty()) return;
+                discarding = true;
+                chunks.clear();
+                queued = 0;
+                resume = resumeRequested;
+                resumeRequested = false;
+            }
+            if (resume) conn.bodyDrained();
+        }
+    }
+
+    /**
+     * Response body buffered in blocks and queued on the connection
+     */
+    final class ResponseStream extends OutputStream {
+        private final byte[] buffer = new byte[RESPONSE_BUFFER_SIZE];
+        private int count;
+        private byte[] head;
+        private boolean started;
+        private boolean chunked;
+        private long remaining;
+        private boolean closed;
+
+        synchronized void start(byte[] headerBytes, boolean chunked, long length) {
+            this.head = headerBytes;
+            this.chunked = chunked;
+            this.remaining = length;
+            this.started = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (!started) throw new IOException("sendResponseHeaders must be called before writing the body");
+            if (closed) throw new IOException("Response stream closed");
+            if (!chunked && len > remaining) throw new IOException("Too many bytes for the declared Content-Length");
+            if (!chunked) remaining -= len;
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) push(false);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (started && !closed && (count > 0 || head != null)) push(false);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            if (!started) return;
+            if (!chunked && remaining > 0 && remaining != Long.MAX_VALUE) {
+                // Fewer bytes than promised: the client can only recover if we close
+                broken = true;
+            }
+            try {
+                push(true);
+            } catch (IOException e) {
+                broken = true;
+            }
+            complete = true;
+            conn.responseComplete(NioHttpExchange.this);
+        }
+
+        private void push(boolean last) throws IOException {
+            if (conn.closed) throw new IOException("Connection closed by client");
+            String chunkHeader = chunked && count > 0 ? Integer.toHexString(count) + "\r\n" : "";
+            int size = (head == null ? 0 : head.length) + chunkHeader.length() + count
+                + (chunked && count > 0 ? 2 : 0) + (chunked && last ? 5 : 0);
+            ByteBuffer bb = ByteBuffer.allocate(size);
+            if (head != null) {
+                bb.put(head);
+                head = null;
+            }
+            if (count > 0) {
+                bb.put(chunkHeader.getBytes(StandardCharsets.ISO_8859_1));
+                bb.put(buffer, 0, count);
+                if (chunked) bb.put((byte) '\r').put((byte) '\n');
+                count = 0;
+            }
+            if (chunked && last) {
+                bb.put("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            }
+            bb.flip();
+            if (bb.hasRemaining()) {
+                conn.enqueue(bb);
+                if (!last) conn.awaitWritable();
+            }
+        }
+    }
+
+    /**
+     * Minimal HttpContext so handlers calling getHttpContext() see their route
+     */
+    static final class NioHttpContext extends HttpContext {
+        private final String path;
+        private HttpHandler handler;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<Filter> filters = new ArrayList<>();
+        private Authenticator authenticator;
+
+        NioHttpContext(String path, HttpHandler handler) {
+            this.path = path;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpHandler getHandler() {
+            return handler;
+        }
+
+        @Override
+        public void setHandler(HttpHandler h) {
+            this.handler = h;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public HttpServer getServer() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public List<Filter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Authenticator setAuthenticator(Authenticator auth) {
+            Authenticator previous = authenticator;
+            authenticator = auth;
+            return previous;
+        }
+
+        @Override
+        public Authenticator getAuthenticator() {
+            return authenticator;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NIO HTTP/1.1 Server
+ *
+ * A small selector-based alternative to com.sun.net.httpserver.HttpServer.
+ * One event loop per core owns socket I/O (reads into a direct buffer, parses
+ * requests, writes queued response bytes); handlers run on the supplied executor
+ * and see an ordinary HttpExchange, so existing HttpHandlers work unchanged.
+ * Connections are kept alive and pipelined requests are answered in order.
+ */
+public class NioHttpServer {
+
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+    static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_HEADER_SIZE = 16 * 1024;
+    // Per-connection flow control for request bodies and queued responses
+    static final int BODY_HIGH_WATER = 256 * 1024;
+    static final int BODY_LOW_WATER = 64 * 1024;
+    static final long OUTPUT_HIGH_WATER = 1024 * 1024;
+    static final long OUTPUT_LOW_WATER = 256 * 1024;
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final int BACKLOG = 1024;
+
+    private final InetSocketAddress address;
+    private final HttpRoutes routes;
+    private final Executor executor;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    /**
+     * Creates a server; nothing is bound until start() is called
+     * @param address address to listen on
+     * @param routes route table mapping path prefixes to handlers
+     * @param executor executor that runs handlers (handlers may block)
+     * @param loopCount number of selector event loops, typically one per core
+     */
+    public NioHttpServer(InetSocketAddress address, HttpRoutes routes, Executor executor, int loopCount) {
+        this.address = address;
+        this.routes = routes;
+        this.executor = executor;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+    }
+
+    /**
+     * Binds the listening socket and starts the event loops
+     * @throws IOException if the socket cannot be bound
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(address, BACKLOG);
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        // The first loop also accepts connections and deals them out round-robin
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            // Non-daemon, like the JDK server's dispatcher: the loops keep the JVM alive until stop()
+            Thread t = new Thread(loop, "nio-http-" + loop.index);
+            t.start();
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes all open connections
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel ch;
+            while ((ch = serverChannel.accept()) != null) {
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                EventLoop target = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                SocketChannel accepted = ch;
+                target.execute(() -> target.register(accepted));
+            }
+        } catch (IOException e) {
+            if (running) AccessLog.event("nio", "Accept failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Selector loop owning a subset of the connections
+     */
+    final class EventLoop implements Runnable {
+        final int index;
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Direct buffers are shared by every connection on this loop; socket I/O only happens here
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        EventLoop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on this loop's thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel ch) {
+            try {
+                Connection conn = new Connection(ch, this);
+                conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+            } catch (ClosedChannelException e) {
+                // client went away before we got to it
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            AccessLog.event("nio", "Event loop task failed: " + e);
+                        }
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        try {
+                            if (!key.isValid()) continue;
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+                            Connection conn = (Connection) key.attachment();
+                            if (key.isReadable()) conn.onReadable();
+                            if (key.isValid() && key.isWritable()) conn.onWritable();
+                        } catch (RuntimeException e) {
+                            // e.g. CancelledKeyException: give up on this connection, keep serving the others
+                            AccessLog.event("nio", "Closing connection after error: " + e);
+                            if (key.attachment() instanceof Connection) {
+                                ((Connection) key.attachment()).close();
+                            }
+                        }
+                    }
+                    closeIdleConnections();
+                } catch (IOException | RuntimeException e) {
+                    AccessLog.event("nio", "Event loop error: " + e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < 1000) return;
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    Connection conn = (Connection) key.attachment();
+                    if (conn.exchange == null && now - conn.lastActivity > IDLE_TIMEOUT_MS) {
+                        conn.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One client connection. Parsing state is only touched by the owning loop;
+     * the outbound queue and flow-control counters are shared with handler threads.
+     */
+    final class Connection {
+        final SocketChannel channel;
+        final EventLoop loop;
+        final InetSocketAddress remoteAddress;
+        final InetSocketAddress localAddress;
+        SelectionKey key;
+        volatile boolean closed;
+        long lastActivity = System.currentTimeMillis();
+
+        // Inbound bytes not yet consumed: buf[start, end)
+        private byte[] buf = new byte[8192];
+        private int start;
+        private int end;
+        private boolean readPaused;
+
+        // Request currently being served; the next pipelined request waits until it completes
+        NioHttpExchange exchange;
+        private boolean closeAfterResponse;
+        private long bodyRemaining;      // fixed-length body bytes left, or -1 when chunked
+        private int chunkState;          // 0 size line, 1 data, 2 data CRLF, 3 trailers
+        private long chunkRemaining;
+        private boolean bodyComplete;
+
+        // Response bytes queued by handler threads, written by the loop
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private boolean closing;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.remoteAddress = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+            this.localAddress = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        }
+
+        // ---- reading (loop thread) ----
+
+        void onReadable() {
+            ByteBuffer rb = loop.readBuffer;
+            rb.clear();
+            int n;
+            try {
+                n = channel.read(rb);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            rb.flip();
+            ensureCapacity(rb.remaining());
+            rb.get(buf, end, rb.remaining());
+            end += n;
+            process();
+        }
+
+        private void ensureCapacity(int extra) {
+            if (end + extra <= buf.length) return;
+            int live = end - start;
+            if (live + extra <= buf.length && start > 0) {
+                System.arraycopy(buf, start, buf, 0, live);
+            } else {
+                byte[] bigger = new byte[Math.max(buf.length * 2, live + extra)];
+                System.arraycopy(buf, start, bigger, 0, live);
+                buf = bigger;
+            }
+            start = 0;
+            end = live;
+        }
+
+        /**
+         * Consumes as much buffered input as the current state allows
+         */
+        void process() {
+            while (!closed) {
+                if (exchange != null) {
+                    if (!bodyComplete) {
+                        feedBody();
+                        if (!bodyComplete) {
+                            if (exchange.bodyStream().isFull()) pauseReading();
+                            return;
+                        }
+                    }
+                    if (!exchange.isComplete()) {
+                        // Pipelined requests wait in the buffer; stop reading if it grows too large
+                        if (end - start > MAX_HEADER_SIZE * 4) pauseReading();
+                        return;
+                    }
+                    finishExchange();
+                    if (closing) return;
+                    continue;
+                }
+                if (!parseRequest()) return;
+            }
+        }
+
+        private boolean parseRequest() {
+            int headerEnd = indexOfHeaderEnd();
+            if (headerEnd < 0) {
+                if (end - start > MAX_HEADER_SIZE) {
+                    rejectAndClose(431, "Request Header Fields Too Large");
+                }
+                return false;
+            }
+            String head = new String(buf, start, headerEnd - start, StandardCharsets.ISO_8859_1);
+            start = headerEnd + 4;
+            NioHttpExchange ex;
+            try {
+                ex = NioHttpExchange.parse(head, this);
+            } catch (IllegalArgumentException e) {
+                rejectAndClose(400, "Bad Request");
+                return false;
+            }
+            String transferEncoding = ex.getRequestHeaders().getFirst("Transfer-Encoding");
+            String contentLength = ex.getRequestHeaders().getFirst("Content-Length");
+            bodyComplete = false;
+            chunkState = 0;
+            if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                bodyRemaining = -1;
+            } else {
+                try {
+                    bodyRemaining = contentLength == null ? 0 : Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    rejectAndClose(400, "Bad Request");
+                    return false;
+                }
+                if (bodyRemaining == 0) {
+                    bodyComplete = true;
+                    ex.bodyStream().finish();
+                }
+            }
+            closeAfterResponse = !ex.isKeepAlive();
+            exchange = ex;
+            if ("100-continue".equalsIgnoreCase(ex.getRequestHeaders().getFirst("Expect"))) {
+                enqueue(ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+            }
+            dispatch(ex);
+            return true;
+        }
+
+        private int indexOfHeaderEnd() {
+            for (int i = start; i + 3 < end; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void dispatch(NioHttpExchange ex) {
+            HttpHandler handler = routes.resolve(ex.getRequestURI().getPath());
+            String prefix = routes.resolvePrefix(ex.getRequestURI().getPath());
+            ex.setContext(prefix, handler);
+            executor.execute(() -> {
+                boolean async = false;
+                try {
+                    if (handler == null) {
+                        ex.sendResponseHeaders(404, -1);
+                    } else {
+                        handler.handle(ex);
+                        async = ex.getAttribute(NioHttpExchange.ASYNC_ATTRIBUTE) != null;
+                    }
+                } catch (Throwable t) {
+                    if (!ex.isHeadersSent()) {
+                        try {
+                            ex.sendResponseHeaders(500, -1);
+                        } catch (IOException ignored) {
+                            // connection already gone
+                        }
+                    } else {
+                        ex.markBroken();
+                    }
+                } finally {
+                    if (!async) {
+                        ex.close();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Moves request body bytes from the input buffer into the exchange's body stream
+         */
+        private void feedBody() {
+            NioHttpExchange.BodyStream body = exchange.bodyStream();
+            while (!bodyComplete && start < end) {
+                if (bodyRemaining >= 0) {
+                    int n = (int) Math.min(bodyRemaining, end - start);
+                    body.offer(buf, start, n);
+                    start += n;
+                    bodyRemaining -= n;
+                    if (bodyRemaining == 0) {
+                        bodyComplete = true;
+                        body.finish();
+                    }
+                    continue;
+                }
+                if (chunkState == 1) {
+                    int n = (int) Math.min(chunkRemaining, end - start);
+                    body.offer(buf, start, n);
+                    start += n;
+                    chunkRemaining -= n;
+                    if (chunkRemaining == 0) chunkState = 2;
+                    continue;
+                }
+                int lineEnd = indexOfLineEnd();
+                if (lineEnd < 0) {
+                    if (end - start > MAX_HEADER_SIZE) rejectAndClose(400, "Bad Request");
+                    return;
+                }
+                String line = new String(buf, start, lineEnd - start, StandardCharsets.ISO_8859_1);
+                start = lineEnd + 2;
+                if (chunkState == 0) {
+                    int semi = line.indexOf(';');
+                    try {
+                        chunkRemaining = Long.parseLong((semi >= 0 ? line.substring(0, semi) : line).trim(), 16);
+                    } catch (NumberFormatException e) {
+                        rejectAndClose(400, "Bad Request");
+                        return;
+                    }
+                    chunkState = chunkRemaining == 0 ? 3 : 1;
+                } else if (chunkState == 2) {
+                    chunkState = 0;
+                } else if (line.isEmpty()) {
+                    bodyComplete = true;
+                    body.finish();
+                }
+            }
+        }
+
+        private int indexOfLineEnd() {
+            for (int i = start; i + 1 < end; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') return i;
+            }
+            return -1;
+        }
+
+        private void finishExchange() {
+            exchange = null;
+            if (closeAfterResponse) {
+                closing = true;
+                if (pendingBytes.get() == 0) close();
+                return;
+            }
+            resumeReading();
+        }
+
+        /**
+         * Called on a handler thread once the response has been fully queued
+         */
+        void responseComplete(NioHttpExchange ex) {
+            if (ex.isBroken()) closeAfterResponse = true;
+            loop.execute(() -> {
+                if (exchange != ex || closed) return;
+                if (ex.isBroken()) closeAfterResponse = true;
+                if (!bodyComplete) {
+                    // Handler ignored (part of) the request body: drain and discard it
+                    ex.bodyStream().discard();
+                    resumeReading();
+                }
+                process();
+            });
+        }
+
+        void pauseReading() {
+            if (!readPaused && key.isValid()) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        void resumeReading() {
+            if (readPaused && key.isValid()) {
+                readPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Asks the loop to resume reading once a handler has drained the body stream
+         */
+        void bodyDrained() {
+            loop.execute(() -> {
+                if (closed) return;
+                resumeReading();
+                process();
+            });
+        }
+
+        private void rejectAndClose(int code, String reason) {
+            if (exchange != null) {
+                exchange.abort();
+                exchange = null;
+            }
+            String resp = "HTTP/1.1 " + code + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+            closing = true;
+            enqueue(ByteBuffer.wrap(resp.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        // ---- writing ----
+
+        /**
+         * Queues response bytes; may be called from any thread
+         */
+        void enqueue(ByteBuffer data) {
+            pendingBytes.addAndGet(data.remaining());
+            outbound.add(data);
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.execute(this::onWritable);
+            }
+        }
+
+        /**
+         * Blocks a handler thread while too much output is queued for a slow client
+         */
+        void awaitWritable() throws IOException {
+            if (pendingBytes.get() <= OUTPUT_HIGH_WATER) return;
+            synchronized (this) {
+                while (!closed && pendingBytes.get() > OUTPUT_LOW_WATER) {
+                    try {
+                        wait(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing response", e);
+                    }
+                }
+            }
+            if (closed) throw new IOException("Connection closed by client");
+        }
+
+        void onWritable() {
+            writeScheduled.set(false);
+            if (closed) return;
+            ByteBuffer wb = loop.writeBuffer;
+            try {
+                while (true) {
+                    // Gather queued buffers into the direct buffer without consuming them,
+                    // then advance by however many bytes the socket actually took
+                    wb.clear();
+                    for (ByteBuffer b : outbound) {
+                        if (!wb.hasRemaining()) break;
+                        ByteBuffer slice = b.duplicate();
+                        if (slice.remaining() > wb.remaining()) slice.limit(slice.position() + wb.remaining());
+                        wb.put(slice);
+                    }
+                    wb.flip();
+                    if (!wb.hasRemaining()) break;
+                    int written = channel.write(wb);
+                    consume(written);
+                    if (wb.hasRemaining()) break; // socket buffer full
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            boolean drained = outbound.isEmpty();
+            if (key.isValid()) {
+                int ops = key.interestOps();
+                key.interestOps(drained ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+            }
+            if (pendingBytes.get() <= OUTPUT_LOW_WATER) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+            if (drained && closing && exchange == null) close();
+        }
+
+        private void consume(int written) {
+            pendingBytes.addAndGet(-written);
+            while (written > 0) {
+                ByteBuffer head = outbound.peek();
+                int n = Math.min(written, head.remaining());
+                head.position(head.position() + n);
+                written -= n;
+                if (!head.hasRemaining()) outbound.poll();
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already closed
+            }
+            if (exchange != null) {
+                exchange.abort();
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
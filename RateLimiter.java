@@ -0,0 +1,118 @@
+package com.example;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client Token Bucket Rate Limiter
+ *
+ * Each client key gets a bucket of "burst" tokens refilled at "ratePerSecond".
+ * A bucket is a single AtomicLong holding its theoretical arrival time (the GCRA
+ * form of a token bucket), so acquiring a token is one lock-free CAS. Buckets that
+ * have refilled completely carry no state worth keeping and are evicted periodically.
+ */
+public class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final String name;
+    private volatile long emissionInterval;   // nanos per token
+    private volatile long burstTolerance;     // nanos of credit a full bucket holds
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a limiter
+     * @param name budget name used in log output
+     * @param ratePerSecond sustained requests per second per client
+     * @param burst requests a client may make back-to-back after being idle
+     */
+    public RateLimiter(String name, double ratePerSecond, int burst) {
+        this.name = name;
+        setRate(ratePerSecond, burst);
+    }
+
+    /**
+     * Changes the budget for all clients. Existing buckets keep their state and
+     * are charged at the new rate from the next request on.
+     * @param ratePerSecond sustained requests per second per client
+     * @param burst requests a client may make back-to-back after being idle
+     */
+    public void setRate(double ratePerSecond, int burst) {
+        long interval = (long) (NANOS_PER_SECOND / ratePerSecond);
+        this.burstTolerance = interval * Math.max(0, burst - 1);
+        this.emissionInterval = interval;
+    }
+
+    /**
+     * Takes one token from a client's bucket
+     * @param key client key (tenant or address)
+     * @return 0 if the request may proceed, otherwise nanoseconds until a token is available
+     */
+    public long tryAcquire(String key) {
+        long now = System.nanoTime();
+        long interval = emissionInterval;
+        long tolerance = burstTolerance;
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        while (true) {
+            long tat = bucket.get();
+            long start = Math.max(tat, now);
+            long wait = start - tolerance - now;
+            if (wait > 0) {
+                rejected.increment();
+                return wait;
+            }
+            if (bucket.compareAndSet(tat, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Removes buckets that have refilled completely
+     * @return number of buckets removed
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int removed = 0;
+        for (ConcurrentMap.Entry<String, AtomicLong> e : buckets.entrySet()) {
+            // tat <= now means the bucket is full again: dropping it loses nothing
+            if (e.getValue().get() <= now && buckets.remove(e.getKey(), e.getValue())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Starts a daemon thread that evicts idle buckets at a fixed interval
+     * @param intervalSeconds seconds between eviction passes
+     */
+    public void startEviction(long intervalSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limiter-eviction-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::evictIdle, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return number of requests rejected so far
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of client buckets currently tracked
+     */
+    public int getTrackedClients() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,226 @@
+package com.example;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Task Reminders
+ *
+ * Keeps every pending reminder in memory in a TimingWheel, so reminders fire
+ * without polling the database. The wheel is filled from the remind_at index
+ * when the server becomes ready and kept current by the create, update and
+ * delete handlers. When a reminder comes due it is claimed with one UPDATE that
+ * clears remind_at only if it still holds the scheduled time; this drops
+ * reminders that were changed elsewhere and makes sure that, with several
+ * servers, each reminder fires once. Claimed reminders are logged and POSTed to
+ * taskserver.reminders.webhookUrl.
+ */
+public class ReminderScheduler {
+
+    // Delay before retrying a claim that failed on a database error
+    private static final long RETRY_MS = 5000;
+    private static final long STARTUP_RETRY_MS = 5000;
+
+    private final TaskDAO taskDAO;
+    private final long tickMs;
+    private final Function<Map<String, String>, String> toJson;
+    private final TimingWheel wheel;
+    private final ExecutorService dispatcher = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "reminder-dispatch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final HttpClient http = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(5))
+        .executor(dispatcher)
+        .build();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder webhookFailures = new LongAdder();
+
+    /**
+     * @param taskDAO used to load and claim reminders
+     * @param tickMs resolution of the wheel; reminders fire up to one tick late
+     * @param toJson writes a task as JSON for the webhook body
+     */
+    public ReminderScheduler(TaskDAO taskDAO, long tickMs, Function<Map<String, String>, String> toJson) {
+        this.taskDAO = taskDAO;
+        this.tickMs = tickMs;
+        this.toJson = toJson;
+        this.wheel = new TimingWheel(System.currentTimeMillis() / tickMs);
+    }
+
+    /**
+     * Loads the pending reminders from all shards, then starts firing them on a
+     * daemon thread. Overdue reminders fire on the first tick. Blocks until the
+     * reminders are loaded, retrying while the database is unreachable.
+     */
+    public void start() {
+        while (true) {
+            try {
+                System.out.println("Loaded " + loadPending() + " pending reminders");
+                break;
+            } catch (SQLException e) {
+                System.err.println("Could not load reminders, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(STARTUP_RETRY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reminder-ticker");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, 0, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the pending reminders from all shards that are not held yet, e.g. after a
+     * bulk import, whose new task ids are not known to the caller
+     * @return number of reminders added
+     * @throws SQLException if a shard cannot be read
+     */
+    public long loadPending() throws SQLException {
+        long[] loaded = new long[1];
+        taskDAO.forEachPendingReminder((id, remindAt) -> {
+            synchronized (wheel) {
+                // A reminder set through the API since it was read is newer than the index
+                if (wheel.scheduleIfAbsent(id, dueTick(remindAt), remindAt)) {
+                    loaded[0]++;
+                }
+            }
+        });
+        return loaded[0];
+    }
+
+    /**
+     * Sets, moves or clears the reminder of a task
+     * @param taskId Task ID
+     * @param remindAt ISO-8601 instant, or null to clear
+     */
+    public void schedule(String taskId, String remindAt) {
+        long id = Long.parseLong(taskId);
+        synchronized (wheel) {
+            if (remindAt == null) {
+                wheel.cancel(id);
+            } else {
+                long millis = Instant.parse(remindAt).toEpochMilli();
+                wheel.schedule(id, dueTick(millis), millis);
+            }
+        }
+    }
+
+    /**
+     * Drops the reminder of a deleted task
+     * @param taskId Task ID
+     */
+    public void cancel(String taskId) {
+        schedule(taskId, null);
+    }
+
+    private long dueTick(long millis) {
+        // Round up so a reminder never fires early
+        return Math.floorDiv(millis + tickMs - 1, tickMs);
+    }
+
+    /**
+     * Advances the wheel to the current time and hands the due reminders to the
+     * dispatcher. Catches up tick by tick if the thread was held up.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis() / tickMs;
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        synchronized (wheel) {
+            while (wheel.currentTick() < now) {
+                wheel.advance(expired);
+            }
+        }
+        for (TimingWheel.Timer timer : expired) {
+            dispatcher.execute(() -> fire(timer.id, timer.payload));
+        }
+    }
+
+    private void fire(long taskId, long remindAt) {
+        Map<String, String> task;
+        try {
+            task = taskDAO.claimReminder(taskId, remindAt);
+        } catch (SQLException e) {
+            retried.increment();
+            AccessLog.event("reminder", "Could not claim reminder for task " + taskId + ", retrying: " + e.getMessage());
+            synchronized (wheel) {
+                // Unless the reminder was set again in the meantime
+                wheel.scheduleIfAbsent(taskId, dueTick(System.currentTimeMillis() + RETRY_MS), remindAt);
+            }
+            return;
+        }
+        if (task == null) {
+            stale.increment();   // changed, cleared, deleted, archived or fired by another server
+            return;
+        }
+        fired.increment();
+        String at = Instant.ofEpochMilli(remindAt).toString();
+        AccessLog.event("reminder", "Reminder: task " + taskId + " \"" + task.get("title") + "\" at " + at);
+        publish("{\"event\":\"reminder\",\"tenant\":\"" + task.get("tenant_id") + "\",\"remind_at\":\"" + at
+            + "\",\"task\":" + toJson.apply(task) + "}");
+    }
+
+    /**
+     * POSTs the event to the configured webhook without waiting for the answer
+     */
+    private void publish(String json) {
+        String url = ServerConfig.current().getString("taskserver.reminders.webhookUrl");
+        if (url.isEmpty()) {
+            return;
+        }
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        } catch (IllegalArgumentException e) {
+            webhookFailures.increment();
+            System.err.println("Invalid reminder webhook URL " + url + ": " + e.getMessage());
+            return;
+        }
+        http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error != null || response.statusCode() >= 300) {
+                webhookFailures.increment();
+                AccessLog.event("reminder", "Reminder webhook failed: "
+                    + (error != null ? error.getMessage() : "HTTP " + response.statusCode()));
+            }
+        });
+    }
+
+    /**
+     * @return one-line summary of reminder activity since startup
+     */
+    public String getStats() {
+        int pending;
+        synchronized (wheel) {
+            pending = wheel.size();
+        }
+        return String.format("Reminders: %d pending, %d fired, %d stale, %d retried, %d webhook failures",
+            pending, fired.sum(), stale.sum(), retried.sum(), webhookFailures.sum());
+    }
+}
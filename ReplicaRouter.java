@@ -0,0 +1,149 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Primary/Replica Connection Router
+ *
+ * Writes always go to the primary. Reads go to the least-loaded healthy replica
+ * (fewest borrowed connections, ties broken round-robin), except for a client
+ * that wrote recently: its reads stay on the primary for a short window so it
+ * always sees its own changes despite replication lag. A replica that cannot
+ * be reached is skipped for a few seconds and its reads fall back to the primary.
+ */
+public class ReplicaRouter {
+
+    private static final long REPLICA_RETRY_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Sweep expired read-your-writes entries once per this many writes
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final DatabaseConnection primary;
+    private final List<DatabaseConnection> replicas;
+    private volatile long stickyNanos;
+    private final ConcurrentMap<String, Long> recentWriters = new ConcurrentHashMap<>();
+    private final AtomicLongArray downUntil;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger writes = new AtomicInteger();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder pinnedReads = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+
+    /**
+     * Creates a router
+     * @param primary pool for the primary database
+     * @param replicas pools for the read replicas (may be empty)
+     * @param readYourWritesMs how long a client's reads stay on the primary after it writes
+     */
+    public ReplicaRouter(DatabaseConnection primary, List<DatabaseConnection> replicas, long readYourWritesMs) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.stickyNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMs);
+        this.downUntil = new AtomicLongArray(replicas.size());
+    }
+
+    /**
+     * Changes the read-your-writes window for subsequent writes
+     * @param readYourWritesMs how long a client's reads stay on the primary after it writes
+     */
+    public void setReadYourWritesMillis(long readYourWritesMs) {
+        this.stickyNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMs);
+    }
+
+    /**
+     * Gets a connection for a read on behalf of the current request's client
+     * @return replica connection, or a primary connection if the client wrote recently
+     *         or no replica is available
+     * @throws SQLException if no connection can be opened
+     */
+    public Connection readConnection() throws SQLException {
+        if (replicas.isEmpty()) {
+            primaryReads.increment();
+            return primary.getConnection();
+        }
+        if (wroteRecently()) {
+            pinnedReads.increment();
+            return primary.getConnection();
+        }
+        long now = System.nanoTime();
+        int n = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), n);
+        for (int attempt = 0; attempt < n; attempt++) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                int idx = (start + i) % n;
+                if (downUntil.get(idx) - now > 0) continue;
+                if (best < 0 || replicas.get(idx).getActiveConnections() < replicas.get(best).getActiveConnections()) {
+                    best = idx;
+                }
+            }
+            if (best < 0) break;
+            try {
+                Connection conn = replicas.get(best).getConnection();
+                replicaReads.increment();
+                return conn;
+            } catch (SQLException e) {
+                downUntil.set(best, System.nanoTime() + REPLICA_RETRY_NANOS);
+                failovers.increment();
+                AccessLog.event("replica", "Read replica " + replicas.get(best).getName() + " unavailable, skipping for "
+                    + TimeUnit.NANOSECONDS.toSeconds(REPLICA_RETRY_NANOS) + " s: " + e.getMessage());
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * Gets a connection for a write
+     * @return primary connection
+     * @throws SQLException if no connection can be opened
+     */
+    public Connection writeConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /**
+     * Pins the current request's client to the primary for the read-your-writes window.
+     * Call after a write has been executed.
+     */
+    public void recordWrite() {
+        if (replicas.isEmpty()) return;
+        RequestContext ctx = RequestContext.current();
+        if (ctx == null || ctx.getClientKey() == null) return;
+        long now = System.nanoTime();
+        recentWriters.put(ctx.getClientKey(), now + stickyNanos);
+        if (writes.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            recentWriters.values().removeIf(until -> until - now <= 0);
+        }
+    }
+
+    private boolean wroteRecently() {
+        RequestContext ctx = RequestContext.current();
+        if (ctx == null || ctx.getClientKey() == null) return false;
+        Long until = recentWriters.get(ctx.getClientKey());
+        return until != null && until - System.nanoTime() > 0;
+    }
+
+    /**
+     * @return number of configured replicas
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * @return one-line summary of where reads were served
+     */
+    public String getStats() {
+        return String.format("Reads: %d replica, %d primary, %d pinned to primary after a write, %d replica failovers",
+            replicaReads.sum(), primaryReads.sum(), pinnedReads.sum(), failovers.sum());
+    }
+}
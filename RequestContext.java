@@ -0,0 +1,294 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-request Deadline and Cancellation
+ *
+ * A handler opens a context when it starts serving a request. TaskDAO registers
+ * each JDBC statement with the current context, which sets the statement's query
+ * timeout and cancels it outright when the deadline passes or the client
+ * disconnects, so a slow query cannot hold a connection and a thread indefinitely.
+ * It also counts the statements each request executes, i.e. its database round trips,
+ * and the time its connections were borrowed, for the access log.
+ */
+public class RequestContext {
+
+    /** Exchange attribute holding the context, used by the HTTP engine to cancel on disconnect */
+    public static final String ATTRIBUTE = RequestContext.class.getName();
+    /** Request header a client can use to ask for a shorter (or longer, up to the cap) deadline */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+    /** PostgreSQL SQLState for "canceling statement due to user request / statement timeout" */
+    private static final String QUERY_CANCELED = "57014";
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+    private static final ConcurrentMap<String, LongAdder> TIMEOUTS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder[]> ROUND_TRIPS = new ConcurrentHashMap<>();
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "request-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final String route;
+    private final String clientKey;
+    private final long deadlineNanos;
+    private final ScheduledFuture<?> timer;
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final LongAdder databaseNanos = new LongAdder();
+    private volatile String cancelReason;
+
+    private RequestContext(String route, String clientKey, long timeoutMs) {
+        this.route = route;
+        this.clientKey = clientKey;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.timer = TIMER.schedule(() -> cancel("deadline exceeded"), timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a context for the request on the calling thread
+     * @param ex exchange being served
+     * @param route route name used for timeout counters (e.g. "GET /tasks/{id}")
+     * @param clientKey caller identity (tenant or address)
+     * @param defaultTimeoutMs deadline when the client sends no timeout header
+     * @param maxTimeoutMs upper bound for client-requested deadlines
+     * @return the new context; call end() when the request is finished
+     */
+    public static RequestContext begin(HttpExchange ex, String route, String clientKey, long defaultTimeoutMs, long maxTimeoutMs) {
+        long timeoutMs = defaultTimeoutMs;
+        String header = ex.getRequestHeaders().getFirst(TIMEOUT_HEADER);
+        if (header != null) {
+            try {
+                timeoutMs = Math.max(1, Math.min(maxTimeoutMs, Long.parseLong(header.trim())));
+            } catch (NumberFormatException e) {
+                // ignore malformed header, keep the server default
+            }
+        }
+        RequestContext ctx = new RequestContext(route, clientKey, timeoutMs);
+        ex.setAttribute(ATTRIBUTE, ctx);
+        CURRENT.set(ctx);
+        return ctx;
+    }
+
+    /**
+     * @return context of the request served by the calling thread, or null
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return route name, e.g. "GET /tasks/{id}"
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * @return caller identity the request was made under
+     */
+    public String getClientKey() {
+        return clientKey;
+    }
+
+    /**
+     * Ends the context: stops the deadline timer, records the request's round trips
+     * and detaches it from the thread
+     */
+    public void end() {
+        timer.cancel(false);
+        statements.clear();
+        LongAdder[] totals = ROUND_TRIPS.computeIfAbsent(route, k -> new LongAdder[] {new LongAdder(), new LongAdder()});
+        totals[0].increment();
+        totals[1].add(roundTrips.get());
+        detach();
+    }
+
+    /**
+     * Unbinds the context from the calling thread without ending it, for a request
+     * that carries on elsewhere (see AsyncTaskDAO)
+     */
+    public void detach() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Binds a statement to the current request's deadline, if there is one
+     * @param stmt statement about to be executed
+     * @return the same statement
+     * @throws SQLTimeoutException if the deadline has already passed or the request was cancelled
+     */
+    public static <T extends Statement> T track(T stmt) throws SQLException {
+        RequestContext ctx = CURRENT.get();
+        if (ctx != null) {
+            ctx.attach(stmt);
+        }
+        return stmt;
+    }
+
+    private void attach(Statement stmt) throws SQLException {
+        if (cancelReason != null) {
+            stmt.close();
+            throw new SQLTimeoutException("Request " + cancelReason + " before query started");
+        }
+        long remainingMs = remainingMillis();
+        if (remainingMs <= 0) {
+            stmt.close();
+            throw new SQLTimeoutException("Request deadline exceeded before query started");
+        }
+        // JDBC timeouts are whole seconds; the timer cancels at the exact deadline
+        stmt.setQueryTimeout((int) Math.max(1, (remainingMs + 999) / 1000));
+        statements.add(stmt);
+        roundTrips.incrementAndGet();
+        if (cancelReason != null) {
+            // cancel() ran between the check above and add() and may have missed this statement
+            statements.remove(stmt);
+            stmt.close();
+            throw new SQLTimeoutException("Request " + cancelReason + " before query started");
+        }
+    }
+
+    /**
+     * Adds the time a connection was held to the current request, if there is one
+     * @param nanos time between borrowing and returning the connection
+     */
+    public static void recordDatabaseTime(long nanos) {
+        RequestContext ctx = CURRENT.get();
+        if (ctx != null) {
+            ctx.databaseNanos.add(nanos);
+        }
+    }
+
+    /**
+     * @return total time this request held database connections, summed over parallel queries
+     */
+    public long getDatabaseNanos() {
+        return databaseNanos.sum();
+    }
+
+    /**
+     * @return statements this request executed so far
+     */
+    public int getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * Wraps a task so it runs under this context on another thread, e.g. one
+     * query of a scatter-gather across shards
+     * @param task work that may execute statements
+     * @return task that installs this context for the duration of the call
+     */
+    public <T> Callable<T> propagate(Callable<T> task) {
+        return () -> {
+            RequestContext previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Cancels the statements in flight (if any). Safe to call from any thread.
+     * @param reason why the request is being abandoned
+     */
+    public void cancel(String reason) {
+        if (cancelReason != null) {
+            return;
+        }
+        cancelReason = reason;
+        for (Statement stmt : statements) {
+            try {
+                stmt.cancel();
+            } catch (SQLException e) {
+                // statement already finished or closed
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds left before the deadline (negative once passed)
+     */
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Decides whether a database failure was caused by this request's deadline or cancellation
+     * @param e exception thrown by TaskDAO
+     * @return true if the request should be answered with 504
+     */
+    public boolean isTimeout(SQLException e) {
+        return isCancellation(e)
+            || cancelReason != null
+            || remainingMillis() <= 0;
+    }
+
+    /**
+     * Tells a statement stopped by a deadline or cancellation from other failures,
+     * without knowing which request it ran for
+     * @param e exception thrown by TaskDAO
+     * @return true if the statement timed out or was cancelled
+     */
+    public static boolean isCancellation(SQLException e) {
+        return e instanceof SQLTimeoutException || QUERY_CANCELED.equals(e.getSQLState());
+    }
+
+    /**
+     * Counts a timed-out request against its route
+     */
+    public void recordTimeout() {
+        TIMEOUTS.computeIfAbsent(route, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return timeouts recorded so far, by route
+     */
+    public static Map<String, Long> getTimeoutCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        TIMEOUTS.forEach((route, n) -> counts.put(route, n.sum()));
+        return counts;
+    }
+
+    /**
+     * @return average database round trips per finished request, by route
+     */
+    public static Map<String, String> getRoundTripsPerRequest() {
+        Map<String, String> averages = new TreeMap<>();
+        ROUND_TRIPS.forEach((route, totals) -> {
+            long requests = totals[0].sum();
+            if (requests > 0) {
+                averages.put(route, String.format("%.2f", (double) totals[1].sum() / requests));
+            }
+        });
+        return averages;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * HTTP Response Compressor
+ *
+ * Negotiates gzip/deflate content encoding from the request's Accept-Encoding
+ * header and wraps response bodies in a streaming compressor. Deflater instances
+ * are pooled and reused between responses instead of being allocated per request.
+ */
+public class ResponseCompressor {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int POOL_SIZE = 16;
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private volatile int minSize;
+    private volatile int level;
+    private final BlockingQueue<Deflater> rawPool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Deflater> zlibPool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // Statistics: uncompressed bytes in, compressed bytes out, CPU time spent
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    /**
+     * Creates a compressor
+     * @param minSize smallest body (in characters) worth compressing
+     * @param level deflate compression level (1-9)
+     */
+    public ResponseCompressor(int minSize, int level) {
+        configure(minSize, level);
+    }
+
+    /**
+     * Changes the thresholds for subsequent responses; responses already being
+     * compressed finish with their current settings
+     * @param minSize smallest body (in characters) worth compressing
+     * @param level deflate compression level (1-9)
+     */
+    public void configure(int minSize, int level) {
+        this.minSize = minSize;
+        this.level = level;
+    }
+
+    /**
+     * Chooses a content encoding for a response
+     * @param acceptEncoding value of the request's Accept-Encoding header (may be null)
+     * @param bodyLength length of the response body in characters
+     * @return "gzip", "deflate", or null if the body should be sent uncompressed
+     */
+    public String negotiate(String acceptEncoding, int bodyLength) {
+        if (acceptEncoding == null || bodyLength < minSize) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        // Codings refused with q=0; "*" must not bring them back
+        boolean gzipRefused = false;
+        boolean deflateRefused = false;
+        for (String part : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim();
+            boolean refused = false;
+            for (int i = 1; i < tokens.length; i++) {
+                refused |= tokens[i].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+            if (GZIP.equals(coding)) {
+                gzip = !refused;
+                gzipRefused = refused;
+            } else if (DEFLATE.equals(coding)) {
+                deflate = !refused;
+                deflateRefused = refused;
+            } else if ("*".equals(coding)) {
+                any = !refused;
+            }
+        }
+        if (gzip) return GZIP;
+        if (deflate) return DEFLATE;
+        if (any && !gzipRefused) return GZIP;
+        if (any && !deflateRefused) return DEFLATE;
+        return null;
+    }
+
+    /**
+     * Checks whether a body of the given length is large enough to compress
+     * @param bodyLength length of the response body in characters
+     * @return true if the body reaches the compression threshold
+     */
+    public boolean isCompressible(int bodyLength) {
+        return bodyLength >= minSize;
+    }
+
+    /**
+     * Wraps a response stream in a compressing stream. Closing the returned
+     * stream finishes the compressed data, closes the target stream and
+     * returns the Deflater to the pool.
+     * @param out response body stream
+     * @param encoding "gzip" or "deflate" as returned by negotiate
+     * @return compressing output stream
+     */
+    public OutputStream wrap(OutputStream out, String encoding) throws IOException {
+        CountingStream counter = new CountingStream(out);
+        if (GZIP.equals(encoding)) {
+            return new GzipStream(counter, acquire(rawPool, true));
+        }
+        return new PooledDeflaterStream(counter, acquire(zlibPool, false), zlibPool);
+    }
+
+    private Deflater acquire(BlockingQueue<Deflater> pool, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            return new Deflater(level, nowrap);
+        }
+        // Pooled deflaters were reset on release, so a changed level applies from the first byte
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    private void release(Deflater deflater, BlockingQueue<Deflater> pool) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static long threadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Summarises compression work done so far: bytes saved against CPU spent
+     * @return human readable statistics line
+     */
+    public String getStats() {
+        long in = bytesIn.sum();
+        long out = bytesOut.sum();
+        double saved = in == 0 ? 0 : 100.0 * (in - out) / in;
+        double cpuMs = cpuNanos.sum() / 1_000_000.0;
+        double msPerMb = in == 0 ? 0 : cpuMs / (in / (1024.0 * 1024.0));
+        return String.format(Locale.ROOT,
+            "Compression: %d responses, %d -> %d bytes (%.1f%% saved), %.1f ms CPU (%.2f ms per MB)",
+            responses.sum(), in, out, saved, cpuMs, msPerMb);
+    }
+
+    /**
+     * Counts compressed bytes written to the underlying response stream
+     */
+    private final class CountingStream extends FilterOutputStream {
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesOut.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesOut.add(len);
+        }
+    }
+
+    /**
+     * Deflate stream that tracks CPU time and returns its Deflater to the pool when closed
+     */
+    private class PooledDeflaterStream extends DeflaterOutputStream {
+        private final BlockingQueue<Deflater> pool;
+        private boolean released;
+
+        PooledDeflaterStream(OutputStream out, Deflater deflater, BlockingQueue<Deflater> pool) {
+            super(out, deflater, BUFFER_SIZE);
+            this.pool = pool;
+            responses.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = threadCpuTime();
+            super.write(b, off, len);
+            bytesIn.add(len);
+            cpuNanos.add(threadCpuTime() - start);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            long start = threadCpuTime();
+            super.finish();
+            cpuNanos.add(threadCpuTime() - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    release(def, pool);
+                }
+            }
+        }
+    }
+
+    /**
+     * gzip framing (RFC 1952) around a raw pooled Deflater. GZIPOutputStream always
+     * allocates its own Deflater, so the header and CRC trailer are written here.
+     */
+    private final class GzipStream extends PooledDeflaterStream {
+        private static final int GZIP_MAGIC = 0x8b1f;
+        private final CRC32 crc = new CRC32();
+        private boolean finished;
+
+        GzipStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater, rawPool);
+            out.write(new byte[] {
+                (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+            });
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            super.finish();
+            writeInt((int) crc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.write(v & 0xff);
+            out.write((v >> 8) & 0xff);
+            out.write((v >> 16) & 0xff);
+            out.write((v >> 24) & 0xff);
+        }
+    }
+}
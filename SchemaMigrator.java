@@ -0,0 +1,266 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Versioned Schema Migrations
+ *
+ * Applies ordered, idempotent schema changes and records each applied version
+ * in the schema_migrations table. A PostgreSQL advisory lock serialises nodes
+ * that start at the same time; a node that finds the schema already current
+ * returns after a single query without taking the lock.
+ */
+public class SchemaMigrator {
+
+    // Arbitrary application-wide key for pg_advisory_lock ("TASKMIGR")
+    private static final long LOCK_KEY = 0x5441534B4D494752L;
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        MIGRATIONS.add(new Migration(1, "create tasks table",
+            """
+            CREATE TABLE IF NOT EXISTS tasks (
+                id SERIAL PRIMARY KEY,
+                title VARCHAR(255) NOT NULL,
+                description TEXT,
+                priority VARCHAR(50) DEFAULT 'Medium',
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            """));
+        MIGRATIONS.add(new Migration(2, "64-bit identity task ids",
+            """
+            DO $$
+            BEGIN
+                IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+                               WHERE table_name = 'tasks' AND column_name = 'id' AND is_identity = 'YES') THEN
+                    ALTER TABLE tasks ALTER COLUMN id TYPE BIGINT;
+                    ALTER TABLE tasks ALTER COLUMN id DROP DEFAULT;
+                    DROP SEQUENCE IF EXISTS tasks_id_seq;
+                    ALTER TABLE tasks ALTER COLUMN id ADD GENERATED BY DEFAULT AS IDENTITY;
+                    PERFORM setval(pg_get_serial_sequence('tasks', 'id'),
+                                   COALESCE((SELECT MAX(id) FROM tasks), 0) + 1, false);
+                END IF;
+            END
+            $$
+            """));
+        MIGRATIONS.add(new Migration(3, "indexes for ordered listing and change queries",
+            "CREATE INDEX IF NOT EXISTS idx_tasks_updated_at ON tasks (updated_at, id)",
+            "CREATE INDEX IF NOT EXISTS idx_tasks_priority ON tasks (priority, id)"));
+        MIGRATIONS.add(new Migration(4, "shard slot map",
+            """
+            CREATE TABLE IF NOT EXISTS shard_slots (
+                slot INT PRIMARY KEY,
+                shard INT NOT NULL,
+                moving BOOLEAN NOT NULL DEFAULT FALSE
+            )
+            """));
+        MIGRATIONS.add(new Migration(5, "row version for optimistic concurrency",
+            "ALTER TABLE tasks ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 1"));
+        // A table cannot be partitioned in place: rebuild it as a partitioned table and
+        // copy the rows. Ids keep coming from a sequence owned by tasks.id, so
+        // pg_get_serial_sequence('tasks', 'id') still finds it. Old rows go to
+        // tasks_history; TaskArchiver creates the monthly partitions ahead of time.
+        MIGRATIONS.add(new Migration(6, "partition tasks by created_at, archive table",
+            """
+            DO $$
+            DECLARE
+                month_start TIMESTAMP := date_trunc('month', LOCALTIMESTAMP);
+            BEGIN
+                IF EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'tasks'::regclass) THEN
+                    RETURN;
+                END IF;
+                ALTER TABLE tasks RENAME TO tasks_unpartitioned;
+                CREATE SEQUENCE task_ids AS BIGINT;
+                PERFORM setval('task_ids', nextval(pg_get_serial_sequence('tasks_unpartitioned', 'id')));
+                CREATE TABLE tasks (
+                    id BIGINT NOT NULL DEFAULT nextval('task_ids'),
+                    title VARCHAR(255) NOT NULL,
+                    description TEXT,
+                    priority VARCHAR(50) DEFAULT 'Medium',
+                    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    version BIGINT NOT NULL DEFAULT 1,
+                    PRIMARY KEY (id, created_at)
+                ) PARTITION BY RANGE (created_at);
+                ALTER SEQUENCE task_ids OWNED BY tasks.id;
+                EXECUTE format('CREATE TABLE tasks_history PARTITION OF tasks FOR VALUES FROM (MINVALUE) TO (%L)',
+                               month_start);
+                EXECUTE format('CREATE TABLE %I PARTITION OF tasks FOR VALUES FROM (%L) TO (%L)',
+                               'tasks_p' || to_char(month_start, 'YYYY_MM'), month_start, month_start + INTERVAL '1 month');
+                -- Catches rows beyond the newest partition if the archiver has not run for a while
+                CREATE TABLE tasks_default PARTITION OF tasks DEFAULT;
+                INSERT INTO tasks (id, title, description, priority, created_at, updated_at, version)
+                    SELECT id, title, description, priority, COALESCE(created_at, updated_at, LOCALTIMESTAMP),
+                           updated_at, version
+                    FROM tasks_unpartitioned;
+                DROP TABLE tasks_unpartitioned;
+            END
+            $$
+            """,
+            "CREATE INDEX IF NOT EXISTS idx_tasks_updated_at ON tasks (updated_at, id)",
+            "CREATE INDEX IF NOT EXISTS idx_tasks_priority ON tasks (priority, id)",
+            """
+            CREATE TABLE IF NOT EXISTS tasks_archive (
+                id BIGINT PRIMARY KEY,
+                title VARCHAR(255) NOT NULL,
+                description TEXT,
+                priority VARCHAR(50),
+                created_at TIMESTAMP NOT NULL,
+                updated_at TIMESTAMP,
+                version BIGINT NOT NULL,
+                archived_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+            )
+            """));
+        MIGRATIONS.add(new Migration(7, "due dates and reminders",
+            "ALTER TABLE tasks ADD COLUMN IF NOT EXISTS due_at TIMESTAMPTZ, ADD COLUMN IF NOT EXISTS remind_at TIMESTAMPTZ",
+            "ALTER TABLE tasks_archive ADD COLUMN IF NOT EXISTS due_at TIMESTAMPTZ, ADD COLUMN IF NOT EXISTS remind_at TIMESTAMPTZ",
+            // Small: only pending reminders are indexed; read once at startup by ReminderScheduler
+            "CREATE INDEX IF NOT EXISTS idx_tasks_remind_at ON tasks (remind_at) WHERE remind_at IS NOT NULL"));
+        // A constant default is stored in the catalog, so neither table is rewritten
+        MIGRATIONS.add(new Migration(8, "tenants",
+            "ALTER TABLE tasks ADD COLUMN IF NOT EXISTS tenant_id VARCHAR(64) NOT NULL DEFAULT 'default'",
+            "ALTER TABLE tasks_archive ADD COLUMN IF NOT EXISTS tenant_id VARCHAR(64) NOT NULL DEFAULT 'default'",
+            "CREATE INDEX IF NOT EXISTS idx_tasks_tenant_id ON tasks (tenant_id, id)",
+            "CREATE INDEX IF NOT EXISTS idx_tasks_archive_tenant_id ON tasks_archive (tenant_id, id)"));
+        // A unique index on a partitioned table must include the partition key, so the
+        // primary key (id, created_at) alone lets an id repeat. Guard each partition;
+        // TaskArchiver adds the same index to every partition it creates.
+        MIGRATIONS.add(new Migration(9, "unique task id per partition",
+            """
+            DO $$
+            DECLARE
+                part TEXT;
+            BEGIN
+                FOR part IN
+                    SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+                    WHERE i.inhparent = 'tasks'::regclass
+                LOOP
+                    EXECUTE format('CREATE UNIQUE INDEX IF NOT EXISTS %I ON %I (id)', part || '_id_key', part);
+                END LOOP;
+            END
+            $$
+            """));
+    }
+
+    /**
+     * Brings the schema up to the latest version
+     * @param conn connection to run the migrations on (auto-commit is restored afterwards)
+     * @throws SQLException if a migration fails; that migration is rolled back
+     */
+    public void migrate(Connection conn) throws SQLException {
+        int latest = latestVersion();
+        if (currentVersion(conn) >= latest) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+        }
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS schema_migrations (
+                        version INT PRIMARY KEY,
+                        description VARCHAR(255) NOT NULL,
+                        applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+            }
+            // Re-read under the lock: another node may have migrated while we waited
+            Set<Integer> applied = appliedVersions(conn);
+            for (Migration m : MIGRATIONS) {
+                if (!applied.contains(m.version)) {
+                    apply(conn, m);
+                }
+            }
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        }
+    }
+
+    /**
+     * @return version number of the newest known migration
+     */
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Reads the highest applied version without locking
+     * @return applied version, or 0 if no migrations have run yet
+     */
+    private int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT to_regclass('schema_migrations') IS NOT NULL")) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return 0;
+            }
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_migrations")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private Set<Integer> appliedVersions(Connection conn) throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM schema_migrations")) {
+            while (rs.next()) {
+                versions.add(rs.getInt(1));
+            }
+        }
+        return versions;
+    }
+
+    private void apply(Connection conn, Migration m) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : m.statements) {
+                    stmt.execute(sql);
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_migrations (version, description) VALUES (?, ?)")) {
+                pstmt.setInt(1, m.version);
+                pstmt.setString(2, m.description);
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("Applied schema migration " + m.version + ": " + m.description);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Schema migration " + m.version + " (" + m.description + ") failed: " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * One schema change: its statements run in a single transaction
+     */
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+}
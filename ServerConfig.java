@@ -0,0 +1,404 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Server Configuration
+ *
+ * Every setting has a built-in default that can be overridden, in increasing order
+ * of precedence, by the properties file (taskserver.properties, or the path in
+ * -Dtaskserver.config / TASKSERVER_CONFIG), an environment variable (the key in upper
+ * case with dots as underscores, e.g. TASKSERVER_DB_POOL_MAX) or a -D system property.
+ *
+ * All values are validated before the server starts. Settings marked reloadable are
+ * re-read when the file changes: a valid new file replaces the current snapshot and
+ * listeners apply it to the live components; an invalid one is logged and ignored.
+ * Other settings keep their startup value until restart.
+ */
+public final class ServerConfig {
+
+    private static final String DEFAULT_FILE = "taskserver.properties";
+    // Replica lists for individual shards: taskserver.db.shard.<n>.replicas
+    private static final Pattern SHARD_REPLICAS = Pattern.compile("taskserver\\.db\\.shard\\.\\d+\\.replicas");
+    private static final Map<String, Setting> SETTINGS = new LinkedHashMap<>();
+
+    static {
+        // Restart required
+        define("taskserver.port", "8000", Type.INT, 1, 65535, false);
+        define("taskserver.engine", "jdk", Type.STRING, 0, 0, false);
+        define("taskserver.node.id", "0", Type.INT, 0, TaskIds.MAX_NODE, false);
+        define("taskserver.db.host", "localhost", Type.STRING, 0, 0, false);
+        define("taskserver.db.port", "5432", Type.INT, 1, 65535, false);
+        define("taskserver.db.name", "taskdb", Type.STRING, 0, 0, false);
+        define("taskserver.db.user", "postgres", Type.STRING, 0, 0, false);
+        define("taskserver.db.password", "5858", Type.STRING, 0, 0, false);
+        define("taskserver.db.shards", "", Type.STRING, 0, 0, false);
+        define("taskserver.db.replicas", "", Type.STRING, 0, 0, false);
+        define("taskserver.shards.reloadMs", "5000", Type.LONG, 100, 3_600_000, false);
+        define("taskserver.archive.intervalMs", "3600000", Type.LONG, 1000, 86_400_000, false);
+        define("taskserver.reminders.tickMs", "1000", Type.LONG, 10, 60_000, false);
+        define("taskserver.stats.reconcileMs", "300000", Type.LONG, 1000, 86_400_000, false);
+        define("taskserver.next.rebuildMs", "300000", Type.LONG, 1000, 86_400_000, false);
+        define("taskserver.db.executor.queueSize", "1000", Type.INT, 1, 1_000_000, false);
+        define("taskserver.accessLog.file", "access.log", Type.STRING, 0, 0, false);
+        define("taskserver.accessLog.slowFile", "slow.log", Type.STRING, 0, 0, false);
+        define("taskserver.accessLog.bufferSize", "8192", Type.INT, 64, 1 << 20, false);
+        define("taskserver.accessLog.maxBytes", "10485760", Type.LONG, 4096, Long.MAX_VALUE, false);
+        define("taskserver.accessLog.maxFiles", "5", Type.INT, 1, 100, false);
+        // Reloadable
+        define("taskserver.db.pool.min", "2", Type.INT, 0, 1000, true);
+        define("taskserver.db.pool.max", "10", Type.INT, 1, 1000, true);
+        define("taskserver.db.connectionTimeoutMs", "30000", Type.LONG, 1000, 600_000, true);
+        define("taskserver.db.readYourWritesMs", "2000", Type.LONG, 0, 600_000, true);
+        define("taskserver.workerThreads", "32", Type.INT, 1, 10_000, true);
+        define("taskserver.requestTimeoutMs", "10000", Type.LONG, 1, 3_600_000, true);
+        define("taskserver.maxRequestTimeoutMs", "30000", Type.LONG, 1, 3_600_000, true);
+        define("taskserver.compression.minSize", "1024", Type.INT, 0, Integer.MAX_VALUE, true);
+        define("taskserver.compression.level", "6", Type.INT, 1, 9, true);
+        define("taskserver.rateLimit.list.perSecond", "2", Type.DOUBLE, 0.001, 1_000_000, true);
+        define("taskserver.rateLimit.list.burst", "10", Type.INT, 1, 1_000_000, true);
+        define("taskserver.rateLimit.item.perSecond", "50", Type.DOUBLE, 0.001, 1_000_000, true);
+        define("taskserver.rateLimit.item.burst", "100", Type.INT, 1, 1_000_000, true);
+        define("taskserver.archive.retentionDays", "90", Type.INT, 0, 36_500, true);
+        define("taskserver.archive.batchSize", "500", Type.INT, 1, 100_000, true);
+        define("taskserver.partitions.monthsAhead", "3", Type.INT, 1, 60, true);
+        define("taskserver.reminders.webhookUrl", "", Type.STRING, 0, 0, true);
+        define("taskserver.tenants", "", Type.STRING, 0, 0, true);
+        define("taskserver.tenant.maxShare", "0.5", Type.DOUBLE, 0.01, 1, true);
+        define("taskserver.accessLog.sampleRate", "1.0", Type.DOUBLE, 0, 1, true);
+        define("taskserver.accessLog.slowMs", "1000", Type.LONG, 1, 3_600_000, true);
+    }
+
+    private static volatile ServerConfig current;
+    private static final List<Consumer<ServerConfig>> listeners = new CopyOnWriteArrayList<>();
+
+    private final Path file;
+    private final Map<String, Object> values;
+    private final Map<String, String> sources;
+
+    private ServerConfig(Path file, Map<String, Object> values, Map<String, String> sources) {
+        this.file = file;
+        this.values = values;
+        this.sources = sources;
+    }
+
+    /**
+     * Loads and validates the configuration; call once at startup
+     * @return the loaded configuration
+     * @throws IllegalStateException listing every invalid setting
+     */
+    public static synchronized ServerConfig load() {
+        String location = System.getProperty("taskserver.config", System.getenv("TASKSERVER_CONFIG"));
+        Path file = Paths.get(location != null ? location : DEFAULT_FILE).toAbsolutePath();
+        current = read(file, null);
+        return current;
+    }
+
+    /**
+     * @return the configuration in effect, loading it on first use
+     */
+    public static ServerConfig current() {
+        ServerConfig config = current;
+        return config != null ? config : load();
+    }
+
+    /**
+     * Registers a callback run after every successful reload
+     * @param listener receives the new configuration
+     */
+    public static void onReload(Consumer<ServerConfig> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts a daemon thread that reloads the configuration when its file changes
+     */
+    public static void startWatching() {
+        Path file = current().file;
+        Path dir = file.getParent();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return;
+        }
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Config file watching unavailable: " + e.getMessage());
+            return;
+        }
+        Thread t = new Thread(() -> watch(watcher, file), "config-watcher");
+        t.setDaemon(true);
+        t.start();
+        System.out.println("Watching " + file + " for configuration changes");
+    }
+
+    private static void watch(WatchService watcher, Path file) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    // Editors often save in several steps; let the file settle first
+                    Thread.sleep(200);
+                    while ((key = watcher.poll()) != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Re-reads the file and applies changed reloadable settings. Settings that need a
+     * restart keep their current value and a warning is printed.
+     * @return true if a new configuration was applied
+     */
+    public static synchronized boolean reload() {
+        ServerConfig old = current();
+        ServerConfig next;
+        try {
+            next = read(old.file, old);
+        } catch (IllegalStateException | UncheckedIOException e) {
+            System.err.println("Configuration reload rejected, keeping current settings: " + e.getMessage());
+            return false;
+        }
+        List<String> changed = new ArrayList<>();
+        for (String name : next.values.keySet()) {
+            if (!next.values.get(name).equals(old.values.get(name))) {
+                changed.add(name + "=" + next.display(name));
+            }
+        }
+        if (changed.isEmpty()) {
+            return false;
+        }
+        current = next;
+        System.out.println("Configuration reloaded: " + String.join(", ", changed));
+        for (Consumer<ServerConfig> listener : listeners) {
+            try {
+                listener.accept(next);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to apply configuration change: " + e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads every setting from its sources and validates it
+     * @param previous configuration being replaced, or null at startup; its values are
+     *                 kept for settings that cannot be reloaded
+     */
+    private static ServerConfig read(Path file, ServerConfig previous) {
+        Properties fromFile = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                fromFile.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + file, e);
+            }
+        }
+        List<String> errors = new ArrayList<>();
+        List<String> pinned = new ArrayList<>();
+        Map<String, Object> values = new HashMap<>();
+        Map<String, String> sources = new HashMap<>();
+        Set<String> names = new TreeSet<>(SETTINGS.keySet());
+        for (String name : fromFile.stringPropertyNames()) {
+            if (SHARD_REPLICAS.matcher(name).matches()) {
+                names.add(name);
+            } else if (!SETTINGS.containsKey(name)) {
+                errors.add("unknown setting " + name + " in " + file.getFileName());
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (SHARD_REPLICAS.matcher(name).matches()) {
+                names.add(name);
+            }
+        }
+        for (String name : names) {
+            Setting setting = SETTINGS.getOrDefault(name, new Setting("", Type.STRING, 0, 0, false));
+            String raw = System.getProperty(name);
+            String source = "-D";
+            if (raw == null) {
+                raw = System.getenv(name.toUpperCase().replace('.', '_'));
+                source = "env";
+            }
+            if (raw == null) {
+                raw = fromFile.getProperty(name);
+                source = "file";
+            }
+            if (raw == null) {
+                raw = setting.defaultValue;
+                source = "default";
+            }
+            try {
+                Object value = setting.parse(raw.trim());
+                if (previous != null && !setting.reloadable && previous.values.containsKey(name)
+                        && !previous.values.get(name).equals(value)) {
+                    pinned.add(name);
+                    value = previous.values.get(name);
+                    source = previous.sources.get(name);
+                }
+                values.put(name, value);
+                sources.put(name, source);
+            } catch (IllegalArgumentException e) {
+                errors.add(name + " (" + source + "): " + e.getMessage());
+            }
+        }
+        if (errors.isEmpty()) {
+            int min = (Integer) values.get("taskserver.db.pool.min");
+            int max = (Integer) values.get("taskserver.db.pool.max");
+            if (min > max) {
+                errors.add("taskserver.db.pool.min (" + min + ") exceeds taskserver.db.pool.max (" + max + ")");
+            }
+            if ((Long) values.get("taskserver.requestTimeoutMs") > (Long) values.get("taskserver.maxRequestTimeoutMs")) {
+                errors.add("taskserver.requestTimeoutMs exceeds taskserver.maxRequestTimeoutMs");
+            }
+            String engine = (String) values.get("taskserver.engine");
+            if (!engine.equals("jdk") && !engine.equals("nio")) {
+                errors.add("taskserver.engine must be jdk or nio, not " + engine);
+            }
+            String tenantsError = Tenants.validate((String) values.get("taskserver.tenants"));
+            if (tenantsError != null) {
+                errors.add("taskserver.tenants: " + tenantsError);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Invalid configuration:\n  " + String.join("\n  ", errors));
+        }
+        for (String name : pinned) {
+            System.err.println("WARNING: " + name + " changed but only takes effect after a restart");
+        }
+        return new ServerConfig(file, Collections.unmodifiableMap(values), sources);
+    }
+
+    public String getString(String name) {
+        Object value = values.get(name);
+        return value != null ? (String) value : "";
+    }
+
+    public int getInt(String name) {
+        return (Integer) require(name);
+    }
+
+    public long getLong(String name) {
+        return (Long) require(name);
+    }
+
+    public double getDouble(String name) {
+        return (Double) require(name);
+    }
+
+    private Object require(String name) {
+        Object value = values.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown setting " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Prints every setting with where its value came from (passwords masked)
+     */
+    public void print() {
+        System.out.println("Configuration (" + (Files.isRegularFile(file) ? file : "no file at " + file) + "):");
+        for (String name : new TreeSet<>(values.keySet())) {
+            System.out.println("  " + name + " = " + display(name) + " [" + sources.get(name) + "]");
+        }
+    }
+
+    private String display(String name) {
+        return name.contains("password") ? "****" : String.valueOf(values.get(name));
+    }
+
+    private static void define(String name, String defaultValue, Type type, double min, double max, boolean reloadable) {
+        SETTINGS.put(name, new Setting(defaultValue, type, min, max, reloadable));
+    }
+
+    private enum Type { STRING, INT, LONG, DOUBLE }
+
+    /**
+     * Declared setting: type, allowed range and whether it can change at runtime
+     */
+    private static final class Setting {
+        final String defaultValue;
+        final Type type;
+        final double min;
+        final double max;
+        final boolean reloadable;
+
+        Setting(String defaultValue, Type type, double min, double max, boolean reloadable) {
+            this.defaultValue = defaultValue;
+            this.type = type;
+            this.min = min;
+            this.max = max;
+            this.reloadable = reloadable;
+        }
+
+        Object parse(String raw) {
+            double number;
+            Object value;
+            try {
+                switch (type) {
+                    case INT:
+                        value = Integer.parseInt(raw);
+                        number = (Integer) value;
+                        break;
+                    case LONG:
+                        value = Long.parseLong(raw);
+                        number = (Long) value;
+                        break;
+                    case DOUBLE:
+                        value = Double.parseDouble(raw);
+                        number = (Double) value;
+                        break;
+                    default:
+                        return raw;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("'" + raw + "' is not a valid " + type.name().toLowerCase());
+            }
+            if (number < min || number > max) {
+                throw new IllegalArgumentException(raw + " is outside " + format(min) + ".." + format(max));
+            }
+            return value;
+        }
+
+        private static String format(double d) {
+            return d == Math.rint(d) ? String.valueOf((long) d) : String.valueOf(d);
+        }
+    }
+}
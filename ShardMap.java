@@ -0,0 +1,195 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Slot-to-Shard Assignment
+ *
+ * Task ids carry their placement in the low SLOT_BITS bits: slot = id & (SLOTS - 1).
+ * Each of the SLOTS slots is owned by one shard, so an id lookup, update or delete
+ * touches exactly one database. The assignment lives in the shard_slots table on
+ * shard 0 and is reloaded periodically so every node follows slot moves made by
+ * ShardRebalancer. A slot marked "moving" stays readable but refuses writes.
+ */
+public class ShardMap {
+
+    public static final int SLOT_BITS = 10;
+    public static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final DatabaseConnection catalog;
+    private final int shardCount;
+    private final AtomicInteger nextSlot = new AtomicInteger(ThreadLocalRandom.current().nextInt(SLOTS));
+    private volatile Assignment assignment;
+
+    /**
+     * Creates a map with every slot on shard 0 until load() is called
+     * @param catalog pool of shard 0, which holds the shard_slots table
+     * @param shardCount number of configured shards
+     */
+    public ShardMap(DatabaseConnection catalog, int shardCount) {
+        this.catalog = catalog;
+        this.shardCount = shardCount;
+        this.assignment = new Assignment(new int[SLOTS], new boolean[SLOTS]);
+    }
+
+    /**
+     * @param id task id
+     * @return slot the id belongs to
+     */
+    public static int slotOf(long id) {
+        return (int) (id & SLOT_MASK);
+    }
+
+    /**
+     * @param id task id
+     * @return index of the shard that stores the task
+     */
+    public int shardOf(long id) {
+        return assignment.owner[slotOf(id)];
+    }
+
+    /**
+     * @param slot slot number
+     * @return false while the rebalancer is moving the slot
+     */
+    public boolean isWritable(int slot) {
+        return !assignment.moving[slot];
+    }
+
+    /**
+     * Picks the slot for a new task, spreading inserts evenly over all writable slots
+     * @return slot number
+     * @throws SQLException if every slot is being moved
+     */
+    public int nextInsertSlot() throws SQLException {
+        Assignment a = assignment;
+        for (int i = 0; i < SLOTS; i++) {
+            int slot = Math.floorMod(nextSlot.getAndIncrement(), SLOTS);
+            if (!a.moving[slot]) {
+                return slot;
+            }
+        }
+        throw new SQLTransientException("All shard slots are being moved");
+    }
+
+    /**
+     * @return number of configured shards
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return number of slots each shard owns, by shard index
+     */
+    public int[] slotCounts() {
+        int[] counts = new int[shardCount];
+        for (int shard : assignment.owner) {
+            counts[shard]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Reads the assignment from shard 0, creating it on first use. A new map spreads
+     * slots round-robin when shard 0 is empty; with existing tasks it keeps every
+     * slot on shard 0 so nothing is lost, and ShardRebalancer spreads them later.
+     * @throws SQLException if the map cannot be read or names an unconfigured shard
+     */
+    public void load() throws SQLException {
+        try (Connection conn = catalog.getConnection()) {
+            Assignment a = read(conn);
+            if (a == null) {
+                initialize(conn);
+                a = read(conn);
+            }
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (a.owner[slot] >= shardCount) {
+                    throw new SQLException("Slot " + slot + " is assigned to shard " + a.owner[slot]
+                        + " but only " + shardCount + " shards are configured (check taskserver.db.shards)");
+                }
+            }
+            assignment = a;
+        }
+    }
+
+    /**
+     * Starts a daemon thread that reloads the assignment at a fixed interval
+     * @param intervalMs milliseconds between reloads
+     */
+    public void startReloading(long intervalMs) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-map-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (SQLException e) {
+                System.err.println("Failed to reload shard map, keeping the current one: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private Assignment read(Connection conn) throws SQLException {
+        int[] owner = new int[SLOTS];
+        boolean[] moving = new boolean[SLOTS];
+        int rows = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT slot, shard, moving FROM shard_slots")) {
+            while (rs.next()) {
+                int slot = rs.getInt(1);
+                owner[slot] = rs.getInt(2);
+                moving[slot] = rs.getBoolean(3);
+                rows++;
+            }
+        }
+        return rows < SLOTS ? null : new Assignment(owner, moving);
+    }
+
+    private void initialize(Connection conn) throws SQLException {
+        boolean hasTasks;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT EXISTS (SELECT 1 FROM tasks)")) {
+            hasTasks = rs.next() && rs.getBoolean(1);
+        }
+        // ON CONFLICT: another node may be initializing at the same time
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO shard_slots (slot, shard) VALUES (?, ?) ON CONFLICT (slot) DO NOTHING")) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                pstmt.setInt(1, slot);
+                pstmt.setInt(2, hasTasks ? 0 : slot % shardCount);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        if (hasTasks && shardCount > 1) {
+            System.out.println("Shard map created with all slots on shard 0 (existing tasks); run ShardRebalancer to spread them");
+        }
+    }
+
+    /**
+     * Immutable snapshot, swapped whole on reload
+     */
+    private static final class Assignment {
+        final int[] owner;
+        final boolean[] moving;
+
+        Assignment(int[] owner, boolean[] moving) {
+            this.owner = owner;
+            this.moving = moving;
+        }
+    }
+}
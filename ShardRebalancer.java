@@ -0,0 +1,296 @@
+package com.example;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shard Rebalancing Tool
+ *
+ * Run after adding a shard to taskserver.db.shards: spreads the slots evenly over
+ * all configured shards and moves the tasks of each reassigned slot. Servers can
+ * keep running; writes to a slot are refused (503) only while it is being moved.
+ *
+ * For each batch of slots going from one shard to another:
+ *   1. mark the slots moving and wait for servers to pick that up
+ *   2. copy their rows (live and archived) to the destination
+ *   3. reassign the slots and wait for servers to pick that up
+ *   4. delete the rows from the source
+ * Every step is idempotent, so an interrupted run can simply be started again.
+ *
+ * Usage: java -Dtaskserver.db.shards=... com.example.ShardRebalancer [--dry-run]
+ *        [--settle-ms=15000] [--slots-per-step=64]
+ */
+public class ShardRebalancer {
+
+    // Tables whose rows live on the shard that owns their id's slot
+    private static final String[] TABLES = { "tasks", "tasks_archive" };
+
+    private final List<DatabaseConnection> shards;
+    private final ShardMap shardMap;
+    private final long settleMs;
+    private final int slotsPerStep;
+
+    public ShardRebalancer(List<DatabaseConnection> shards, long settleMs, int slotsPerStep) {
+        this.shards = shards;
+        this.shardMap = new ShardMap(shards.get(0), shards.size());
+        this.settleMs = settleMs;
+        this.slotsPerStep = slotsPerStep;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean dryRun = false;
+        // Must exceed the servers' shard map reload interval plus the longest write
+        long settleMs = 15000;
+        int slotsPerStep = 64;
+        for (String arg : args) {
+            if (arg.equals("--dry-run")) {
+                dryRun = true;
+            } else if (arg.startsWith("--settle-ms=")) {
+                settleMs = Long.parseLong(arg.substring("--settle-ms=".length()));
+            } else if (arg.startsWith("--slots-per-step=")) {
+                slotsPerStep = Integer.parseInt(arg.substring("--slots-per-step=".length()));
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+        DatabaseConfig.printConfig();
+        List<DatabaseConnection> shards = DatabaseConnection.getShards();
+        try {
+            ShardRebalancer rebalancer = new ShardRebalancer(shards, settleMs, slotsPerStep);
+            rebalancer.prepare();
+            List<Move> plan = rebalancer.plan();
+            if (plan.isEmpty()) {
+                System.out.println("Slots are already balanced: " + Arrays.toString(rebalancer.shardMap.slotCounts()));
+                return;
+            }
+            for (Move move : plan) {
+                System.out.println("Move " + move.slots.size() + " slots from shard " + move.from + " to shard " + move.to);
+            }
+            if (!dryRun) {
+                rebalancer.execute(plan);
+                System.out.println("Done, slots per shard: " + Arrays.toString(rebalancer.shardMap.slotCounts()));
+            }
+        } finally {
+            for (DatabaseConnection shard : shards) {
+                shard.closeAll();
+            }
+        }
+    }
+
+    /**
+     * Brings every shard's schema up to date, clears the moving flag of slots a previous
+     * interrupted run left marked, loads the current slot map and removes rows that run
+     * left on shards that no longer own their slot
+     * @throws SQLException if a shard is unreachable
+     */
+    public void prepare() throws SQLException {
+        for (DatabaseConnection shard : shards) {
+            try (Connection conn = shard.getConnection()) {
+                new SchemaMigrator().migrate(conn);
+            }
+        }
+        // A slot still marked moving was never reassigned, so it stays with its source shard
+        try (Connection conn = shards.get(0).getConnection();
+             Statement stmt = conn.createStatement()) {
+            int stuck = stmt.executeUpdate("UPDATE shard_slots SET moving = FALSE WHERE moving");
+            if (stuck > 0) {
+                System.out.println("Cleared the moving flag of " + stuck + " slots left by an interrupted run");
+            }
+        }
+        shardMap.load();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Integer> foreign = new ArrayList<>();
+            for (int slot = 0; slot < ShardMap.SLOTS; slot++) {
+                if (shardMap.shardOf(slot) != shard) {
+                    foreign.add(slot);
+                }
+            }
+            int deleted = deleteSlots(shard, foreign.toArray(new Integer[0]));
+            if (deleted > 0) {
+                System.out.println("Removed " + deleted + " leftover tasks from shard " + shard);
+            }
+        }
+    }
+
+    /**
+     * Computes the moves that give every shard SLOTS / N slots (the first SLOTS % N get one more)
+     * @return slot moves, one per (source, destination) pair
+     */
+    public List<Move> plan() {
+        int n = shards.size();
+        int[] counts = shardMap.slotCounts();
+        int[] target = new int[n];
+        for (int i = 0; i < n; i++) {
+            target[i] = ShardMap.SLOTS / n + (i < ShardMap.SLOTS % n ? 1 : 0);
+        }
+        Map<String, Move> plan = new LinkedHashMap<>();
+        int to = 0;
+        // Take surplus slots from the top of each donor's range so moves are reproducible
+        for (int slot = ShardMap.SLOTS - 1; slot >= 0; slot--) {
+            int from = shardMap.shardOf(slot);
+            if (counts[from] <= target[from]) continue;
+            while (to < n && counts[to] >= target[to]) to++;
+            if (to == n) break;
+            int dest = to;
+            plan.computeIfAbsent(from + ">" + to, k -> new Move(from, dest)).slots.add(slot);
+            counts[from]--;
+            counts[to]++;
+        }
+        return new ArrayList<>(plan.values());
+    }
+
+    /**
+     * Carries out a plan in batches of slotsPerStep slots
+     * @param plan result of plan()
+     * @throws SQLException if a step fails; rerunning the tool resumes safely
+     */
+    public void execute(List<Move> plan) throws SQLException, InterruptedException {
+        for (Move move : plan) {
+            for (int i = 0; i < move.slots.size(); i += slotsPerStep) {
+                List<Integer> batch = move.slots.subList(i, Math.min(move.slots.size(), i + slotsPerStep));
+                moveSlots(batch, move.from, move.to);
+            }
+        }
+        shardMap.load();
+    }
+
+    private void moveSlots(List<Integer> slots, int from, int to) throws SQLException, InterruptedException {
+        Integer[] slotArray = slots.toArray(new Integer[0]);
+        System.out.println("Moving slots " + slots.get(0) + ".." + slots.get(slots.size() - 1)
+            + " from shard " + from + " to shard " + to);
+
+        updateSlots(slotArray, "UPDATE shard_slots SET moving = TRUE WHERE slot = ANY(?)", -1);
+        Thread.sleep(settleMs);
+
+        long copied = copyRows(slotArray, from, to);
+
+        updateSlots(slotArray, "UPDATE shard_slots SET shard = ?, moving = FALSE WHERE slot = ANY(?)", to);
+        Thread.sleep(settleMs);
+
+        int deleted = deleteSlots(from, slotArray);
+        System.out.println("  copied " + copied + " tasks, removed " + deleted + " from shard " + from);
+    }
+
+    private int deleteSlots(int shard, Integer[] slots) throws SQLException {
+        if (slots.length == 0) return 0;
+        int deleted = 0;
+        try (Connection conn = shards.get(shard).getConnection()) {
+            for (String table : TABLES) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "DELETE FROM " + table + " WHERE (id & " + (ShardMap.SLOTS - 1) + ") = ANY(?)")) {
+                    pstmt.setArray(1, conn.createArrayOf("integer", slots));
+                    deleted += pstmt.executeUpdate();
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private void updateSlots(Integer[] slots, String sql, int shard) throws SQLException {
+        try (Connection conn = shards.get(0).getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            if (shard >= 0) {
+                pstmt.setInt(i++, shard);
+            }
+            pstmt.setArray(i, conn.createArrayOf("integer", slots));
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Copies the slots' rows in one destination transaction. Ids come from TaskIds,
+     * not from a database sequence, so nothing on the destination needs advancing.
+     * Both tables are read from one snapshot, so a task the archiver moves meanwhile
+     * is copied exactly once.
+     * @return number of rows read from the source
+     */
+    private long copyRows(Integer[] slots, int from, int to) throws SQLException {
+        long copied = 0;
+        try (Connection src = shards.get(from).getConnection();
+             Connection dst = shards.get(to).getConnection()) {
+            int isolation = src.getTransactionIsolation();
+            src.setAutoCommit(false);   // required for the driver to stream with a fetch size
+            src.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            dst.setAutoCommit(false);
+            try {
+                Array slotArray = src.createArrayOf("integer", slots);
+                copied += copyTable(src, dst, "tasks", "(id, created_at)", slotArray);
+                copied += copyTable(src, dst, "tasks_archive", "(id)", slotArray);
+                dst.commit();
+                src.commit();
+            } catch (SQLException e) {
+                dst.rollback();
+                src.rollback();
+                throw e;
+            } finally {
+                src.setAutoCommit(true);
+                src.setTransactionIsolation(isolation);
+                dst.setAutoCommit(true);
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Streams one table's rows for the slots into the same table on the destination
+     * @param conflictKey primary key columns, to skip rows a previous run already copied
+     */
+    private long copyTable(Connection src, Connection dst, String table, String conflictKey,
+                           Array slots) throws SQLException {
+        long copied = 0;
+        try (PreparedStatement read = src.prepareStatement(
+                "SELECT * FROM " + table + " WHERE (id & " + (ShardMap.SLOTS - 1) + ") = ANY(?)")) {
+            read.setArray(1, slots);
+            read.setFetchSize(1000);
+            try (ResultSet rs = read.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                StringBuilder columns = new StringBuilder();
+                StringBuilder values = new StringBuilder();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    columns.append(i > 1 ? ", " : "").append(meta.getColumnName(i));
+                    values.append(i > 1 ? ", ?" : "?");
+                }
+                try (PreparedStatement write = dst.prepareStatement("INSERT INTO " + table + " (" + columns
+                        + ") VALUES (" + values + ") ON CONFLICT " + conflictKey + " DO NOTHING")) {
+                    while (rs.next()) {
+                        for (int i = 1; i <= meta.getColumnCount(); i++) {
+                            write.setObject(i, rs.getObject(i));
+                        }
+                        write.addBatch();
+                        if (++copied % 1000 == 0) {
+                            write.executeBatch();
+                        }
+                    }
+                    write.executeBatch();
+                }
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Slots going from one shard to another
+     */
+    public static final class Move {
+        final int from;
+        final int to;
+        final List<Integer> slots = new ArrayList<>();
+
+        Move(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
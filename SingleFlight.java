@@ -0,0 +1,121 @@
+package com.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight Coalescing of Identical Reads
+ *
+ * When the same read is asked for while an identical one is still running, the
+ * later callers wait for the running one instead of starting their own, and all
+ * of them get its result or its failure. A call is only shared while it is in
+ * flight: its key is removed as it completes, so nothing is cached.
+ *
+ * Keys are grouped in scopes (tenants). A write reported through invalidate()
+ * moves its scope to a new generation, so a read that starts after the write
+ * never joins one that started before it.
+ */
+public class SingleFlight<T> {
+
+    private final String name;
+    private final Predicate<Throwable> retryAlone;
+    private final ConcurrentMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    /**
+     * @param name label for the statistics line
+     * @param retryAlone failures that belong to the caller that ran the call rather than
+     *                   to the read itself (e.g. its deadline passed); callers that joined
+     *                   it run the read again instead of sharing such a failure
+     */
+    public SingleFlight(String name, Predicate<Throwable> retryAlone) {
+        this.name = name;
+        this.retryAlone = retryAlone;
+    }
+
+    /**
+     * Runs call, or joins an identical call already in flight
+     * @param scope group the key belongs to, e.g. tenant id
+     * @param key identifies the read within the scope, including everything its result depends on
+     * @param call starts the read
+     * @return future of the shared result; completing or cancelling it does not affect other callers
+     */
+    public CompletableFuture<T> run(String scope, String key, Supplier<CompletableFuture<T>> call) {
+        return run(scope, key, call, true);
+    }
+
+    private CompletableFuture<T> run(String scope, String key, Supplier<CompletableFuture<T>> call, boolean mayRetry) {
+        String flightKey = scope + '\n' + generation(scope).get() + '\n' + key;
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(flightKey, mine);
+        if (running == null) {
+            calls.increment();
+            CompletableFuture<T> result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            result.whenComplete((value, error) -> {
+                // Leave the map first, so a read arriving from now on starts afresh
+                inFlight.remove(flightKey, mine);
+                if (error != null) {
+                    mine.completeExceptionally(error);
+                } else {
+                    mine.complete(value);
+                }
+            });
+            return mine.copy();
+        }
+        coalesced.increment();
+        // Waiters carry on on the common pool, so the thread that completes the
+        // call does not write every waiter's response in turn
+        CompletableFuture<T> shared = running.thenApplyAsync(value -> value);
+        if (!mayRetry) {
+            return shared;
+        }
+        return shared.handle((value, error) -> {
+            if (error == null) {
+                return CompletableFuture.completedFuture(value);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (retryAlone.test(cause)) {
+                retried.increment();
+                return run(scope, key, call, false);
+            }
+            return CompletableFuture.<T>failedFuture(cause);
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * Stops reads started so far from being joined by later ones in the scope;
+     * call after a write in the scope has committed
+     * @param scope group whose data changed
+     */
+    public void invalidate(String scope) {
+        generation(scope).incrementAndGet();
+    }
+
+    private AtomicLong generation(String scope) {
+        return generations.computeIfAbsent(scope, k -> new AtomicLong());
+    }
+
+    /**
+     * @return one-line summary: calls run, requests that shared one and rerun waiters
+     */
+    public String getStats() {
+        long run = calls.sum();
+        long joined = coalesced.sum();
+        return String.format("Single-flight %s: %d calls, %d requests coalesced (%.1f%%), %d rerun after the caller's timeout",
+            name, run, joined, run + joined == 0 ? 0.0 : 100.0 * joined / (run + joined), retried.sum());
+    }
+}
@@ -0,0 +1,235 @@
+package com.example;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Partition Maintenance and Archival
+ *
+ * The tasks table is partitioned by month of created_at. On every run, for each
+ * shard, this job:
+ *   1. creates the partitions for the current month and the next few
+ *      (taskserver.partitions.monthsAhead) so inserts never land in tasks_default
+ *   2. moves tasks that were neither created nor updated within the retention
+ *      period (taskserver.archive.retentionDays) into tasks_archive, in batches
+ *      of taskserver.archive.batchSize, each batch a single DELETE ... INSERT
+ *   3. drops monthly partitions that lie wholly before the cutoff and are empty
+ * An advisory lock lets only one server work on a shard at a time.
+ */
+public class TaskArchiver {
+
+    // Arbitrary application-wide key for pg_try_advisory_lock ("TASKARCH")
+    private static final long LOCK_KEY = 0x5441534B41524348L;
+    // Gives other queries room between archive batches
+    private static final long BATCH_PAUSE_MS = 100;
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String ARCHIVE_BATCH =
+        "WITH moved AS ("
+        + " DELETE FROM tasks WHERE (id, created_at) IN ("
+        + "  SELECT id, created_at FROM tasks"
+        + "  WHERE created_at < LOCALTIMESTAMP - ? * INTERVAL '1 day'"
+        + "  AND COALESCE(updated_at, created_at) < LOCALTIMESTAMP - ? * INTERVAL '1 day'"
+        + "  LIMIT ? FOR UPDATE SKIP LOCKED)"
+        + " RETURNING id, title, description, priority, created_at, updated_at, version, due_at, remind_at, tenant_id) "
+        + "INSERT INTO tasks_archive (id, title, description, priority, created_at, updated_at, version, due_at, remind_at, tenant_id) "
+        + "SELECT id, title, description, priority, created_at, updated_at, version, due_at, remind_at, tenant_id FROM moved";
+
+    private final List<DatabaseConnection> shards;
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder partitionsCreated = new LongAdder();
+    private final LongAdder partitionsDropped = new LongAdder();
+
+    public TaskArchiver(List<DatabaseConnection> shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Runs the job now and then every intervalMs on a daemon thread
+     * @param intervalMs delay between the end of one run and the start of the next
+     */
+    public void start(long intervalMs) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runOnce, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Maintains partitions and archives old tasks on every shard. Settings are
+     * read per run, so changes in the config file apply from the next run.
+     */
+    public void runOnce() {
+        ServerConfig config = ServerConfig.current();
+        int monthsAhead = config.getInt("taskserver.partitions.monthsAhead");
+        int retentionDays = config.getInt("taskserver.archive.retentionDays");
+        int batchSize = config.getInt("taskserver.archive.batchSize");
+        for (int shard = 0; shard < shards.size(); shard++) {
+            try (Connection conn = shards.get(shard).getConnection()) {
+                if (!tryLock(conn)) {
+                    continue;   // another server is on it
+                }
+                try {
+                    createPartitions(conn, monthsAhead);
+                    if (retentionDays > 0) {
+                        long moved = archive(conn, retentionDays, batchSize);
+                        if (moved > 0) {
+                            System.out.println("Archived " + moved + " tasks"
+                                + (shards.size() > 1 ? " on shard " + shard : ""));
+                        }
+                        dropEmptyPartitions(conn, retentionDays);
+                    }
+                } finally {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Archival run failed" + (shards.size() > 1 ? " on shard " + shard : "")
+                    + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean tryLock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_lock(" + LOCK_KEY + ")")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Creates the monthly partitions from this month to monthsAhead months ahead.
+     * Months are taken from the database clock, which also fills created_at.
+     */
+    private void createPartitions(Connection conn, int monthsAhead) throws SQLException {
+        LocalDate month = currentMonth(conn);
+        for (int i = 0; i <= monthsAhead; i++) {
+            LocalDate from = month.plusMonths(i);
+            String name = "tasks_p" + from.format(PARTITION_SUFFIX);
+            if (exists(conn, name)) {
+                continue;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF tasks FOR VALUES FROM ('"
+                    + from + "') TO ('" + from.plusMonths(1) + "')");
+                // The primary key includes created_at, so only this keeps ids unique within the month
+                stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS " + name + "_id_key ON " + name + " (id)");
+                partitionsCreated.increment();
+                System.out.println("Created partition " + name);
+            } catch (SQLException e) {
+                // Typically rows for that month already sit in tasks_default
+                System.err.println("Could not create partition " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves expired tasks to tasks_archive until none are left. A task whose id is
+     * already archived fails its whole batch, which is rolled back and nothing is
+     * deleted; the error names the id.
+     * @return number of tasks moved
+     */
+    private long archive(Connection conn, int retentionDays, int batchSize) throws SQLException, InterruptedException {
+        long total = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(ARCHIVE_BATCH)) {
+            pstmt.setInt(1, retentionDays);
+            pstmt.setInt(2, retentionDays);
+            pstmt.setInt(3, batchSize);
+            while (true) {
+                int moved = pstmt.executeUpdate();
+                total += moved;
+                archived.add(moved);
+                if (moved < batchSize) {
+                    return total;
+                }
+                Thread.sleep(BATCH_PAUSE_MS);
+            }
+        }
+    }
+
+    /**
+     * Drops monthly partitions that end before the retention cutoff and hold no rows.
+     * Dropping briefly locks the parent table, so give up quickly if it is busy and
+     * try again on the next run.
+     */
+    private void dropEmptyPartitions(Connection conn, int retentionDays) throws SQLException {
+        List<String> candidates = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                + "WHERE i.inhparent = 'tasks'::regclass AND c.relname LIKE 'tasks\\_p%' "
+                + "AND to_date(substr(c.relname, 8), 'YYYY_MM') + INTERVAL '1 month' "
+                + "<= LOCALTIMESTAMP - ? * INTERVAL '1 day'")) {
+            pstmt.setInt(1, retentionDays);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    candidates.add(rs.getString(1));
+                }
+            }
+        }
+        for (String name : candidates) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET LOCAL lock_timeout = '2s'");
+                boolean empty;
+                try (ResultSet rs = stmt.executeQuery("SELECT NOT EXISTS (SELECT 1 FROM " + name + ")")) {
+                    empty = rs.next() && rs.getBoolean(1);
+                }
+                if (empty) {
+                    stmt.execute("DROP TABLE " + name);
+                    partitionsDropped.increment();
+                    System.out.println("Dropped empty partition " + name);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                System.err.println("Could not drop partition " + name + ", will retry: " + e.getMessage());
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private static LocalDate currentMonth(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT date_trunc('month', LOCALTIMESTAMP)::date")) {
+            rs.next();
+            Date date = rs.getDate(1);
+            return date.toLocalDate();
+        }
+    }
+
+    private static boolean exists(Connection conn, String table) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * @return one-line summary of the work done since startup
+     */
+    public String getStats() {
+        return String.format("Archived %d tasks, created %d partitions, dropped %d empty partitions",
+            archived.sum(), partitionsCreated.sum(), partitionsDropped.sum());
+    }
+}
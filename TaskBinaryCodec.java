@@ -0,0 +1,187 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary encoding for task lists
+ *
+ * Served instead of JSON when the client sends "Accept: application/x-tasks-binary".
+ * Layout (all integers are unsigned LEB128 varints):
+ *   count, then per task: id, title length + UTF-8 bytes, description length + UTF-8 bytes,
+ *   priority byte (0 Low, 1 Medium, 2 High, 0xFF followed by a length-prefixed string).
+ * Only these fields are carried, so the format is only served when the request's
+ * ?fields= selects nothing else; other lists are sent as JSON.
+ */
+public class TaskBinaryCodec {
+
+    public static final String MEDIA_TYPE = "application/x-tasks-binary";
+
+    private static final String[] PRIORITIES = { "Low", "Medium", "High" };
+    private static final int CUSTOM_PRIORITY = 0xFF;
+    // Everything the layout has room for
+    private static final Set<String> FIELDS = Set.of("id", "title", "description", "priority");
+
+    /**
+     * Checks whether a request's Accept header asks for the binary format
+     * @param accept Accept header value (may be null)
+     * @return true if the binary media type is listed
+     */
+    public static boolean isAccepted(String accept) {
+        return accept != null && accept.contains(MEDIA_TYPE);
+    }
+
+    /**
+     * Checks whether the format can carry a list with the selected fields
+     * @param fields fields selected with ?fields=, or null for all of them
+     * @return true if every selected field is encoded
+     */
+    public static boolean carries(Set<String> fields) {
+        return fields != null && FIELDS.containsAll(fields);
+    }
+
+    /**
+     * Encodes a task list
+     * @param tasks task maps as returned by TaskDAO
+     * @return encoded bytes
+     */
+    public static byte[] encode(List<Map<String, String>> tasks) {
+        Buffer out = new Buffer(Math.max(64, tasks.size() * 48));
+        out.writeVarint(tasks.size());
+        for (Map<String, String> task : tasks) {
+            out.writeVarint(Long.parseLong(task.get("id")));
+            out.writeString(task.getOrDefault("title", ""));
+            out.writeString(task.getOrDefault("description", ""));
+            String priority = task.getOrDefault("priority", "Medium");
+            int code = priorityCode(priority);
+            out.writeByte(code);
+            if (code == CUSTOM_PRIORITY) {
+                out.writeString(priority);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a task list
+     * @param data encoded bytes
+     * @return task maps with id, title, description and priority
+     * @throws IOException if the data is truncated or malformed
+     */
+    public static List<Map<String, String>> decode(byte[] data) throws IOException {
+        Reader r = new Reader(data);
+        int count = (int) r.readVarint();
+        List<Map<String, String>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, String> task = new LinkedHashMap<>();
+            task.put("id", String.valueOf(r.readVarint()));
+            task.put("title", r.readString());
+            task.put("description", r.readString());
+            int code = r.readByte();
+            if (code >= PRIORITIES.length && code != CUSTOM_PRIORITY) {
+                throw new IOException("Unknown priority code " + code);
+            }
+            task.put("priority", code == CUSTOM_PRIORITY ? r.readString() : PRIORITIES[code]);
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    private static int priorityCode(String priority) {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            if (PRIORITIES[i].equals(priority)) return i;
+        }
+        return CUSTOM_PRIORITY;
+    }
+
+    /**
+     * Growable output buffer with varint and UTF-8 writers (avoids per-string byte arrays)
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[count++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            if (s == null) s = "";
+            int len = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < len && ascii; i++) {
+                ascii = s.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                // Fast path: one byte per char, no intermediate array
+                writeVarint(len);
+                ensure(len);
+                for (int i = 0; i < len; i++) buf[count++] = (byte) s.charAt(i);
+            } else {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length);
+                ensure(bytes.length);
+                System.arraycopy(bytes, 0, buf, count, bytes.length);
+                count += bytes.length;
+            }
+        }
+
+        private void ensure(int extra) {
+            if (count + extra > buf.length) {
+                byte[] bigger = new byte[Math.max(buf.length * 2, count + extra)];
+                System.arraycopy(buf, 0, bigger, 0, count);
+                buf = bigger;
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= data.length) throw new EOFException("Truncated task list");
+            return data[pos++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString() throws IOException {
+            int len = (int) readVarint();
+            if (len < 0 || pos + len > data.length) throw new EOFException("Truncated task list");
+            String s = new String(data, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
@@ -1,96 +1,391 @@
 package com.example;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 
 /**
  * Data Access Object for Task operations
  * 
  * Handles all database operations for tasks including CRUD operations.
+ * With several shards configured, a task lives on the shard that owns its id's
+ * slot (see ShardMap): single-task operations touch one shard and listings
+ * query every shard in parallel and merge the results by id.
+ *
+ * Every task belongs to a tenant. All request-facing methods take the caller's
+ * tenant id and only see and change that tenant's rows; a task id of another
+ * tenant behaves like one that does not exist. Connections are charged to the
+ * tenant through a TenantBudget per shard, so one tenant cannot hold all of
+ * any shard's pool.
  */
+@SuppressWarnings("try")   // tenant permits are held by try-with-resources without being referenced
 public class TaskDAO {
     
-    private final DatabaseConnection dbConnection;
+    /** Columns a client may ask for in a listing, in the order they are selected */
+    public static final List<String> SELECTABLE_COLUMNS =
+        List.of("id", "title", "description", "priority", "due_at", "remind_at", "version");
+    private static final String COLUMNS = String.join(", ", SELECTABLE_COLUMNS);
+    // Export writes times as UTC instants with milliseconds, as the API returns them
+    private static final String UTC_FORMAT = "'YYYY-MM-DD\"T\"HH24:MI:SS.MS\"Z\"'";
+    private static final String EXPORT_COLUMNS = "id, title, description, priority, "
+        + "to_char(due_at AT TIME ZONE 'UTC', " + UTC_FORMAT + ") AS due_at, "
+        + "to_char(remind_at AT TIME ZONE 'UTC', " + UTC_FORMAT + ") AS remind_at, version";
+    private static final String EXPORT_JSON = "json_build_object('id', id::text, 'title', title, "
+        + "'description', description, 'priority', priority, "
+        + "'due_at', to_char(due_at AT TIME ZONE 'UTC', " + UTC_FORMAT + "), "
+        + "'remind_at', to_char(remind_at AT TIME ZONE 'UTC', " + UTC_FORMAT + "), 'version', version)";
+    /** Columns a client may change, in the order they appear in UPDATE statements */
+    public static final List<String> PATCHABLE_COLUMNS = List.of("title", "description", "priority", "due_at", "remind_at");
+    /** TIMESTAMPTZ columns, exchanged as ISO-8601 instants such as 2026-10-20T09:00:00Z */
+    public static final List<String> TIMESTAMP_COLUMNS = List.of("due_at", "remind_at");
+    // The id comes from TaskIds and already carries the slot that places the row on its shard
+    private static final String INSERT =
+        "INSERT INTO tasks (id, tenant_id, title, description, priority, due_at, remind_at) "
+        + "VALUES (?, ?, ?, ?, ?, ?::timestamptz, ?::timestamptz) RETURNING " + COLUMNS;
+
+    private static final ExecutorService shardQueries = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "shard-query");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final List<DatabaseConnection> shards;
+    private final List<ReplicaRouter> routers = new ArrayList<>();
+    private final ShardMap shardMap;
+    private final List<TenantBudget> connectionBudgets = new ArrayList<>();
+    private final TaskIds ids;
     
     public TaskDAO() throws SQLException {
-        this.dbConnection = DatabaseConnection.getInstance();
+        this.shards = DatabaseConnection.getShards();
+        for (int i = 0; i < shards.size(); i++) {
+            routers.add(new ReplicaRouter(shards.get(i), DatabaseConnection.getReplicas(i),
+                DatabaseConfig.getReadYourWritesMillis()));
+        }
+        this.shardMap = new ShardMap(shards.get(0), shards.size());
+        double maxShare = ServerConfig.current().getDouble("taskserver.tenant.maxShare");
+        for (int i = 0; i < shards.size(); i++) {
+            // Each pool is exhausted on its own, so each gets its own fair split
+            connectionBudgets.add(new TenantBudget(shards.size() > 1 ? "shard " + i + " connections" : "connections",
+                DatabaseConfig.getMaxPoolSize(), maxShare));
+        }
+        this.ids = new TaskIds(ServerConfig.current().getInt("taskserver.node.id"));
+    }
+    
+    /**
+     * @return connections of every shard primary together
+     */
+    public int getConnectionCapacity() {
+        return DatabaseConfig.getMaxPoolSize() * shards.size();
     }
     
     /**
-     * Initializes the database schema (creates tasks table if it doesn't exist)
-     * @throws SQLException if schema creation fails
+     * Applies a changed pool size or tenant share to the connection budgets
+     * @param maxShare largest fraction of a shard's connections one tenant may hold
+     */
+    public void reconfigureBudget(double maxShare) {
+        for (TenantBudget budget : connectionBudgets) {
+            budget.configure(DatabaseConfig.getMaxPoolSize(), maxShare);
+        }
+    }
+
+    /**
+     * @return per-tenant accounting of borrowed connections, by shard
+     */
+    public List<TenantBudget> getConnectionBudgets() {
+        return connectionBudgets;
+    }
+
+    /**
+     * @return routers that pick the primary or a replica for each query, by shard
+     */
+    public List<ReplicaRouter> getRouters() {
+        return routers;
+    }
+
+    /**
+     * @return slot assignment used to place tasks on shards
+     */
+    public ShardMap getShardMap() {
+        return shardMap;
+    }
+
+    /**
+     * @return generator of this node's task ids
+     */
+    public TaskIds getIds() {
+        return ids;
+    }
+
+    /**
+     * Initializes the database schema by applying any pending migrations on every
+     * shard, then loads the shard map and starts the id clock after the newest stored id
+     * @throws SQLException if schema migration fails
      */
     public void initializeSchema() throws SQLException {
-        String createTableSQL = """
-            CREATE TABLE IF NOT EXISTS tasks (
-                id SERIAL PRIMARY KEY,
-                title VARCHAR(255) NOT NULL,
-                description TEXT,
-                priority VARCHAR(50) DEFAULT 'Medium',
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-            )
-            """;
-        
-        try (Connection conn = dbConnection.getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createTableSQL);
-            System.out.println("Database schema initialized successfully");
+        for (DatabaseConnection shard : shards) {
+            try (Connection conn = shard.getConnection()) {
+                new SchemaMigrator().migrate(conn);
+            }
+        }
+        System.out.println("Database schema initialized successfully (version " + SchemaMigrator.latestVersion() + ")");
+        shardMap.load();
+        if (shards.size() > 1) {
+            System.out.println("Shard map loaded, slots per shard: " + Arrays.toString(shardMap.slotCounts()));
+            shardMap.startReloading(ServerConfig.current().getLong("taskserver.shards.reloadMs"));
         }
+        ids.seed(maxTaskId());
     }
     
     /**
-     * Retrieves all tasks from the database
-     * @return List of task maps
+     * @return largest id in tasks or tasks_archive on any shard, 0 if there are none
+     */
+    private long maxTaskId() throws SQLException {
+        long max = 0;
+        for (DatabaseConnection shard : shards) {
+            try (Connection conn = shard.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT GREATEST((SELECT max(id) FROM tasks), "
+                     + "(SELECT max(id) FROM tasks_archive))")) {
+                if (rs.next()) {
+                    max = Math.max(max, rs.getLong(1));
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Retrieves all tasks of a tenant from the database
+     * @param tenantId tenant whose tasks are listed
+     * @param fields columns to return (id is always included), or null for all
+     * @return List of task maps holding only the requested fields, ordered by id
+     * @throws IllegalArgumentException if a field is not in SELECTABLE_COLUMNS
      * @throws SQLException if query fails
      */
-    public List<Map<String, String>> getAllTasks() throws SQLException {
-        List<Map<String, String>> tasks = new ArrayList<>();
-        String sql = "SELECT id, title, description, priority FROM tasks ORDER BY id";
+    public List<Map<String, String>> getAllTasks(String tenantId, Collection<String> fields,
+                                                 boolean includeArchived) throws SQLException {
+        List<String> columns = projection(fields, includeArchived);
+        List<Object> params = includeArchived ? List.of(tenantId, tenantId) : List.of(tenantId);
+        return scatterGather(tenantId, listSql(columns, false, Integer.MAX_VALUE, includeArchived),
+            columns, params, Integer.MAX_VALUE);
+    }
         
-        try (Connection conn = dbConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+    /**
+     * Retrieves one page of a tenant's tasks in id order (keyset pagination)
+     * @param tenantId tenant whose tasks are listed
+     * @param afterId only tasks with a larger id are returned
+     * @param limit maximum number of tasks
+     * @param fields columns to return (id is always included), or null for all
+     * @param includeArchived also return archived tasks, flagged with archived=true
+     * @return List of task maps holding only the requested fields, ordered by id
+     * @throws IllegalArgumentException if a field is not in SELECTABLE_COLUMNS
+     * @throws SQLException if query fails
+     */
+    public List<Map<String, String>> getTasksPage(String tenantId, long afterId, int limit, Collection<String> fields,
+                                                  boolean includeArchived) throws SQLException {
+        List<String> columns = projection(fields, includeArchived);
+        List<Object> params = includeArchived
+            ? List.of(tenantId, afterId, tenantId, afterId)
+            : List.of(tenantId, afterId);
+        return scatterGather(tenantId, listSql(columns, true, limit, includeArchived), columns, params, limit);
+    }
             
-            while (rs.next()) {
-                Map<String, String> task = new LinkedHashMap<>();
-                task.put("id", String.valueOf(rs.getInt("id")));
-                task.put("title", rs.getString("title"));
-                task.put("description", rs.getString("description") != null ? rs.getString("description") : "");
-                task.put("priority", rs.getString("priority") != null ? rs.getString("priority") : "Medium");
-                tasks.add(task);
+    /**
+     * Validates requested fields and puts them in select order; id is needed for
+     * ordering, merging and pagination so it is always selected
+     */
+    private static List<String> projection(Collection<String> fields, boolean includeArchived) {
+        if (fields != null) {
+            for (String field : fields) {
+                if (!SELECTABLE_COLUMNS.contains(field)) {
+                    throw new IllegalArgumentException("Unknown field: " + field);
+                }
+            }
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : SELECTABLE_COLUMNS) {
+            if (fields == null || column.equals("id") || fields.contains(column)) {
+                columns.add(column);
             }
         }
+        if (includeArchived) {
+            columns.add("archived");
+        }
+        return columns;
+    }
         
+    /**
+     * Builds an id-ordered listing over tasks and, if asked, tasks_archive. Each
+     * branch is ordered and limited on its own so both can use their (tenant_id, id) index.
+     */
+    private static String listSql(List<String> columns, boolean paged, int limit, boolean includeArchived) {
+        String order = " ORDER BY id" + (limit < Integer.MAX_VALUE ? " LIMIT " + limit : "");
+        String where = " WHERE tenant_id = ?" + (paged ? " AND id > ?" : "");
+        if (!includeArchived) {
+            return "SELECT " + String.join(", ", columns) + " FROM tasks" + where + order;
+        }
+        String select = "SELECT " + String.join(", ", columns.subList(0, columns.size() - 1));
+        return "(" + select + ", FALSE AS archived FROM tasks" + where + order + ") UNION ALL ("
+            + select + ", TRUE FROM tasks_archive" + where + order + ")" + order;
+    }
+
+    /**
+     * Runs the same id-ordered query on every shard in parallel and merges the results
+     * @param tenantId tenant charged for the connections
+     * @param sql query ordered by id
+     * @param columns columns selected by the query
+     * @param params values for the query's parameters
+     * @param limit maximum number of merged rows
+     */
+    private List<Map<String, String>> scatterGather(String tenantId, String sql, List<String> columns,
+                                                    List<Object> params, int limit) throws SQLException {
+        if (routers.size() == 1) {
+            return queryShard(tenantId, 0, sql, columns, params);
+        }
+        RequestContext ctx = RequestContext.current();
+        List<Future<List<Map<String, String>>>> futures = new ArrayList<>();
+        for (int i = 0; i < routers.size(); i++) {
+            int shard = i;
+            Callable<List<Map<String, String>>> task = () -> queryShard(tenantId, shard, sql, columns, params);
+            futures.add(shardQueries.submit(ctx != null ? ctx.propagate(task) : task));
+        }
+        List<List<Map<String, String>>> parts = new ArrayList<>();
+        try {
+            for (Future<List<Map<String, String>>> f : futures) {
+                parts.add(f.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e.getCause() instanceof SQLException
+                ? (SQLException) e.getCause()
+                : new SQLException("Shard query failed", e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while querying shards", e);
+        }
+        return mergeById(parts, limit);
+    }
+
+    private List<Map<String, String>> queryShard(String tenantId, int shard, String sql,
+                                                 List<String> columns, List<Object> params) throws SQLException {
+        List<Map<String, String>> tasks = new ArrayList<>();
+        try (TenantBudget.Permit permit = connectionPermit(tenantId, shard);
+             Connection conn = routers.get(shard).readConnection();
+             PreparedStatement pstmt = RequestContext.track(conn.prepareStatement(sql))) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            TaskEvents.Query event = new TaskEvents.Query();
+            event.begin();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tasks.add(mapRow(rs, columns));
+                }
+                event.done("list", tenantId, 0, tasks.size());
+            } finally {
+                event.endIfFailed("list", tenantId, 0);
+            }
+        }
         return tasks;
     }
     
+    /**
+     * k-way merge of per-shard lists that are each ordered by id. A row can briefly
+     * exist on two shards while ShardRebalancer moves its slot; it is returned once.
+     */
+    private static List<Map<String, String>> mergeById(List<List<Map<String, String>>> parts, int limit) {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>((a, b) -> Long.compare(a.id, b.id));
+        int total = 0;
+        for (List<Map<String, String>> part : parts) {
+            total += part.size();
+            Cursor c = new Cursor(part);
+            if (c.advance()) heap.add(c);
+        }
+        List<Map<String, String>> merged = new ArrayList<>(Math.min(total, limit));
+        long lastId = Long.MIN_VALUE;
+        while (!heap.isEmpty() && merged.size() < limit) {
+            Cursor c = heap.poll();
+            if (c.id != lastId) {
+                merged.add(c.current);
+                lastId = c.id;
+            }
+            if (c.advance()) heap.add(c);
+        }
+        return merged;
+    }
+
     /**
      * Retrieves a single task by ID
+     * @param tenantId tenant the task must belong to
      * @param id Task ID
      * @return Task map or null if not found
      * @throws SQLException if query fails
      */
-    public Map<String, String> getTaskById(String id) throws SQLException {
-        String sql = "SELECT id, title, description, priority FROM tasks WHERE id = ?";
+    public Map<String, String> getTaskById(String tenantId, String id) throws SQLException {
+        return getTaskById(tenantId, id, false);
+    }
         
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * Retrieves a single task by ID, optionally looking in the archive too
+     * @param tenantId tenant the task must belong to
+     * @param id Task ID
+     * @param includeArchived also find archived tasks, flagged with archived=true
+     * @return Task map or null if not found
+     * @throws SQLException if query fails
+     */
+    public Map<String, String> getTaskById(String tenantId, String id, boolean includeArchived) throws SQLException {
+        String sql = includeArchived
+            ? "SELECT " + COLUMNS + ", FALSE AS archived FROM tasks WHERE id = ? AND tenant_id = ? "
+              + "UNION ALL SELECT " + COLUMNS + ", TRUE FROM tasks_archive WHERE id = ? AND tenant_id = ? LIMIT 1"
+            : "SELECT " + COLUMNS + " FROM tasks WHERE id = ? AND tenant_id = ?";
+        long taskId = Long.parseLong(id);
+
+        try (TenantBudget.Permit permit = connectionPermit(tenantId, shardMap.shardOf(taskId));
+             Connection conn = routerFor(taskId).readConnection();
+             PreparedStatement pstmt = RequestContext.track(conn.prepareStatement(sql))) {
             
-            pstmt.setInt(1, Integer.parseInt(id));
+            pstmt.setLong(1, taskId);
+            pstmt.setString(2, tenantId);
+            if (includeArchived) {
+                pstmt.setLong(3, taskId);
+                pstmt.setString(4, tenantId);
+            }
             
+            TaskEvents.Query event = new TaskEvents.Query();
+            event.begin();
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    Map<String, String> task = new LinkedHashMap<>();
-                    task.put("id", String.valueOf(rs.getInt("id")));
-                    task.put("title", rs.getString("title"));
-                    task.put("description", rs.getString("description") != null ? rs.getString("description") : "");
-                    task.put("priority", rs.getString("priority") != null ? rs.getString("priority") : "Medium");
+                    Map<String, String> task = includeArchived ? mapRow(rs, projection(null, true)) : mapRow(rs);
+                    event.done("get", tenantId, taskId, 1);
                     return task;
                 }
+                event.done("get", tenantId, taskId, 0);
+            } finally {
+                event.endIfFailed("get", tenantId, taskId);
             }
         }
         
@@ -99,32 +394,46 @@ public class TaskDAO {
     
     /**
      * Creates a new task in the database
+     * @param tenantId tenant the task belongs to
      * @param title Task title
      * @param description Task description
      * @param priority Task priority
+     * @param dueAt due date as an ISO-8601 instant, or null
+     * @param remindAt reminder time as an ISO-8601 instant, or null
      * @return Created task map with generated ID
      * @throws SQLException if insert fails
      */
-    public Map<String, String> createTask(String title, String description, String priority) throws SQLException {
-        String sql = "INSERT INTO tasks (title, description, priority) VALUES (?, ?, ?) RETURNING id";
+    public Map<String, String> createTask(String tenantId, String title, String description, String priority,
+                                          String dueAt, String remindAt) throws SQLException {
+        int slot = shards.size() > 1 ? shardMap.nextInsertSlot() : 0;
+        long id = ids.next(slot);
+        int shard = shardMap.shardOf(slot);
+        ReplicaRouter router = routers.get(shard);
         
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (TenantBudget.Permit permit = connectionPermit(tenantId, shard);
+             Connection conn = router.writeConnection();
+             PreparedStatement pstmt = RequestContext.track(conn.prepareStatement(INSERT))) {
             
-            pstmt.setString(1, title);
-            pstmt.setString(2, description != null ? description : "");
-            pstmt.setString(3, priority != null ? priority : "Medium");
+            int i = 1;
+            pstmt.setLong(i++, id);
+            pstmt.setString(i++, tenantId);
+            pstmt.setString(i++, title);
+            pstmt.setString(i++, description != null ? description : "");
+            pstmt.setString(i++, priority != null ? priority : "Medium");
+            pstmt.setString(i++, dueAt);
+            pstmt.setString(i, remindAt);
             
+            TaskEvents.Query event = new TaskEvents.Query();
+            event.begin();
             try (ResultSet rs = pstmt.executeQuery()) {
+                router.recordWrite();
                 if (rs.next()) {
-                    int id = rs.getInt("id");
-                    Map<String, String> task = new LinkedHashMap<>();
-                    task.put("id", String.valueOf(id));
-                    task.put("title", title);
-                    task.put("description", description != null ? description : "");
-                    task.put("priority", priority != null ? priority : "Medium");
+                    Map<String, String> task = mapRow(rs);
+                    event.done("create", tenantId, id, 1);
                     return task;
                 }
+            } finally {
+                event.endIfFailed("create", tenantId, id);
             }
         }
         
@@ -132,55 +441,693 @@ public class TaskDAO {
     }
     
     /**
-     * Updates an existing task in the database
+     * Updates an existing task in the database in a single statement, bumping its version
+     * @param tenantId tenant the task must belong to
      * @param id Task ID
      * @param title Task title
      * @param description Task description
      * @param priority Task priority
+     * @param dueAt due date as an ISO-8601 instant, or null
+     * @param remindAt reminder time as an ISO-8601 instant, or null
+     * @param expectedVersion version the caller last saw, or null to update unconditionally
      * @return Updated task map or null if not found
+     * @throws VersionConflictException if the task exists but its version is not expectedVersion
      * @throws SQLException if update fails
      */
-    public Map<String, String> updateTask(String id, String title, String description, String priority) throws SQLException {
-        String sql = "UPDATE tasks SET title = ?, description = ?, priority = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ? RETURNING id, title, description, priority";
+    public Map<String, String> updateTask(String tenantId, String id, String title, String description, String priority,
+                                          String dueAt, String remindAt, Long expectedVersion) throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("title", title);
+        columns.put("description", description != null ? description : "");
+        columns.put("priority", priority != null ? priority : "Medium");
+        columns.put("due_at", dueAt);
+        columns.put("remind_at", remindAt);
+        return update(tenantId, Long.parseLong(id), columns, expectedVersion);
+    }
         
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * Updates only the given columns of a task, leaving the others (and their
+     * storage) untouched, and bumps its version
+     * @param tenantId tenant the task must belong to
+     * @param id Task ID
+     * @param changes new values by column; keys must be in PATCHABLE_COLUMNS
+     * @param expectedVersion version the caller last saw, or null to update unconditionally
+     * @return Updated task map or null if not found
+     * @throws VersionConflictException if the task exists but its version is not expectedVersion
+     * @throws SQLException if update fails
+     */
+    public Map<String, String> patchTask(String tenantId, String id, Map<String, String> changes,
+                                         Long expectedVersion) throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        for (String column : PATCHABLE_COLUMNS) {
+            if (changes.containsKey(column)) {
+                columns.put(column, changes.get(column));
+            }
+        }
+        if (columns.size() != changes.size()) {
+            throw new IllegalArgumentException("Only " + PATCHABLE_COLUMNS + " can be changed");
+        }
+        return update(tenantId, Long.parseLong(id), columns, expectedVersion);
+    }
+
+    private Map<String, String> update(String tenantId, long taskId, Map<String, String> columns,
+                                       Long expectedVersion) throws SQLException {
+        StringBuilder set = new StringBuilder();
+        for (String column : columns.keySet()) {
+            set.append(column).append(TIMESTAMP_COLUMNS.contains(column) ? " = ?::timestamptz, " : " = ?, ");
+        }
+        String update = "UPDATE tasks SET " + set + "updated_at = CURRENT_TIMESTAMP, version = version + 1 WHERE id = ? AND tenant_id = ?";
+        // A subquery in RETURNING reads the row as it was before the statement, so the
+        // priority being replaced comes back with the update (for TaskStats). created_at
+        // never changes, and matching it lets the subquery probe only the row's partition.
+        boolean setsPriority = columns.containsKey("priority");
+        String returning = COLUMNS + (setsPriority
+            ? ", (SELECT COALESCE(p.priority, 'Medium') FROM tasks p"
+              + " WHERE p.id = tasks.id AND p.created_at = tasks.created_at) AS previous_priority" : "");
+        // On a version mismatch the second branch returns the current row instead, so
+        // "not found" and "conflict" are told apart without another round trip
+        String sql = expectedVersion == null
+            ? update + " RETURNING " + returning
+            : "WITH updated AS (" + update + " AND version = ? RETURNING " + returning + ") "
+              + "SELECT " + COLUMNS + (setsPriority ? ", previous_priority" : "") + ", TRUE AS updated FROM updated "
+              + "UNION ALL SELECT " + COLUMNS + (setsPriority ? ", NULL" : "") + ", FALSE FROM tasks WHERE id = ? AND tenant_id = ? "
+              + "AND NOT EXISTS (SELECT 1 FROM updated)";
+        ReplicaRouter router = writableRouterFor(taskId);
+
+        try (TenantBudget.Permit permit = connectionPermit(tenantId, shardMap.shardOf(taskId));
+             Connection conn = router.writeConnection();
+             PreparedStatement pstmt = RequestContext.track(conn.prepareStatement(sql))) {
             
-            pstmt.setString(1, title);
-            pstmt.setString(2, description != null ? description : "");
-            pstmt.setString(3, priority != null ? priority : "Medium");
-            pstmt.setInt(4, Integer.parseInt(id));
+            int i = 1;
+            for (String value : columns.values()) {
+                pstmt.setString(i++, value);
+            }
+            pstmt.setLong(i++, taskId);
+            pstmt.setString(i++, tenantId);
+            if (expectedVersion != null) {
+                pstmt.setLong(i++, expectedVersion);
+                pstmt.setLong(i++, taskId);
+                pstmt.setString(i, tenantId);
+            }
             
+            TaskEvents.Query event = new TaskEvents.Query();
+            event.begin();
             try (ResultSet rs = pstmt.executeQuery()) {
+                router.recordWrite();
                 if (rs.next()) {
-                    Map<String, String> task = new LinkedHashMap<>();
-                    task.put("id", String.valueOf(rs.getInt("id")));
-                    task.put("title", rs.getString("title"));
-                    task.put("description", rs.getString("description") != null ? rs.getString("description") : "");
-                    task.put("priority", rs.getString("priority") != null ? rs.getString("priority") : "Medium");
+                    if (expectedVersion != null && !rs.getBoolean("updated")) {
+                        event.done("update", tenantId, taskId, 0);
+                        throw new VersionConflictException(mapRow(rs));
+                    }
+                    Map<String, String> task = mapRow(rs);
+                    if (setsPriority) {
+                        task.put("previous_priority", rs.getString("previous_priority"));
+                    }
+                    event.done("update", tenantId, taskId, 1);
                     return task;
                 }
+                event.done("update", tenantId, taskId, 0);
+            } finally {
+                event.endIfFailed("update", tenantId, taskId);
             }
         }
         
         return null;
     }
     
+    /**
+     * Consumes a task's reminder if it is still set to the given time, so that of
+     * several servers holding the same reminder only one fires it. Not tenant-scoped:
+     * the id comes from the server's own reminder index, never from a request.
+     * @param taskId Task ID
+     * @param remindAtMillis reminder time the caller scheduled, in epoch milliseconds
+     * @return the task with its reminder cleared and its tenant_id, or null if the reminder was changed,
+     *         cleared or already fired, or the task is gone
+     * @throws SQLException if the update fails
+     */
+    public Map<String, String> claimReminder(long taskId, long remindAtMillis) throws SQLException {
+        String sql = "UPDATE tasks SET remind_at = NULL, version = version + 1 "
+            + "WHERE id = ? AND date_trunc('milliseconds', remind_at) = ? RETURNING tenant_id, " + COLUMNS;
+        ReplicaRouter router = writableRouterFor(taskId);
+
+        try (Connection conn = router.writeConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, taskId);
+            pstmt.setObject(2, OffsetDateTime.ofInstant(Instant.ofEpochMilli(remindAtMillis), ZoneOffset.UTC));
+
+            TaskEvents.Query event = new TaskEvents.Query();
+            event.begin();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    event.done("claimReminder", null, taskId, 0);
+                    return null;
+                }
+                Map<String, String> task = mapRow(rs);
+                task.put("tenant_id", rs.getString("tenant_id"));
+                event.done("claimReminder", task.get("tenant_id"), taskId, 1);
+                return task;
+            } finally {
+                event.endIfFailed("claimReminder", null, taskId);
+            }
+        }
+    }
+
+    /**
+     * Streams every pending reminder of every tenant from all shards, in no particular order
+     * @param consumer receives task id and reminder time in epoch milliseconds
+     * @throws SQLException if a shard cannot be read
+     */
+    public void forEachPendingReminder(BiConsumer<Long, Long> consumer) throws SQLException {
+        for (ReplicaRouter router : routers) {
+            try (Connection conn = router.writeConnection()) {
+                conn.setAutoCommit(false);   // required for the driver to stream with a fetch size
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "SELECT id, remind_at FROM tasks WHERE remind_at IS NOT NULL")) {
+                    pstmt.setFetchSize(10_000);
+                    TaskEvents.Query event = new TaskEvents.Query();
+                    event.begin();
+                    int rows = 0;
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            consumer.accept(rs.getLong(1), rs.getObject(2, OffsetDateTime.class).toInstant().toEpochMilli());
+                            rows++;
+                        }
+                        event.done("loadReminders", null, 0, rows);
+                    } finally {
+                        event.endIfFailed("loadReminders", null, 0);
+                    }
+                    conn.commit();
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the tasks streamed by forEachTask
+     */
+    @FunctionalInterface
+    public interface TaskVisitor {
+        void visit(String tenantId, long id, String priority);
+    }
+
+    /**
+     * Streams the tenant, id and priority of every live task from all shards, in no
+     * particular order
+     * @param visitor receives each task; a null priority is passed as Medium
+     * @throws SQLException if a shard cannot be read
+     */
+    public void forEachTask(TaskVisitor visitor) throws SQLException {
+        for (ReplicaRouter router : routers) {
+            try (Connection conn = router.writeConnection()) {
+                conn.setAutoCommit(false);   // required for the driver to stream with a fetch size
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "SELECT tenant_id, id, COALESCE(priority, 'Medium') FROM tasks")) {
+                    pstmt.setFetchSize(10_000);
+                    TaskEvents.Query event = new TaskEvents.Query();
+                    event.begin();
+                    int rows = 0;
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            visitor.visit(rs.getString(1), rs.getLong(2), rs.getString(3));
+                            rows++;
+                        }
+                        event.done("scanTasks", null, 0, rows);
+                    } finally {
+                        event.endIfFailed("scanTasks", null, 0);
+                    }
+                    conn.commit();
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads live tasks in the order their ids come from an iterator, until limit
+     * tasks are found. Ids are taken in batches of the number still wanted and each
+     * batch is looked up with one query per shard, for at most a few batches. Ids
+     * with no live task of the tenant (deleted or archived since) are skipped.
+     * Primaries are read, so a task is never taken for gone because a replica lags.
+     * @param tenantId tenant the tasks must belong to
+     * @param ids task ids in the order wanted
+     * @param limit maximum number of tasks returned
+     * @param missing receives the ids that were skipped
+     * @return up to limit tasks in the order of ids
+     * @throws SQLException if a shard cannot be read
+     */
+    public List<Map<String, String>> getTasksInOrder(String tenantId, Iterator<Long> ids, int limit,
+                                                     Consumer<Long> missing) throws SQLException {
+        List<Map<String, String>> tasks = new ArrayList<>();
+        for (int batch = 0; batch < 4 && tasks.size() < limit && ids.hasNext(); batch++) {
+            List<Long> wanted = new ArrayList<>();
+            while (wanted.size() < limit - tasks.size() && ids.hasNext()) {
+                wanted.add(ids.next());
+            }
+            Map<Integer, List<Long>> byShard = new HashMap<>();
+            for (Long id : wanted) {
+                byShard.computeIfAbsent(shardMap.shardOf(id), k -> new ArrayList<>()).add(id);
+            }
+            Map<Long, Map<String, String>> found = new HashMap<>();
+            for (Map.Entry<Integer, List<Long>> shard : byShard.entrySet()) {
+                try (TenantBudget.Permit permit = connectionPermit(tenantId, shard.getKey());
+                     Connection conn = routers.get(shard.getKey()).writeConnection();
+                     PreparedStatement pstmt = RequestContext.track(conn.prepareStatement(
+                         "SELECT " + COLUMNS + " FROM tasks WHERE tenant_id = ? AND id = ANY(?)"))) {
+                    pstmt.setString(1, tenantId);
+                    pstmt.setArray(2, conn.createArrayOf("bigint", shard.getValue().toArray()));
+                    TaskEvents.Query event = new TaskEvents.Query();
+                    event.begin();
+                    int rows = 0;
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            Map<String, String> task = mapRow(rs);
+                            found.put(Long.parseLong(task.get("id")), task);
+                            rows++;
+                        }
+                        event.done("next", tenantId, 0, rows);
+                    } finally {
+                        event.endIfFailed("next", tenantId, 0);
+                    }
+                }
+            }
+            for (Long id : wanted) {
+                Map<String, String> task = found.get(id);
+                if (task != null) {
+                    tasks.add(task);
+                } else {
+                    missing.accept(id);
+                }
+            }
+        }
+        return tasks;
+    }
+
     /**
      * Deletes a task from the database
+     * @param tenantId tenant the task must belong to
      * @param id Task ID
-     * @return true if task was deleted, false if not found
+     * @return the deleted task, or null if not found
      * @throws SQLException if delete fails
      */
-    public boolean deleteTask(String id) throws SQLException {
-        String sql = "DELETE FROM tasks WHERE id = ?";
+    public Map<String, String> deleteTask(String tenantId, String id) throws SQLException {
+        String sql = "DELETE FROM tasks WHERE id = ? AND tenant_id = ? RETURNING " + COLUMNS;
+        long taskId = Long.parseLong(id);
+        ReplicaRouter router = writableRouterFor(taskId);
         
-        try (Connection conn = dbConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (TenantBudget.Permit permit = connectionPermit(tenantId, shardMap.shardOf(taskId));
+             Connection conn = router.writeConnection();
+             PreparedStatement pstmt = RequestContext.track(conn.prepareStatement(sql))) {
             
-            pstmt.setInt(1, Integer.parseInt(id));
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            pstmt.setLong(1, taskId);
+            pstmt.setString(2, tenantId);
+            TaskEvents.Query event = new TaskEvents.Query();
+            event.begin();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                router.recordWrite();
+                Map<String, String> deleted = rs.next() ? mapRow(rs) : null;
+                event.done("delete", tenantId, taskId, deleted != null ? 1 : 0);
+                return deleted;
+            } finally {
+                event.endIfFailed("delete", tenantId, taskId);
+            }
+        }
+    }
+
+    /**
+     * Counts the live tasks of every tenant by priority on all shard primaries
+     * @return counts by tenant id, then by priority (null priority counted as Medium)
+     * @throws SQLException if a shard cannot be read
+     */
+    public Map<String, Map<String, Long>> countTasks() throws SQLException {
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        for (ReplicaRouter router : routers) {
+            // Primary, not a replica: the counts are compared with writes made just now
+            try (Connection conn = router.writeConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(
+                     "SELECT tenant_id, COALESCE(priority, 'Medium'), count(*) FROM tasks GROUP BY 1, 2")) {
+                TaskEvents.Query event = new TaskEvents.Query();
+                event.begin();
+                int rows = 0;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        counts.computeIfAbsent(rs.getString(1), k -> new HashMap<>())
+                            .merge(rs.getString(2), rs.getLong(3), Long::sum);
+                        rows++;
+                    }
+                    event.done("count", null, 0, rows);
+                } finally {
+                    event.endIfFailed("count", null, 0);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Streams a tenant's live tasks to out with COPY ... TO STDOUT, one shard after
+     * the other and ordered by id within a shard. Rows go from the driver to out as
+     * they arrive, so memory use does not depend on the number of tasks. Reads use
+     * a replica where one is configured. Times are written as UTC instants.
+     * @param tenantId tenant whose tasks are exported
+     * @param format "csv" (with a header row) or "ndjson" (one JSON object per line)
+     * @param out receives the rows; not closed
+     * @return number of tasks written
+     * @throws SQLException if a shard cannot be read
+     * @throws IOException if writing to out fails; the COPY is cancelled
+     */
+    public long exportTasks(String tenantId, String format, OutputStream out) throws SQLException, IOException {
+        long rows = 0;
+        for (int shard = 0; shard < routers.size(); shard++) {
+            String sql = "csv".equals(format)
+                ? "COPY (SELECT " + EXPORT_COLUMNS + " FROM tasks WHERE tenant_id = " + literal(tenantId)
+                  + " ORDER BY id) TO STDOUT WITH (FORMAT csv" + (shard == 0 ? ", HEADER" : "") + ")"
+                // Quote and delimiter that JSON never contains unescaped, so each object is written verbatim
+                : "COPY (SELECT " + EXPORT_JSON + " FROM tasks WHERE tenant_id = " + literal(tenantId)
+                  + " ORDER BY id) TO STDOUT WITH (FORMAT csv, QUOTE E'\\x01', DELIMITER E'\\x02')";
+            try (TenantBudget.Permit permit = connectionPermit(tenantId, shard);
+                 Connection conn = routers.get(shard).readConnection()) {
+                TaskEvents.Query event = new TaskEvents.Query();
+                event.begin();
+                try {
+                    long copied = conn.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+                    event.done("export", tenantId, 0, (int) Math.min(Integer.MAX_VALUE, copied));
+                    rows += copied;
+                } finally {
+                    event.endIfFailed("export", tenantId, 0);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Bulk-loads tasks for a tenant with COPY ... FROM STDIN. Rows are taken from the
+     * source one at a time and sent to the database in 64 KB blocks, so memory use
+     * does not depend on the number of rows. Nothing is visible until every row has
+     * been copied; any database error rolls the whole import back. Each row is
+     * given its id here, as createTask does, and goes straight into tasks on the
+     * shard its slot belongs to; the shards commit one after the other.
+     * @param tenantId tenant the tasks belong to
+     * @param rows valid rows with title, description, priority, due_at and remind_at;
+     *             times as ISO-8601 instants or null
+     * @param added receives the id and priority of each row as it is copied; the rows
+     *              only exist once this method has returned
+     * @return number of tasks imported
+     * @throws SQLException if a shard rejects the data; nothing is imported
+     */
+    public long importTasks(String tenantId, Iterator<Map<String, String>> rows,
+                            BiConsumer<Long, String> added) throws SQLException {
+        boolean sharded = shards.size() > 1;
+        CopyTarget[] targets = new CopyTarget[shards.size()];
+        StringBuilder line = new StringBuilder(256);
+        boolean committed = false;
+        try {
+            while (rows.hasNext()) {
+                Map<String, String> row = rows.next();
+                int slot = sharded ? shardMap.nextInsertSlot() : 0;
+                int shard = shardMap.shardOf(slot);
+                if (targets[shard] == null) {
+                    targets[shard] = new CopyTarget(tenantId, connectionPermit(tenantId, shard), routers.get(shard));
+                }
+                long id = ids.next(slot);
+                line.setLength(0);
+                line.append(id).append(',');
+                appendCsv(line, tenantId).append(',');
+                appendCsv(line, row.get("title")).append(',');
+                appendCsv(line, row.get("description")).append(',');
+                appendCsv(line, row.get("priority")).append(',');
+                appendCsv(line, row.get("due_at")).append(',');
+                appendCsv(line, row.get("remind_at")).append('\n');
+                targets[shard].write(line);
+                added.accept(id, row.get("priority"));
+            }
+            long imported = 0;
+            for (CopyTarget target : targets) {
+                if (target != null) {
+                    imported += target.finish();
+                }
+            }
+            for (CopyTarget target : targets) {
+                if (target != null) {
+                    target.commit();
+                }
+            }
+            committed = true;
+            return imported;
+        } finally {
+            for (CopyTarget target : targets) {
+                if (target != null) {
+                    target.close(committed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Quotes a value for COPY in CSV format; null is written as an unquoted empty field
+     */
+    private static StringBuilder appendCsv(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Writes a tenant id as an SQL string literal; COPY takes no bind parameters
+     */
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * One shard's side of an import: a connection in a transaction with a COPY in progress
+     */
+    private static final class CopyTarget {
+        private static final int BLOCK_SIZE = 64 * 1024;
+
+        private final TenantBudget.Permit permit;
+        private final ReplicaRouter router;
+        private final Connection conn;
+        private final CopyIn copy;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 4096);
+        private final TaskEvents.Query event = new TaskEvents.Query();
+        private final String tenantId;
+        private long copied;
+
+        CopyTarget(String tenantId, TenantBudget.Permit permit, ReplicaRouter router) throws SQLException {
+            this.tenantId = tenantId;
+            this.permit = permit;
+            this.router = router;
+            event.begin();
+            Connection c = null;
+            try {
+                c = router.writeConnection();
+                c.setAutoCommit(false);
+                this.copy = c.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                    "COPY tasks (id, tenant_id, title, description, priority, due_at, remind_at) FROM STDIN WITH (FORMAT csv)");
+                this.conn = c;
+            } catch (SQLException | RuntimeException e) {
+                event.endIfFailed("import", tenantId, 0);
+                if (c != null) {
+                    rollbackAndClose(c);
+                }
+                permit.close();
+                throw e;
+            }
+        }
+
+        void write(CharSequence line) throws SQLException {
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            block.write(bytes, 0, bytes.length);
+            if (block.size() >= BLOCK_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (block.size() > 0) {
+                copy.writeToCopy(block.toByteArray(), 0, block.size());
+                block.reset();
+            }
+        }
+
+        /**
+         * Ends the COPY
+         * @return rows imported on this shard
+         */
+        long finish() throws SQLException {
+            flush();
+            copied = copy.endCopy();
+            return copied;
+        }
+
+        void commit() throws SQLException {
+            conn.commit();
+            router.recordWrite();
+        }
+
+        void close(boolean committed) {
+            try {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+            } catch (SQLException e) {
+                // the rollback below ends the transaction either way
+            }
+            if (committed) {
+                event.done("import", tenantId, 0, (int) Math.min(Integer.MAX_VALUE, copied));
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    AccessLog.event("import", "Error returning import connection: " + e.getMessage());
+                }
+            } else {
+                event.endIfFailed("import", tenantId, 0);
+                rollbackAndClose(conn);
+            }
+            permit.close();
+        }
+
+        private static void rollbackAndClose(Connection c) {
+            try {
+                c.rollback();
+                c.setAutoCommit(true);
+            } catch (SQLException e) {
+                AccessLog.event("import", "Rollback of import failed: " + e.getMessage());
+            }
+            try {
+                c.close();
+            } catch (SQLException e) {
+                // already gone
+            }
+        }
+    }
+
+    /**
+     * Charges one of a shard's connections to the tenant for the duration of a try
+     * block. Waits while the tenant is over its share of that shard, at most until
+     * the request's deadline.
+     * @throws SQLTransientException if the tenant's share stayed exhausted
+     */
+    private TenantBudget.Permit connectionPermit(String tenantId, int shard) throws SQLException {
+        RequestContext ctx = RequestContext.current();
+        long timeoutMs = ctx != null
+            ? ctx.remainingMillis()
+            : ServerConfig.current().getLong("taskserver.db.connectionTimeoutMs");
+        TaskEvents.TenantShareWait event = new TaskEvents.TenantShareWait();
+        event.begin();
+        try {
+            TenantBudget.Permit permit = connectionBudgets.get(shard).acquire(tenantId, Math.max(0, timeoutMs));
+            event.done(tenantId, true);
+            return permit;
+        } catch (SQLTransientException e) {
+            event.done(tenantId, false);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    private ReplicaRouter routerFor(long taskId) {
+        return routers.get(shardMap.shardOf(taskId));
+    }
+
+    /**
+     * Routes a write, refusing it while the task's slot is being moved to another shard
+     */
+    private ReplicaRouter writableRouterFor(long taskId) throws SQLException {
+        if (!shardMap.isWritable(ShardMap.slotOf(taskId))) {
+            throw new SQLTransientException("Task is being moved to another shard, retry shortly");
+        }
+        return routerFor(taskId);
+    }
+
+    private static Map<String, String> mapRow(ResultSet rs) throws SQLException {
+        return mapRow(rs, SELECTABLE_COLUMNS);
+    }
+
+    private static Map<String, String> mapRow(ResultSet rs, List<String> columns) throws SQLException {
+        Map<String, String> task = new LinkedHashMap<>();
+        for (String column : columns) {
+            switch (column) {
+                case "id":
+                case "version":
+                    task.put(column, String.valueOf(rs.getLong(column)));
+                    break;
+                case "archived":
+                    task.put(column, String.valueOf(rs.getBoolean(column)));
+                    break;
+                case "due_at":
+                case "remind_at":
+                    OffsetDateTime time = rs.getObject(column, OffsetDateTime.class);
+                    task.put(column, time != null ? time.toInstant().toString() : null);
+                    break;
+                case "description":
+                    task.put(column, rs.getString(column) != null ? rs.getString(column) : "");
+                    break;
+                case "priority":
+                    task.put(column, rs.getString(column) != null ? rs.getString(column) : "Medium");
+                    break;
+                default:
+                    task.put(column, rs.getString(column));
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Thrown by a conditional update when the task was changed since the caller read it
+     */
+    public static class VersionConflictException extends SQLException {
+        private static final long serialVersionUID = 1L;
+        private final transient Map<String, String> current;
+
+        VersionConflictException(Map<String, String> current) {
+            super("Task " + current.get("id") + " is at version " + current.get("version"));
+            this.current = current;
+        }
+
+        /**
+         * @return the task as currently stored
+         */
+        public Map<String, String> getCurrent() {
+            return current;
+        }
+    }
+
+    /**
+     * Read position in one shard's id-ordered result during the merge
+     */
+    private static final class Cursor {
+        private final List<Map<String, String>> rows;
+        private int next;
+        Map<String, String> current;
+        long id;
+
+        Cursor(List<Map<String, String>> rows) {
+            this.rows = rows;
+        }
+
+        boolean advance() {
+            if (next >= rows.size()) return false;
+            current = rows.get(next++);
+            id = Long.parseLong(current.get("id"));
+            return true;
         }
     }
 }
@@ -0,0 +1,177 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder Events
+ *
+ * Custom JFR events for task requests, task queries, connection borrows and
+ * tenant share waits. Queries, borrows and share waits are recorded on the
+ * thread doing the work, so a recording lines them up with that thread's CPU
+ * samples, lock waits and GC pauses. A request starts on the HTTP thread but is
+ * usually answered on a database thread, so its event is committed there when
+ * the response body is closed and carries that thread; match it to the HTTP
+ * side by its request id. Each event carries a threshold: shorter ones are discarded before
+ * anything is written. taskserver.jfc holds the production settings; the
+ * annotations below are the defaults when a recording does not mention them.
+ *
+ * Fields are only filled in when an event will be committed, so a disabled or
+ * below-threshold event costs a timestamp and nothing else.
+ */
+final class TaskEvents {
+
+    private TaskEvents() {
+    }
+
+    @Name("com.example.Request")
+    @Label("Task Request")
+    @Description("One HTTP request to a task route, from handler entry until the response body is closed, "
+        + "possibly on a database thread")
+    @Category({ "TaskServer", "HTTP" })
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static final class Request extends Event {
+        @Label("Route")
+        String route;
+        @Label("Method")
+        String method;
+        @Label("Path")
+        String path;
+        @Label("Status")
+        int status;
+        @Label("Request Id")
+        @Description("X-Request-Id, as in the access log")
+        String requestId;
+        @Label("Round Trips")
+        int roundTrips;
+
+        /**
+         * Ends the event and commits it if it passed the threshold
+         */
+        void done(String route, String method, String path, int status, String requestId, int roundTrips) {
+            end();
+            if (shouldCommit()) {
+                this.route = route;
+                this.method = method;
+                this.path = path;
+                this.status = status;
+                this.requestId = requestId;
+                this.roundTrips = roundTrips;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.example.Query")
+    @Label("Task Query")
+    @Description("One TaskDAO statement, from execute until its rows are read")
+    @Category({ "TaskServer", "Database" })
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class Query extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Tenant")
+        String tenant;
+        @Label("Task Id")
+        @Description("0 for statements over many tasks")
+        long taskId;
+        @Label("Rows")
+        int rows;
+        @Label("Failed")
+        @Description("True if the statement threw before its rows were read")
+        boolean failed;
+        // Not recorded: set once the event has ended
+        private transient boolean ended;
+
+        /**
+         * Ends the event and commits it if it passed the threshold; later calls do nothing
+         */
+        void done(String operation, String tenant, long taskId, int rows) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            end();
+            if (shouldCommit()) {
+                this.operation = operation;
+                this.tenant = tenant;
+                this.taskId = taskId;
+                this.rows = rows;
+                commit();
+            }
+        }
+
+        /**
+         * Ends the event as failed unless done() has already ended it; call from a finally block
+         */
+        void endIfFailed(String operation, String tenant, long taskId) {
+            if (!ended) {
+                failed = true;
+                done(operation, tenant, taskId, 0);
+            }
+        }
+    }
+
+    @Name("com.example.ConnectionAcquire")
+    @Label("Connection Acquire")
+    @Description("Borrowing a connection from a DatabaseConnection pool, including opening a new one")
+    @Category({ "TaskServer", "Database" })
+    @Threshold("5 ms")
+    @StackTrace(true)
+    static final class ConnectionAcquire extends Event {
+        @Label("Pool")
+        String pool;
+        @Label("Opened")
+        @Description("True if the pool was empty and a new connection was opened")
+        boolean opened;
+        @Label("In Use")
+        @Description("Connections borrowed from the pool after this one")
+        int inUse;
+
+        /**
+         * Ends the event and commits it if it passed the threshold
+         */
+        void done(String pool, boolean opened, int inUse) {
+            end();
+            if (shouldCommit()) {
+                this.pool = pool;
+                this.opened = opened;
+                this.inUse = inUse;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.example.TenantShareWait")
+    @Label("Tenant Share Wait")
+    @Description("Waiting for a tenant's fair share of database connections")
+    @Category({ "TaskServer", "Database" })
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class TenantShareWait extends Event {
+        @Label("Tenant")
+        String tenant;
+        @Label("Granted")
+        @Description("False if the wait ended at the request's deadline")
+        boolean granted;
+
+        /**
+         * Ends the event and commits it if it passed the threshold
+         */
+        void done(String tenant, boolean granted) {
+            end();
+            if (shouldCommit()) {
+                this.tenant = tenant;
+                this.granted = granted;
+                commit();
+            }
+        }
+    }
+}
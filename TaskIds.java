@@ -0,0 +1,141 @@
+package com.example;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered Task Ids
+ *
+ * Every server makes up the ids of the tasks it creates, so an insert does not
+ * have to wait for the database to hand one out. An id is a positive 64-bit value
+ * laid out, from the high bits down, as:
+ *
+ *   41 bits  milliseconds since EPOCH_MS (about 69 years)
+ *    5 bits  node id, unique per server (taskserver.node.id)
+ *    7 bits  sequence within the millisecond
+ *   10 bits  shard slot (see ShardMap)
+ *
+ * Ids therefore sort by creation time across all servers, to the millisecond,
+ * and still carry their shard slot where ShardMap looks for it.
+ *
+ * The clock only ever moves forward as far as ids are concerned: if the system
+ * clock steps back, ids carry on from the last time used until the clock has
+ * caught up, and a node that makes more than 128 ids in a millisecond takes
+ * the next one early. Either way ids stay unique and increasing on the node.
+ */
+public class TaskIds {
+
+    /** Start of the id clock, 2026-01-01T00:00:00Z */
+    public static final long EPOCH_MS = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+    public static final int NODE_BITS = 5;
+    public static final int SEQUENCE_BITS = 7;
+    /** Largest node id */
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+    private static final int TIME_SHIFT = NODE_BITS + SEQUENCE_BITS + ShardMap.SLOT_BITS;
+    // Backward clock steps smaller than this are ordinary NTP slew and are not logged
+    private static final long LOG_STEP_MS = 10;
+
+    private final int node;
+    private final LongSupplier clock;   // epoch milliseconds
+    private long lastMs;        // id clock, ms since EPOCH_MS
+    private long lastClockMs;   // last reading of the system clock
+    private int sequence;
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder clockSteps = new LongAdder();
+    private final LongAdder borrowedMs = new LongAdder();
+
+    /**
+     * @param node this server's node id, 0 to MAX_NODE; two servers sharing one must not run together
+     * @throws IllegalArgumentException if node is out of range
+     */
+    public TaskIds(int node) {
+        this(node, System::currentTimeMillis);
+    }
+
+    /**
+     * @param node this server's node id, 0 to MAX_NODE
+     * @param clock source of the current time in epoch milliseconds
+     * @throws IllegalArgumentException if node is out of range
+     */
+    TaskIds(int node, LongSupplier clock) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+        this.clock = clock;
+    }
+
+    /**
+     * Makes a new id
+     * @param slot shard slot the task goes to, 0 when there is a single shard
+     * @return id greater than every id this node made before
+     */
+    public synchronized long next(int slot) {
+        long now = clock.getAsLong() - EPOCH_MS;
+        if (now < lastClockMs - LOG_STEP_MS) {
+            clockSteps.increment();
+            AccessLog.event("ids", "System clock stepped back " + (lastClockMs - now)
+                + " ms; ids keep counting from the last time used");
+        }
+        lastClockMs = now;
+        if (now > lastMs) {
+            lastMs = now;
+            sequence = 0;
+        } else if (++sequence > MAX_SEQUENCE) {
+            // Out of ids for this millisecond: take the next one before the clock gets there
+            lastMs++;
+            sequence = 0;
+            if (lastMs > now) {
+                borrowedMs.increment();
+            }
+        }
+        generated.increment();
+        return lastMs << TIME_SHIFT
+            | (long) node << (SEQUENCE_BITS + ShardMap.SLOT_BITS)
+            | (long) sequence << ShardMap.SLOT_BITS
+            | slot;
+    }
+
+    /**
+     * Moves the id clock past an id already stored, so ids made after a restart
+     * sort after it even if the system clock is now behind
+     * @param id largest id found in the database
+     */
+    public synchronized void seed(long id) {
+        long ms = timeOf(id);
+        long now = clock.getAsLong() - EPOCH_MS;
+        if (ms > lastMs) {
+            lastMs = ms;
+            sequence = MAX_SEQUENCE;   // the next id moves on to the following millisecond
+            if (ms > now) {
+                AccessLog.event("ids", "Newest stored id is " + (ms - now)
+                    + " ms ahead of the system clock; ids continue from it");
+            }
+        }
+    }
+
+    /**
+     * @param id task id
+     * @return milliseconds since EPOCH_MS at which the id was made
+     */
+    public static long timeOf(long id) {
+        return id >>> TIME_SHIFT;
+    }
+
+    /**
+     * @return node id this generator was created with
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * @return one-line summary: ids made, clock steps back seen and milliseconds taken early
+     */
+    public String getStats() {
+        return String.format("Task ids (node %d): %d generated, %d clock steps back, %d ms taken early",
+            node, generated.sum(), clockSteps.sum(), borrowedMs.sum());
+    }
+}
@@ -0,0 +1,352 @@
+package com.example;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Next Tasks Index
+ *
+ * Keeps the id of every live task in memory, per tenant, in the order GET
+ * /tasks/next hands them out: by priority (High, Medium, Low, then any other
+ * priority) and then by age, oldest first. Ids are made in creation order (see
+ * TaskIds), so age order is id order. Each tenant's entries sit in a skip list
+ * with an index from id to entry, so a change costs O(log n) and the first k
+ * entries are read in O(k) without locking.
+ *
+ * The write handlers report every change. A full scan at startup, repeated every
+ * taskserver.next.rebuildMs, picks up changes made elsewhere (other servers, the
+ * archiver, plain SQL); entries whose task turns out to be gone when read are
+ * dropped right away.
+ */
+public class TaskQueue {
+
+    // Known priorities, most important first; any other priority ranks after them
+    private static final List<String> RANKED = List.of("High", "Medium", "Low");
+
+    private volatile Map<String, TenantQueue> tenants = new ConcurrentHashMap<>();
+    // Changes are applied under the read lock; a rebuild installs its index under the write lock
+    private final ReentrantReadWriteLock swap = new ReentrantReadWriteLock();
+    // Changes reported while a rebuild scans, replayed onto its index; null when none runs
+    private Queue<Change> journal;
+    private volatile Instant builtAt;
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Position of a task in its tenant's order
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final int rank;
+        final long id;
+
+        Entry(int rank, long id) {
+            this.rank = rank;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byRank = Integer.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * Entries of one tenant. Changes are serialized per tenant; readers walk the
+     * skip list without locking.
+     */
+    private static final class TenantQueue {
+        final ConcurrentSkipListSet<Entry> order = new ConcurrentSkipListSet<>();
+        private final Map<Long, Entry> byId = new HashMap<>();
+
+        synchronized void put(long id, int rank) {
+            Entry old = byId.get(id);
+            if (old != null && old.rank == rank) {
+                return;
+            }
+            Entry entry = new Entry(rank, id);
+            byId.put(id, entry);
+            // Add before removing, so a reader walking the list never misses the task
+            order.add(entry);
+            if (old != null) {
+                order.remove(old);
+            }
+        }
+
+        synchronized boolean remove(long id) {
+            Entry old = byId.remove(id);
+            return old != null && order.remove(old);
+        }
+
+        synchronized int size() {
+            return byId.size();
+        }
+    }
+
+    /**
+     * A reported change: the task's new rank, or removal
+     */
+    private static final class Change {
+        final String tenantId;
+        final long id;
+        final int rank;   // -1 removes the task
+
+        Change(String tenantId, long id, int rank) {
+            this.tenantId = tenantId;
+            this.id = id;
+            this.rank = rank;
+        }
+
+        boolean applyTo(Map<String, TenantQueue> index) {
+            if (rank >= 0) {
+                tenant(index, tenantId).put(id, rank);
+                return true;
+            }
+            TenantQueue queue = index.get(tenantId);
+            return queue != null && queue.remove(id);
+        }
+    }
+
+    /**
+     * Source of every live task for a rebuild, e.g. TaskDAO::forEachTask
+     */
+    @FunctionalInterface
+    public interface TaskSource {
+        void forEachTask(TaskDAO.TaskVisitor visitor) throws SQLException;
+    }
+
+    /**
+     * Ids of tasks written in bulk, held until the write has committed. Each rank
+     * keeps its ids in one growing long[], so a large import costs 8 bytes a task.
+     * Not thread-safe.
+     */
+    public static final class Batch {
+        private final long[][] ids = new long[RANKED.size() + 1][16];
+        private final int[] counts = new int[RANKED.size() + 1];
+
+        /**
+         * @param id task id
+         * @param priority priority of the task
+         */
+        public void add(long id, String priority) {
+            int rank = rank(priority);
+            if (counts[rank] == ids[rank].length) {
+                ids[rank] = Arrays.copyOf(ids[rank], counts[rank] * 2);
+            }
+            ids[rank][counts[rank]++] = id;
+        }
+    }
+
+    /**
+     * Rebuilds the index now and then every intervalMs on a daemon thread
+     * @param dao source of the tasks
+     * @param intervalMs delay between the end of one rebuild and the start of the next
+     */
+    public void start(TaskDAO dao, long intervalMs) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-queue");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild(dao::forEachTask);
+            } catch (SQLException e) {
+                AccessLog.event("next", "Rebuilding the next-tasks index failed: " + e.getMessage());
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the index with one built from a single streaming scan of every shard.
+     * Changes reported while the scan runs are replayed onto the new index before it
+     * is installed, so none is lost; reads keep using the old index until then.
+     * @param source streams every live task
+     * @throws SQLException if a shard cannot be read; the old index stays in use
+     */
+    public void rebuild(TaskSource source) throws SQLException {
+        swap.writeLock().lock();
+        try {
+            journal = new ConcurrentLinkedQueue<>();
+        } finally {
+            swap.writeLock().unlock();
+        }
+        Map<String, TenantQueue> fresh = new ConcurrentHashMap<>();
+        boolean scanned = false;
+        try {
+            source.forEachTask((tenantId, id, priority) -> tenant(fresh, tenantId).put(id, rank(priority)));
+            scanned = true;
+        } finally {
+            swap.writeLock().lock();
+            try {
+                if (scanned) {
+                    for (Change change : journal) {
+                        change.applyTo(fresh);
+                    }
+                    tenants = fresh;
+                }
+                journal = null;
+            } finally {
+                swap.writeLock().unlock();
+            }
+        }
+        rebuilds.increment();
+        builtAt = Instant.now();
+    }
+
+    /**
+     * Records a new or changed task
+     * @param tenantId tenant of the task
+     * @param id task id
+     * @param priority priority of the task
+     */
+    public void put(String tenantId, String id, String priority) {
+        put(tenantId, Long.parseLong(id), priority);
+    }
+
+    /**
+     * Records a new or changed task
+     * @param tenantId tenant of the task
+     * @param id task id
+     * @param priority priority of the task
+     */
+    public void put(String tenantId, long id, String priority) {
+        change(new Change(tenantId, id, rank(priority)));
+    }
+
+    /**
+     * Records the tasks of a bulk write once it has committed
+     * @param tenantId tenant of the tasks
+     * @param batch ids and priorities of the new tasks
+     */
+    public void putAll(String tenantId, Batch batch) {
+        for (int rank = 0; rank < batch.counts.length; rank++) {
+            for (int i = 0; i < batch.counts[rank]; i++) {
+                change(new Change(tenantId, batch.ids[rank][i], rank));
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted task
+     * @param tenantId tenant of the task
+     * @param id task id
+     */
+    public void remove(String tenantId, String id) {
+        change(new Change(tenantId, Long.parseLong(id), -1));
+    }
+
+    /**
+     * Forgets a task found to be gone when it was read, e.g. archived or deleted by
+     * another server
+     * @param tenantId tenant of the task
+     * @param id task id
+     */
+    public void drop(String tenantId, long id) {
+        if (change(new Change(tenantId, id, -1))) {
+            dropped.increment();
+        }
+    }
+
+    private boolean change(Change change) {
+        swap.readLock().lock();
+        try {
+            if (journal != null) {
+                journal.add(change);
+            }
+            return change.applyTo(tenants);
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks a tenant's task ids, most important first. The walk is weakly
+     * consistent: it may or may not see changes made while it runs.
+     * @param tenantId tenant whose tasks are listed
+     * @return ids in order, each at most once
+     */
+    public Iterator<Long> ranked(String tenantId) {
+        TenantQueue queue = tenants.get(tenantId);
+        if (queue == null) {
+            return Collections.emptyIterator();
+        }
+        Iterator<Entry> entries = queue.order.iterator();
+        return new Iterator<Long>() {
+            // A task whose priority changes during the walk can come up twice
+            private final Set<Long> seen = new HashSet<>();
+            private Long next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    long id = entries.next().id;
+                    if (seen.add(id)) {
+                        next = id;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Long id = next;
+                next = null;
+                return id;
+            }
+        };
+    }
+
+    /**
+     * @return time the index was last rebuilt, or null until the first rebuild has finished
+     */
+    public Instant getBuiltAt() {
+        return builtAt;
+    }
+
+    /**
+     * @param priority task priority; null counts as Medium
+     * @return place of the priority in the order, 0 for the most important
+     */
+    static int rank(String priority) {
+        int rank = RANKED.indexOf(priority != null ? priority : "Medium");
+        return rank >= 0 ? rank : RANKED.size();
+    }
+
+    private static TenantQueue tenant(Map<String, TenantQueue> index, String tenantId) {
+        return index.computeIfAbsent(tenantId, k -> new TenantQueue());
+    }
+
+    /**
+     * @return one-line summary: tasks indexed, rebuilds and entries found stale when read
+     */
+    public String getStats() {
+        long size = 0;
+        for (TenantQueue queue : tenants.values()) {
+            size += queue.size();
+        }
+        return String.format("Next-tasks index: %d tasks, %d rebuilds, %d stale entries dropped",
+            size, rebuilds.sum(), dropped.sum());
+    }
+}
@@ -4,74 +4,467 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class TaskServer {
 
-    private static final int PORT = 8000;
     private static final String BASE = "/tasks";
     
+    private static final long STARTUP_RETRY_MS = 5000;
+    // Largest page GET /tasks?limit=... returns
+    private static final int MAX_PAGE_SIZE = 1000;
+    // Export and import stream for as long as the data takes, not the usual request deadline
+    private static final long BULK_DEADLINE_MS = 24 * 60 * 60 * 1000L;
+    // Response bytes an export holds back, so a failure early on can still be answered with an error status
+    private static final int EXPORT_BUFFER = 64 * 1024;
+    // Longest NDJSON line or CSV field an import accepts, in characters
+    private static final int MAX_IMPORT_LINE = 1024 * 1024;
+    // Invalid rows an import reports one by one; the rest are only counted
+    private static final int MAX_IMPORT_ERRORS = 100;
+    
     private static TaskDAO taskDAO;
+    // Runs the handlers' database calls off the HTTP threads
+    private static AsyncTaskDAO asyncDAO;
+    // What a handler returns when it has answered without the database (bad input, 405)
+    private static final CompletableFuture<Void> ANSWERED = CompletableFuture.completedFuture(null);
+    private static volatile boolean ready;
+    private static volatile String startupError;
+    // Created from ServerConfig in main; reconfigured in place when the config file changes
+    private static ResponseCompressor compressor;
+    // Per-client budgets: a full list scan costs far more than an id lookup or a single write
+    private static RateLimiter listLimiter;
+    private static RateLimiter itemLimiter;
+    // Handler threads for the NIO engine (null with the JDK engine)
+    private static ThreadPoolExecutor workers;
+    // Creates partitions ahead and moves old tasks to the archive once the server is ready
+    private static TaskArchiver archiver;
+    // Fires task reminders from memory; kept current by the write handlers
+    private static ReminderScheduler reminders;
+    // API keys per tenant, and each tenant's fair share of the request handlers
+    private static final Tenants tenants = new Tenants();
+    private static TenantBudget handlerBudget;
+    // Task counts and recent writes per tenant for GET /tasks/stats, kept current by the write handlers
+    private static final TaskStats stats = new TaskStats();
+    // Every live task's id in GET /tasks/next order, kept current by the write handlers
+    private static final TaskQueue next = new TaskQueue();
+    // Lets identical concurrent reads share one query and one rendered response
+    private static final SingleFlight<Rendered> reads = new SingleFlight<>("reads",
+        e -> e instanceof SQLException && RequestContext.isCancellation((SQLException) e));
 
     public static void main(String[] args) throws Exception {
-        // Initialize database connection and schema
+        ServerConfig config;
+        try {
+            config = ServerConfig.load();
+        } catch (IllegalStateException | UncheckedIOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        config.print();
+        compressor = new ResponseCompressor(config.getInt("taskserver.compression.minSize"),
+            config.getInt("taskserver.compression.level"));
+        listLimiter = new RateLimiter("list", config.getDouble("taskserver.rateLimit.list.perSecond"),
+            config.getInt("taskserver.rateLimit.list.burst"));
+        itemLimiter = new RateLimiter("item", config.getDouble("taskserver.rateLimit.item.perSecond"),
+            config.getInt("taskserver.rateLimit.item.burst"));
+        tenants.configure(config.getString("taskserver.tenants"));
+        handlerBudget = new TenantBudget("handler threads", config.getInt("taskserver.workerThreads"),
+            config.getDouble("taskserver.tenant.maxShare"));
+        int port = config.getInt("taskserver.port");
         try {
-            DatabaseConfig.printConfig();
-            taskDAO = new TaskDAO();
-            taskDAO.initializeSchema();
-            
-            // Test database connection
-            if (!DatabaseConnection.getInstance().testConnection()) {
-                System.err.println("WARNING: Database connection test failed!");
+            AccessLog.start(config);
+        } catch (IOException e) {
+            System.err.println("ERROR: cannot open access log: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        
+        // Bind the port first; the pool and schema are prepared in the background
+        // and /health/ready reports when the server can take traffic
+        DatabaseConfig.printConfig();
+        taskDAO = new TaskDAO();
+        asyncDAO = new AsyncTaskDAO(taskDAO, config.getInt("taskserver.db.executor.queueSize"));
+        archiver = new TaskArchiver(DatabaseConnection.getShards());
+        reminders = new ReminderScheduler(taskDAO, config.getLong("taskserver.reminders.tickMs"),
+            task -> mapToJsonObject(task.get("id"), task));
+        
+        HttpRoutes routes = new HttpRoutes()
+            .add(BASE, AccessLog.wrap(new TasksHandler()))
+            .add(BASE + "/", AccessLog.wrap(new TaskItemHandler()))
+            .add(BASE + "/stats", AccessLog.wrap(new StatsHandler()))
+            .add(BASE + "/next", AccessLog.wrap(new NextHandler()))
+            .add(BASE + "/export", AccessLog.wrap(new BulkHandler()))
+            .add(BASE + "/import", AccessLog.wrap(new BulkHandler()))
+            // Probes are frequent and uninteresting, so health checks are not logged
+            .add("/health/", new HealthHandler());
+        
+        String engine = config.getString("taskserver.engine");
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
             }
-        } catch (SQLException e) {
-            System.err.println("ERROR: Failed to initialize database: " + e.getMessage());
-            System.err.println("Please check your PostgreSQL configuration in DatabaseConfig.java");
-            System.err.println("Make sure PostgreSQL is running and the database exists.");
-            throw e;
         }
+        if ("nio".equalsIgnoreCase(engine)) {
+            int loops = Runtime.getRuntime().availableProcessors();
+            // Handlers block on JDBC, so size the worker pool above the connection pool
+            int threads = config.getInt("taskserver.workerThreads");
+            workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+            NioHttpServer nio = new NioHttpServer(new InetSocketAddress(port), routes, workers, loops);
+            nio.start();
+            System.out.println("Server listening at http://localhost:" + port + BASE + " (nio engine, " + loops + " event loops)");
+        } else {
+            HttpServer srv = HttpServer.create(new InetSocketAddress(port), 0);
+            routes.registerOn(srv);
+            srv.setExecutor(null);
+            System.out.println("Server listening at http://localhost:" + port + BASE);
+            srv.start();
+        }
+        
+        System.out.println("HTTP port bound " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start");
         
-        HttpServer srv = HttpServer.create(new InetSocketAddress(PORT), 0);
-        srv.createContext(BASE, new TasksHandler());
-        srv.createContext(BASE + "/", new TaskItemHandler());
-        srv.setExecutor(null);
-        System.out.println("Server listening at http://localhost:" + PORT + BASE);
-        srv.start();
+        listLimiter.startEviction(60);
+        itemLimiter.startEviction(60);
+        
+        ServerConfig.onReload(TaskServer::applyConfig);
+        ServerConfig.startWatching();
+        
+        Thread warmUp = new Thread(TaskServer::warmUp, "startup-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
         
         // Add shutdown hook to close database connections
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down... Closing database connections...");
+            System.out.println(compressor.getStats());
+            System.out.println("Rate limited: " + listLimiter.getRejectedCount() + " list, " + itemLimiter.getRejectedCount() + " item requests");
+            System.out.println("Request timeouts by route: " + RequestContext.getTimeoutCounts());
+            System.out.println("Database round trips per request: " + RequestContext.getRoundTripsPerRequest());
+            System.out.println(archiver.getStats());
+            System.out.println(reminders.getStats());
+            System.out.println(stats.getStats());
+            System.out.println(reads.getStats());
+            System.out.println(next.getStats());
+            System.out.println(taskDAO.getIds().getStats());
+            System.out.println(handlerBudget.getStats());
+            taskDAO.getConnectionBudgets().forEach(budget -> System.out.println(budget.getStats()));
+            System.out.println(asyncDAO.getStats());
+            List<ReplicaRouter> routers = taskDAO.getRouters();
+            for (int i = 0; i < routers.size(); i++) {
+                if (routers.get(i).getReplicaCount() > 0) {
+                    System.out.println((routers.size() > 1 ? "Shard " + i + " " : "") + routers.get(i).getStats());
+                }
+            }
             try {
-                DatabaseConnection.getInstance().closeAll();
+                for (int shard = 0; shard < DatabaseConnection.getShards().size(); shard++) {
+                    DatabaseConnection.getShards().get(shard).closeAll();
+                    for (DatabaseConnection replica : DatabaseConnection.getReplicas(shard)) {
+                        replica.closeAll();
+                    }
+                }
             } catch (SQLException e) {
                 System.err.println("Error closing database connections: " + e.getMessage());
             }
+            AccessLog.stop();
+            System.out.println(AccessLog.getStats());
         }));
     }
 
+    /**
+     * Applies reloaded settings to the live components. Each change only affects
+     * work that starts afterwards, so in-flight requests are not disturbed.
+     */
+    private static void applyConfig(ServerConfig config) {
+        compressor.configure(config.getInt("taskserver.compression.minSize"), config.getInt("taskserver.compression.level"));
+        listLimiter.setRate(config.getDouble("taskserver.rateLimit.list.perSecond"), config.getInt("taskserver.rateLimit.list.burst"));
+        itemLimiter.setRate(config.getDouble("taskserver.rateLimit.item.perSecond"), config.getInt("taskserver.rateLimit.item.burst"));
+        if (workers != null) {
+            int threads = config.getInt("taskserver.workerThreads");
+            // Keep core <= max at every step; surplus threads exit once their current request is done
+            if (threads > workers.getMaximumPoolSize()) {
+                workers.setMaximumPoolSize(threads);
+                workers.setCorePoolSize(threads);
+            } else {
+                workers.setCorePoolSize(threads);
+                workers.setMaximumPoolSize(threads);
+            }
+        }
+        tenants.configure(config.getString("taskserver.tenants"));
+        handlerBudget.configure(config.getInt("taskserver.workerThreads"), config.getDouble("taskserver.tenant.maxShare"));
+        taskDAO.reconfigureBudget(config.getDouble("taskserver.tenant.maxShare"));
+        asyncDAO.resize();
+        for (ReplicaRouter router : taskDAO.getRouters()) {
+            router.setReadYourWritesMillis(config.getLong("taskserver.db.readYourWritesMs"));
+        }
+        if (ready) {
+            try {
+                for (DatabaseConnection db : DatabaseConnection.getShards()) {
+                    db.resize();
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to resize connection pools: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the pool and applies migrations concurrently, then marks the server ready.
+     * Retries until the database is reachable.
+     */
+    private static void warmUp() {
+        while (true) {
+            try {
+                List<CompletableFuture<Void>> pools = new ArrayList<>();
+                for (DatabaseConnection db : DatabaseConnection.getShards()) {
+                    pools.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            db.warmUp();
+                        } catch (SQLException e) {
+                            throw new CompletionException(e);
+                        }
+                    }));
+                }
+                CompletableFuture<Void> pool = CompletableFuture.allOf(pools.toArray(new CompletableFuture<?>[0]));
+                taskDAO.initializeSchema();
+                pool.join();
+                warmUpReplicas();
+                startupError = null;
+                ready = true;
+                System.out.println("Ready to serve requests " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start");
+                archiver.start(ServerConfig.current().getLong("taskserver.archive.intervalMs"));
+                reminders.start();
+                stats.start(taskDAO, ServerConfig.current().getLong("taskserver.stats.reconcileMs"));
+                next.start(taskDAO, ServerConfig.current().getLong("taskserver.next.rebuildMs"));
+                return;
+            } catch (SQLException | CompletionException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                startupError = cause.getMessage();
+                System.err.println("ERROR: Failed to initialize database: " + cause.getMessage());
+                System.err.println("Please check your PostgreSQL configuration in DatabaseConfig.java");
+                System.err.println("Make sure PostgreSQL is running and the database exists. Retrying in " + (STARTUP_RETRY_MS / 1000) + " seconds...");
+            }
+            try {
+                Thread.sleep(STARTUP_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens replica pools. An unreachable replica does not hold up readiness:
+     * the router skips it and serves its reads from the primary.
+     */
+    private static void warmUpReplicas() throws SQLException {
+        for (int shard = 0; shard < DatabaseConnection.getShards().size(); shard++) {
+            for (DatabaseConnection replica : DatabaseConnection.getReplicas(shard)) {
+                try {
+                    replica.warmUp();
+                } catch (SQLException e) {
+                    System.err.println("WARNING: Read replica " + replica.getName() + " unavailable: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return deadline for a request's database work; clients may ask for less (or more, up to the cap)
+     */
+    private static long requestTimeoutMs() {
+        return ServerConfig.current().getLong("taskserver.requestTimeoutMs");
+    }
+
+    private static long maxRequestTimeoutMs() {
+        return ServerConfig.current().getLong("taskserver.maxRequestTimeoutMs");
+    }
+
+    /**
+     * Rejects task requests until warm-up has finished
+     * @return true if the request was answered with 503
+     */
+    private static boolean rejectIfNotReady(HttpExchange ex) throws IOException {
+        if (ready) {
+            return false;
+        }
+        ex.getResponseHeaders().set("Retry-After", "1");
+        sendResponse(ex, 503, "{\"error\":\"Server is starting\"}");
+        return true;
+    }
+
+    /**
+     * Identifies the caller for rate limiting: the tenant if the API key is a known
+     * one, otherwise the client address. An unknown key must not earn its own budget,
+     * or a client could dodge its limit by sending a new key with every request.
+     */
+    private static String clientKey(HttpExchange ex) {
+        String apiKey = ex.getRequestHeaders().getFirst("X-API-Key");
+        if (apiKey != null && !apiKey.isEmpty() && tenants.isMultiTenant()) {
+            String tenant = tenants.resolve(apiKey);
+            if (tenant != null) {
+                return "tenant:" + tenant;
+            }
+        }
+        InetSocketAddress remote = ex.getRemoteAddress();
+        return "ip:" + (remote == null ? "unknown" : remote.getAddress().getHostAddress());
+    }
+
+    /**
+     * Finds the tenant a request acts for from its X-API-Key
+     * @return tenant id, or null if the key is missing or unknown and the request was answered with 401
+     */
+    private static String authenticate(HttpExchange ex) throws IOException {
+        String tenant = tenants.resolve(ex.getRequestHeaders().getFirst("X-API-Key"));
+        if (tenant == null) {
+            sendResponse(ex, 401, "{\"error\":\"Missing or unknown API key\"}");
+        }
+        return tenant;
+    }
+
+    /**
+     * Takes one of the tenant's share of the request handlers for the duration of the request
+     * @return the permit to close when done, or null if the tenant is using its full
+     *         share and the request was answered with 429
+     */
+    private static TenantBudget.Permit acquireHandlerShare(HttpExchange ex, String tenant) throws IOException {
+        TenantBudget.Permit permit = handlerBudget.tryAcquire(tenant);
+        if (permit == null) {
+            ex.getResponseHeaders().set("Retry-After", "1");
+            sendResponse(ex, 429, "{\"error\":\"Too many concurrent requests for this tenant\"}");
+        }
+        return permit;
+    }
+
+    /**
+     * Charges the request to the caller's budget
+     * @return true if the caller is over its limit and was answered with 429
+     */
+    private static boolean rejectIfRateLimited(HttpExchange ex, RateLimiter limiter) throws IOException {
+        long waitNanos = limiter.tryAcquire(clientKey(ex));
+        if (waitNanos == 0) {
+            return false;
+        }
+        long retryAfter = Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+        ex.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+        sendResponse(ex, 429, "{\"error\":\"Too many requests\"}");
+        return true;
+    }
+
+    static class HealthHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            String path = ex.getRequestURI().getPath();
+            if (path.equals("/health/live")) {
+                sendResponse(ex, 200, "{\"status\":\"live\"}");
+            } else if (path.equals("/health/ready")) {
+                if (ready) {
+                    sendResponse(ex, 200, "{\"status\":\"ready\"}");
+                } else if (startupError != null) {
+                    sendResponse(ex, 503, "{\"status\":\"starting\",\"error\":\"" + escape(startupError) + "\"}");
+                } else {
+                    sendResponse(ex, 503, "{\"status\":\"starting\"}");
+                }
+            } else {
+                sendResponse(ex, 404, "{\"error\":\"Not found\"}");
+            }
+        }
+    }
+
     static class TasksHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange ex) throws IOException {
+            if (rejectIfNotReady(ex)) return;
             try {
                 String method = ex.getRequestMethod();
-                if ("GET".equalsIgnoreCase(method)) {
-                    handleGetAll(ex);
-                } else if ("POST".equalsIgnoreCase(method)) {
-                    handleCreate(ex);
-                } else {
-                    sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                boolean list = "GET".equalsIgnoreCase(method);
+                if (rejectIfRateLimited(ex, list ? listLimiter : itemLimiter)) return;
+                String tenant = authenticate(ex);
+                if (tenant == null) return;
+                TenantBudget.Permit permit = acquireHandlerShare(ex, tenant);
+                if (permit == null) return;
+                RequestContext ctx = RequestContext.begin(ex, method.toUpperCase() + " " + BASE, clientKey(ex), requestTimeoutMs(), maxRequestTimeoutMs());
+                CompletableFuture<Void> response;
+                try {
+                    if (list) {
+                        response = handleGetAll(ex, tenant);
+                    } else if ("POST".equalsIgnoreCase(method)) {
+                        response = handleCreate(ex, tenant);
+                    } else {
+                        sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                        response = ANSWERED;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    response = CompletableFuture.failedFuture(e);
                 }
+                finishAsync(ex, response, permit, ctx);
             } catch (Exception e) {
                 sendResponse(ex, 500, "{\"error\":\"" + e.getMessage() + "\"}");
             }
         }
 
-        private void handleGetAll(HttpExchange ex) throws IOException {
+        private CompletableFuture<Void> handleGetAll(HttpExchange ex, String tenant) throws IOException {
+            Map<String, String> query = parseQuery(ex.getRequestURI().getRawQuery());
+            // ?fields=id,title,priority leaves out the (possibly large) description
+            Set<String> fields = null;
+            if (query.containsKey("fields")) {
+                fields = new HashSet<>();
+                for (String field : query.get("fields").split(",")) {
+                    if (!field.trim().isEmpty()) fields.add(field.trim());
+                }
+            }
+            boolean paged = query.containsKey("limit") || query.containsKey("after");
+            // The binary format has no due_at, remind_at or version: lists with them stay JSON
+            boolean binary = TaskBinaryCodec.isAccepted(ex.getRequestHeaders().getFirst("Accept"))
+                && TaskBinaryCodec.carries(fields);
+            int limit;
+            long after;
+            boolean archived;
             try {
-                List<Map<String, String>> tasks = taskDAO.getAllTasks();
+                // Keyset pagination: pass the last id of a page as "after" to get the next one
+                limit = paged ? Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(query.getOrDefault("limit", String.valueOf(MAX_PAGE_SIZE))))) : 0;
+                after = paged ? Long.parseLong(query.getOrDefault("after", "0")) : 0;
+                archived = includeArchived(query);
+            } catch (NumberFormatException e) {
+                sendResponse(ex, 400, "{\"error\":\"Invalid limit or after parameter\"}");
+                return ANSWERED;
+            } catch (IllegalArgumentException e) {
+                sendResponse(ex, 400, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                return ANSWERED;
+            }
+            Set<String> selected = fields;
+            // Everything the rendered response depends on
+            String key = "list " + (binary ? "binary " : "json ") + (fields == null ? "*" : new TreeSet<>(fields))
+                + (archived ? " archived" : "") + (paged ? " after=" + after + " limit=" + limit : "");
+            RequestContext ctx = RequestContext.current();
+            return respond(ex, reads.run(tenant, key, () -> under(ctx, () -> (paged
+                    ? asyncDAO.getTasksPage(tenant, after, limit, selected, archived)
+                    : asyncDAO.getAllTasks(tenant, selected, archived)).thenApply(tasks -> {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Vary", "Accept, Accept-Encoding");
+                if (paged && tasks.size() == limit) {
+                    headers.put("X-Next-After", tasks.get(tasks.size() - 1).get("id"));
+                }
+                if (binary) {
+                    return new Rendered(200, TaskBinaryCodec.MEDIA_TYPE, TaskBinaryCodec.encode(tasks), headers);
+                }
                 StringBuilder sb = new StringBuilder();
                 sb.append("[");
                 boolean first = true;
@@ -81,37 +474,47 @@ public class TaskServer {
                     sb.append(mapToJsonObject(task.get("id"), task));
                 }
                 sb.append("]");
-                sendResponse(ex, 200, sb.toString());
-            } catch (SQLException e) {
-                sendResponse(ex, 500, "{\"error\":\"Database error: " + e.getMessage() + "\"}");
-            }
+                return Rendered.json(200, sb.toString(), headers);
+            }))), rendered -> sendRendered(ex, rendered));
         }
 
-        private void handleCreate(HttpExchange ex) throws IOException {
+        private CompletableFuture<Void> handleCreate(HttpExchange ex, String tenant) throws IOException {
+            CompletableFuture<Map<String, String>> result;
             try {
                 String body = readBody(ex);
                 Map<String,String> m = parseJsonToMap(body);
-                String title = m.getOrDefault("title", "").trim();
+                String title = Objects.requireNonNullElse(m.get("title"), "").trim();
                 if (title.isEmpty()) {
                     sendResponse(ex, 400, "{\"error\":\"Title is required\"}");
-                    return;
+                    return ANSWERED;
                 }
-                String description = m.getOrDefault("description", "");
-                String priority = m.getOrDefault("priority", "Medium");
+                String description = Objects.requireNonNullElse(m.get("description"), "");
+                String priority = Objects.requireNonNullElse(m.get("priority"), "Medium");
+                normalizeTimes(m);
                 
-                Map<String, String> created = taskDAO.createTask(title, description, priority);
+                result = asyncDAO.createTask(tenant, title, description, priority, m.get("due_at"), m.get("remind_at"));
+            } catch (IllegalArgumentException e) {
+                sendResponse(ex, 400, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                return ANSWERED;
+            }
+            return respond(ex, result, created -> {
+                reminders.schedule(created.get("id"), created.get("remind_at"));
+                reads.invalidate(tenant);
+                stats.created(tenant, created.get("priority"));
+                next.put(tenant, created.get("id"), created.get("priority"));
                 String out = mapToJsonObject(created.get("id"), created);
+                setETag(ex, created);
                 sendResponse(ex, 201, out);
-            } catch (SQLException e) {
-                sendResponse(ex, 500, "{\"error\":\"Database error: " + e.getMessage() + "\"}");
-            }
+            });
         }
     }
 
     static class TaskItemHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange ex) throws IOException {
+            if (rejectIfNotReady(ex)) return;
             try {
+                if (rejectIfRateLimited(ex, itemLimiter)) return;
                 String method = ex.getRequestMethod();
                 String path = ex.getRequestURI().getPath();
                 String id = path.substring(path.lastIndexOf('/') + 1);
@@ -119,84 +522,1106 @@ public class TaskServer {
                     sendResponse(ex, 404, "{\"error\":\"Not found\"}");
                     return;
                 }
-                if ("GET".equalsIgnoreCase(method)) {
-                    handleGet(ex, id);
-                } else if ("PUT".equalsIgnoreCase(method)) {
-                    handlePut(ex, id);
-                } else if ("DELETE".equalsIgnoreCase(method)) {
-                    handleDelete(ex, id);
-                } else {
-                    sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                String tenant = authenticate(ex);
+                if (tenant == null) return;
+                try {
+                    Long.parseLong(id);
+                } catch (NumberFormatException e) {
+                    sendResponse(ex, 400, "{\"error\":\"Invalid task ID\"}");
+                    return;
+                }
+                TenantBudget.Permit permit = acquireHandlerShare(ex, tenant);
+                if (permit == null) return;
+                RequestContext ctx = RequestContext.begin(ex, method.toUpperCase() + " " + BASE + "/{id}", clientKey(ex), requestTimeoutMs(), maxRequestTimeoutMs());
+                CompletableFuture<Void> response;
+                try {
+                    if ("GET".equalsIgnoreCase(method)) {
+                        response = handleGet(ex, tenant, id);
+                    } else if ("PUT".equalsIgnoreCase(method)) {
+                        response = handlePut(ex, tenant, id);
+                    } else if ("PATCH".equalsIgnoreCase(method)) {
+                        response = handlePatch(ex, tenant, id);
+                    } else if ("DELETE".equalsIgnoreCase(method)) {
+                        response = handleDelete(ex, tenant, id);
+                    } else {
+                        sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                        response = ANSWERED;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    response = CompletableFuture.failedFuture(e);
                 }
+                finishAsync(ex, response, permit, ctx);
             } catch (Exception e) {
                 sendResponse(ex, 500, "{\"error\":\"" + e.getMessage() + "\"}");
             }
         }
 
-        private void handleGet(HttpExchange ex, String id) throws IOException {
+        private CompletableFuture<Void> handleGet(HttpExchange ex, String tenant, String id) throws IOException {
+            boolean archived;
             try {
-                Map<String, String> rec = taskDAO.getTaskById(id);
-                if (rec == null) {
-                    sendResponse(ex, 404, "{\"error\":\"Not found\"}");
-                    return;
-                }
-                sendResponse(ex, 200, mapToJsonObject(id, rec));
-            } catch (SQLException e) {
-                sendResponse(ex, 500, "{\"error\":\"Database error: " + e.getMessage() + "\"}");
-            } catch (NumberFormatException e) {
-                sendResponse(ex, 400, "{\"error\":\"Invalid task ID\"}");
+                archived = includeArchived(parseQuery(ex.getRequestURI().getRawQuery()));
+            } catch (IllegalArgumentException e) {
+                sendResponse(ex, 400, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                return ANSWERED;
             }
+            RequestContext ctx = RequestContext.current();
+            String key = "get " + Long.parseLong(id) + (archived ? " archived" : "");
+            return respond(ex, reads.run(tenant, key, () -> under(ctx, () -> asyncDAO.getTaskById(tenant, id, archived)
+                .thenApply(rec -> {
+                    if (rec == null) {
+                        return Rendered.json(404, "{\"error\":\"Not found\"}", Map.of());
+                    }
+                    Map<String, String> headers = new HashMap<>();
+                    if (rec.get("version") != null) {
+                        headers.put("ETag", "\"" + rec.get("version") + "\"");
+                    }
+                    return Rendered.json(200, mapToJsonObject(id, rec), headers);
+                }))), rendered -> sendRendered(ex, rendered));
         }
 
-        private void handlePut(HttpExchange ex, String id) throws IOException {
+        /**
+         * Replaces a task with one UPDATE statement. With If-Match the update only
+         * applies if the task is still at that version; otherwise 412 is returned
+         * together with the current ETag.
+         */
+        private CompletableFuture<Void> handlePut(HttpExchange ex, String tenant, String id) throws IOException {
+            String ifMatch = ex.getRequestHeaders().getFirst("If-Match");
+            CompletableFuture<Map<String, String>> result;
             try {
-                Map<String, String> existing = taskDAO.getTaskById(id);
-                if (existing == null) {
-                    sendResponse(ex, 404, "{\"error\":\"Not found\"}");
-                    return;
-                }
-                
                 String body = readBody(ex);
                 Map<String,String> m = parseJsonToMap(body);
-                String title = m.getOrDefault("title", "").trim();
+                String title = Objects.requireNonNullElse(m.get("title"), "").trim();
                 if (title.isEmpty()) {
                     sendResponse(ex, 400, "{\"error\":\"Title is required\"}");
-                    return;
+                    return ANSWERED;
                 }
                 
-                String description = m.getOrDefault("description", "");
-                String priority = m.getOrDefault("priority", "Medium");
+                String description = Objects.requireNonNullElse(m.get("description"), "");
+                String priority = Objects.requireNonNullElse(m.get("priority"), "Medium");
+                normalizeTimes(m);
                 
-                Map<String, String> updated = taskDAO.updateTask(id, title, description, priority);
+                result = asyncDAO.updateTask(tenant, id, title, description, priority,
+                    m.get("due_at"), m.get("remind_at"), expectedVersion(ifMatch));
+            } catch (IllegalArgumentException e) {
+                sendResponse(ex, 400, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                return ANSWERED;
+            }
+            return respond(ex, result, updated -> {
                 if (updated == null) {
-                    sendResponse(ex, 404, "{\"error\":\"Not found\"}");
+                    // If-Match: * requires the task to exist
+                    sendResponse(ex, ifMatch != null ? 412 : 404, "{\"error\":\"Not found\"}");
                     return;
                 }
+                reminders.schedule(id, updated.get("remind_at"));
+                reads.invalidate(tenant);
+                stats.updated(tenant, updated.get("previous_priority"), updated.get("priority"));
+                next.put(tenant, id, updated.get("priority"));
+                setETag(ex, updated);
                 sendResponse(ex, 200, mapToJsonObject(id, updated));
-            } catch (SQLException e) {
-                sendResponse(ex, 500, "{\"error\":\"Database error: " + e.getMessage() + "\"}");
-            } catch (NumberFormatException e) {
-                sendResponse(ex, 400, "{\"error\":\"Invalid task ID\"}");
-            }
+            });
         }
 
-        private void handleDelete(HttpExchange ex, String id) throws IOException {
+        /**
+         * Applies a JSON merge patch: only the fields present in the body are written,
+         * a null description or priority resets it to its default and a null due_at
+         * or remind_at clears it. Honours If-Match like PUT.
+         */
+        private CompletableFuture<Void> handlePatch(HttpExchange ex, String tenant, String id) throws IOException {
+            String ifMatch = ex.getRequestHeaders().getFirst("If-Match");
+            Map<String,String> changes;
             try {
-                boolean deleted = taskDAO.deleteTask(id);
-                if (!deleted) {
+                changes = parseJsonToMap(readBody(ex));
+                changes.remove("id");
+                if (changes.containsKey("title")) {
+                    String title = Objects.requireNonNullElse(changes.get("title"), "").trim();
+                    if (title.isEmpty()) {
+                        sendResponse(ex, 400, "{\"error\":\"Title is required\"}");
+                        return ANSWERED;
+                    }
+                    changes.put("title", title);
+                }
+                changes.replace("description", null, "");
+                changes.replace("priority", null, "Medium");
+                normalizeTimes(changes);
+            } catch (IllegalArgumentException e) {
+                sendResponse(ex, 400, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+                return ANSWERED;
+            }
+
+            if (changes.isEmpty()) {
+                // Nothing to write: answer with the current task
+                return respond(ex, asyncDAO.getTaskById(tenant, id, false), current -> {
+                    Long expected = expectedVersion(ifMatch);
+                    if (current != null && expected != null && !expected.toString().equals(current.get("version"))) {
+                        throw new TaskDAO.VersionConflictException(current);
+                    }
+                    sendPatched(ex, id, ifMatch, current);
+                });
+            }
+            return respond(ex, asyncDAO.patchTask(tenant, id, changes, expectedVersion(ifMatch)), patched -> {
+                if (patched != null && changes.containsKey("remind_at")) {
+                    reminders.schedule(id, patched.get("remind_at"));
+                }
+                if (patched != null) {
+                    reads.invalidate(tenant);
+                    stats.updated(tenant, patched.get("previous_priority"), patched.get("priority"));
+                    next.put(tenant, id, patched.get("priority"));
+                }
+                sendPatched(ex, id, ifMatch, patched);
+            });
+        }
+
+        private void sendPatched(HttpExchange ex, String id, String ifMatch, Map<String, String> patched) throws IOException {
+            if (patched == null) {
+                sendResponse(ex, ifMatch != null ? 412 : 404, "{\"error\":\"Not found\"}");
+                return;
+            }
+            setETag(ex, patched);
+            sendResponse(ex, 200, mapToJsonObject(id, patched));
+        }
+
+        private CompletableFuture<Void> handleDelete(HttpExchange ex, String tenant, String id) {
+            return respond(ex, asyncDAO.deleteTask(tenant, id), deleted -> {
+                if (deleted == null) {
                     sendResponse(ex, 404, "{\"error\":\"Not found\"}");
                     return;
                 }
+                reminders.cancel(id);
+                reads.invalidate(tenant);
+                stats.deleted(tenant, deleted.get("priority"));
+                next.remove(tenant, id);
                 sendResponse(ex, 204, "");
-            } catch (SQLException e) {
-                sendResponse(ex, 500, "{\"error\":\"Database error: " + e.getMessage() + "\"}");
-            } catch (NumberFormatException e) {
-                sendResponse(ex, 400, "{\"error\":\"Invalid task ID\"}");
+            });
+        }
+    }
+
+    /**
+     * GET /tasks/stats answers from TaskStats without touching the database
+     */
+    static class StatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            if (rejectIfNotReady(ex)) return;
+            try {
+                if (rejectIfRateLimited(ex, itemLimiter)) return;
+                if (!ex.getRequestURI().getPath().equals(BASE + "/stats")) {
+                    sendResponse(ex, 404, "{\"error\":\"Not found\"}");
+                    return;
+                }
+                if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+                    sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                    return;
+                }
+                String tenant = authenticate(ex);
+                if (tenant == null) return;
+                Instant reconciledAt = stats.getReconciledAt();
+                if (reconciledAt == null) {
+                    // Until the first count the counters only hold writes since startup
+                    ex.getResponseHeaders().set("Retry-After", "1");
+                    sendResponse(ex, 503, "{\"error\":\"Task counts are being loaded\"}");
+                    return;
+                }
+                Map<String, Long> counts = stats.getCounts(tenant);
+                long total = 0;
+                StringBuilder sb = new StringBuilder();
+                sb.append("{\"byPriority\":{");
+                boolean first = true;
+                for (Map.Entry<String, Long> count : counts.entrySet()) {
+                    if (!first) sb.append(",");
+                    first = false;
+                    sb.append("\"").append(escape(count.getKey())).append("\":").append(count.getValue());
+                    total += count.getValue();
+                }
+                sb.append("}");
+                for (TaskStats.Activity kind : TaskStats.Activity.values()) {
+                    sb.append(",\"").append(kind.name().toLowerCase(Locale.ROOT)).append("\":{");
+                    for (int i = 0; i < TaskStats.WINDOW_MINUTES.length; i++) {
+                        int minutes = TaskStats.WINDOW_MINUTES[i];
+                        if (i > 0) sb.append(",");
+                        sb.append("\"").append(minutes).append("m\":").append(stats.getActivity(tenant, kind, minutes));
+                    }
+                    sb.append("}");
+                }
+                sb.append(",\"reconciledAt\":\"").append(reconciledAt.truncatedTo(ChronoUnit.MILLIS)).append("\"}");
+                sendResponse(ex, 200, "{\"total\":" + total + "," + sb.substring(1));
+            } catch (Exception e) {
+                sendResponse(ex, 500, "{\"error\":\"" + e.getMessage() + "\"}");
+            }
+        }
+    }
+
+    /**
+     * GET /tasks/next?k=N returns the tenant's N most important tasks, by priority
+     * and then oldest first. The order comes from TaskQueue; only those N tasks are
+     * read from the database.
+     */
+    static class NextHandler implements HttpHandler {
+        private static final int DEFAULT_K = 10;
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            if (rejectIfNotReady(ex)) return;
+            try {
+                if (rejectIfRateLimited(ex, itemLimiter)) return;
+                if (!ex.getRequestURI().getPath().equals(BASE + "/next")) {
+                    sendResponse(ex, 404, "{\"error\":\"Not found\"}");
+                    return;
+                }
+                if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+                    sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                    return;
+                }
+                int k;
+                try {
+                    k = Integer.parseInt(parseQuery(ex.getRequestURI().getRawQuery())
+                        .getOrDefault("k", String.valueOf(DEFAULT_K)));
+                } catch (NumberFormatException e) {
+                    k = 0;
+                }
+                if (k < 1 || k > MAX_PAGE_SIZE) {
+                    sendResponse(ex, 400, "{\"error\":\"k must be a number from 1 to " + MAX_PAGE_SIZE + "\"}");
+                    return;
+                }
+                String tenant = authenticate(ex);
+                if (tenant == null) return;
+                if (next.getBuiltAt() == null) {
+                    // Until the first scan the index only holds tasks written since startup
+                    ex.getResponseHeaders().set("Retry-After", "1");
+                    sendResponse(ex, 503, "{\"error\":\"Task order is being loaded\"}");
+                    return;
+                }
+                TenantBudget.Permit permit = acquireHandlerShare(ex, tenant);
+                if (permit == null) return;
+                RequestContext ctx = RequestContext.begin(ex, "GET " + BASE + "/next", clientKey(ex), requestTimeoutMs(), maxRequestTimeoutMs());
+                CompletableFuture<Void> response;
+                try {
+                    response = respond(ex, asyncDAO.getTasksInOrder(tenant, next.ranked(tenant), k,
+                            id -> next.drop(tenant, id)), tasks -> {
+                        StringBuilder sb = new StringBuilder();
+                        sb.append("[");
+                        boolean first = true;
+                        for (Map<String, String> task : tasks) {
+                            if (!first) sb.append(",");
+                            first = false;
+                            sb.append(mapToJsonObject(task.get("id"), task));
+                        }
+                        sb.append("]");
+                        sendResponse(ex, 200, sb.toString());
+                    });
+                } catch (RuntimeException e) {
+                    response = CompletableFuture.failedFuture(e);
+                }
+                finishAsync(ex, response, permit, ctx);
+            } catch (Exception e) {
+                sendResponse(ex, 500, "{\"error\":\"" + e.getMessage() + "\"}");
             }
         }
     }
 
+    /**
+     * GET /tasks/export streams all of the tenant's live tasks with COPY TO STDOUT;
+     * POST /tasks/import spools the request body to a temporary file and then streams
+     * it into COPY FROM STDIN. Neither holds more than a buffer of rows in memory.
+     */
+    static class BulkHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            if (rejectIfNotReady(ex)) return;
+            try {
+                // Both scan or write the tenant's whole task set, so they count as list requests
+                if (rejectIfRateLimited(ex, listLimiter)) return;
+                String path = ex.getRequestURI().getPath();
+                String method = ex.getRequestMethod();
+                boolean export = path.equals(BASE + "/export");
+                if (!export && !path.equals(BASE + "/import")) {
+                    sendResponse(ex, 404, "{\"error\":\"Not found\"}");
+                    return;
+                }
+                if (!method.equalsIgnoreCase(export ? "GET" : "POST")) {
+                    sendResponse(ex, 405, "{\"error\":\"Method not allowed\"}");
+                    return;
+                }
+                String tenant = authenticate(ex);
+                if (tenant == null) return;
+                TenantBudget.Permit permit = acquireHandlerShare(ex, tenant);
+                if (permit == null) return;
+                RequestContext ctx = RequestContext.begin(ex, method.toUpperCase() + " " + path, clientKey(ex),
+                    BULK_DEADLINE_MS, BULK_DEADLINE_MS);
+                CompletableFuture<Void> response;
+                try {
+                    response = export ? handleExport(ex, tenant) : handleImport(ex, tenant);
+                } catch (IOException | RuntimeException e) {
+                    response = CompletableFuture.failedFuture(e);
+                }
+                finishAsync(ex, response, permit, ctx);
+            } catch (Exception e) {
+                sendResponse(ex, 500, "{\"error\":\"" + e.getMessage() + "\"}");
+            }
+        }
+
+        /**
+         * Exports as NDJSON (one task object per line, the default) or CSV with a
+         * header row. If the export fails after the response has started, an NDJSON
+         * export ends with an {"error":...} line and a CSV export just ends early.
+         */
+        private CompletableFuture<Void> handleExport(HttpExchange ex, String tenant) throws IOException {
+            String format = parseQuery(ex.getRequestURI().getRawQuery()).getOrDefault("format", "ndjson");
+            if (!format.equals("ndjson") && !format.equals("csv")) {
+                sendResponse(ex, 400, "{\"error\":\"Unknown format, expected ndjson or csv\"}");
+                return ANSWERED;
+            }
+            StreamedResponse body = new StreamedResponse(ex,
+                format.equals("csv") ? "text/csv; charset=utf-8" : "application/x-ndjson");
+            return asyncDAO.exportTasks(tenant, format, body).handle((rows, error) -> {
+                try {
+                    if (error == null) {
+                        body.close();
+                    } else if (!body.isStarted()) {
+                        respondNow(ex, null, error, ignored -> { });
+                    } else {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        AccessLog.event("export", "Export for " + tenant + " failed after the response started: " + cause.getMessage());
+                        if (format.equals("ndjson")) {
+                            body.write(("{\"error\":\"" + escape(String.valueOf(cause.getMessage())) + "\"}\n")
+                                .getBytes(StandardCharsets.UTF_8));
+                        }
+                        body.close();
+                    }
+                } catch (IOException e) {
+                    // client is gone; nothing left to answer
+                }
+                return null;
+            });
+        }
+
+        /**
+         * Imports NDJSON (the default) or, with Content-Type text/csv, CSV with a
+         * header row. Invalid rows are skipped and reported by line number; if the
+         * database rejects the data, nothing is imported.
+         *
+         * The body is received in full before a database connection is taken, so a
+         * slow upload holds this handler thread but no connection, transaction or
+         * connection share.
+         */
+        private CompletableFuture<Void> handleImport(HttpExchange ex, String tenant) throws IOException {
+            String contentType = Objects.requireNonNullElse(ex.getRequestHeaders().getFirst("Content-Type"), "");
+            InputStream spooled = spool(ex.getRequestBody());
+            ImportRows rows = new ImportRows(spooled, contentType.toLowerCase(Locale.ROOT).startsWith("text/csv"));
+            // Filled on the database thread; read once the import has committed
+            TaskQueue.Batch added = new TaskQueue.Batch();
+            CompletableFuture<Long> result;
+            try {
+                result = asyncDAO.importTasks(tenant, rows, added::add)
+                    .whenComplete((imported, error) -> closeQuietly(spooled));
+            } catch (RuntimeException e) {
+                closeQuietly(spooled);
+                throw e;
+            }
+            return respond(ex, result, imported -> {
+                reads.invalidate(tenant);
+                rows.getPriorities().forEach((priority, n) -> stats.created(tenant, priority, n));
+                next.putAll(tenant, added);
+                if (rows.hasReminders()) {
+                    // Imported reminders are not passed back row by row; pick them up from the database
+                    try {
+                        reminders.loadPending();
+                    } catch (SQLException e) {
+                        AccessLog.event("reminders", "Could not load reminders of imported tasks: " + e.getMessage());
+                    }
+                }
+                StringBuilder sb = new StringBuilder();
+                sb.append("{\"imported\":").append(imported)
+                    .append(",\"skipped\":").append(rows.getSkipped())
+                    .append(",\"errors\":[");
+                boolean first = true;
+                for (String error : rows.getErrors()) {
+                    if (!first) sb.append(",");
+                    first = false;
+                    sb.append(error);
+                }
+                sb.append("]}");
+                sendResponse(ex, 200, sb.toString());
+            });
+        }
+
+        /**
+         * Copies a request body to a temporary file
+         * @return stream of the file; the file is deleted when the stream is closed
+         */
+        private static InputStream spool(InputStream body) throws IOException {
+            Path file = Files.createTempFile("task-import-", ".tmp");
+            try {
+                Files.copy(body, file, StandardCopyOption.REPLACE_EXISTING);
+                return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        private static void closeQuietly(InputStream in) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                AccessLog.event("import", "Could not remove spooled import body: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Response body of unknown length. The first EXPORT_BUFFER bytes are held back;
+     * status 200 and the headers are sent once they are exceeded or the stream is
+     * closed, so a failure before that can still be answered with an error status.
+     */
+    static class StreamedResponse extends OutputStream {
+        private final HttpExchange ex;
+        private final String contentType;
+        private final byte[] buf = new byte[EXPORT_BUFFER];
+        private int count;
+        private OutputStream out;
+
+        StreamedResponse(HttpExchange ex, String contentType) {
+            this.ex = ex;
+            this.contentType = contentType;
+        }
+
+        /**
+         * @return true once the status line and headers have been sent
+         */
+        boolean isStarted() {
+            return out != null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                drain();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) {
+                    drain();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            out.close();
+        }
+
+        private void drain() throws IOException {
+            if (out == null) {
+                ex.getResponseHeaders().set("Content-Type", contentType);
+                ex.getResponseHeaders().set("Vary", "Accept-Encoding");
+                String encoding = compressor.negotiate(ex.getRequestHeaders().getFirst("Accept-Encoding"), Integer.MAX_VALUE);
+                if (encoding != null) {
+                    ex.getResponseHeaders().set("Content-Encoding", encoding);
+                }
+                ex.sendResponseHeaders(200, 0);
+                out = encoding != null ? compressor.wrap(ex.getResponseBody(), encoding) : ex.getResponseBody();
+            }
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads import rows from a request body one at a time. NDJSON has one flat task
+     * object per line; CSV has a header row naming the columns, so an export in
+     * either format can be imported again (id and other columns are ignored). Rows
+     * that fail validation are skipped and recorded with their line number.
+     */
+    static class ImportRows implements Iterator<Map<String, String>> {
+        private final Reader in;
+        private final boolean csv;
+        private final List<String> errors = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private List<String> header;
+        private Map<String, String> next;
+        private int line = 1;
+        private int pushback = -1;
+        private long skipped;
+        private final Map<String, Long> priorities = new HashMap<>();
+        private boolean reminders;
+        private boolean eof;
+
+        ImportRows(InputStream body, boolean csv) {
+            this.in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 64 * 1024);
+            this.csv = csv;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && !eof) {
+                    next = csv ? readCsvRow() : readNdjsonRow();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map<String, String> row = next;
+            next = null;
+            return row;
+        }
+
+        /**
+         * @return rows left out because they were invalid
+         */
+        long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the first MAX_IMPORT_ERRORS invalid rows as {"line":N,"error":"..."} objects
+         */
+        List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return rows handed out, by priority
+         */
+        Map<String, Long> getPriorities() {
+            return priorities;
+        }
+
+        /**
+         * @return true if any imported row has a reminder
+         */
+        boolean hasReminders() {
+            return reminders;
+        }
+
+        private Map<String, String> readNdjsonRow() throws IOException {
+            int at = line;
+            field.setLength(0);
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (field.length() == MAX_IMPORT_LINE) {
+                    throw new IOException("line " + at + " is longer than " + MAX_IMPORT_LINE + " characters");
+                }
+                field.append((char) c);
+            }
+            eof = c == -1;
+            line++;
+            String json = field.toString().trim();
+            if (json.isEmpty()) {
+                return null;
+            }
+            if (!json.startsWith("{")) {
+                return reject(at, "Not a JSON object");
+            }
+            Map<String, String> m;
+            try {
+                m = new FlatJsonObject(json).parse();
+            } catch (IllegalArgumentException e) {
+                return reject(at, e.getMessage());
+            }
+            return validate(at, m);
+        }
+
+        private Map<String, String> readCsvRow() throws IOException {
+            if (header == null) {
+                List<String> names = readCsvRecord();
+                if (names == null) {
+                    return null;
+                }
+                header = new ArrayList<>();
+                for (String name : names) {
+                    header.add(name.trim().toLowerCase(Locale.ROOT));
+                }
+                if (!header.contains("title")) {
+                    throw new IOException("CSV header has no title column");
+                }
+                return null;
+            }
+            int at = line;
+            List<String> values = readCsvRecord();
+            if (values == null || (values.size() == 1 && values.get(0).isEmpty())) {
+                return null;
+            }
+            if (values.size() != header.size()) {
+                return reject(at, "Expected " + header.size() + " fields, found " + values.size());
+            }
+            Map<String, String> m = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                m.put(header.get(i), values.get(i));
+            }
+            return validate(at, m);
+        }
+
+        /**
+         * Reads one RFC 4180 record: fields separated by commas, optionally quoted,
+         * with "" for a quote and line breaks allowed inside quotes
+         * @return fields of the record, or null at the end of the body
+         */
+        private List<String> readCsvRecord() throws IOException {
+            List<String> fields = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            int c = pushback >= 0 ? pushback : in.read();
+            pushback = -1;
+            if (c == -1) {
+                eof = true;
+                return null;
+            }
+            while (true) {
+                if (c == -1) {
+                    if (quoted) {
+                        throw new IOException("unterminated quoted field at end of body");
+                    }
+                    eof = true;
+                    fields.add(field.toString());
+                    return fields;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        int d = in.read();
+                        if (d == '"') {
+                            append('"');
+                        } else {
+                            quoted = false;
+                            c = d;
+                            continue;
+                        }
+                    } else {
+                        if (c == '\n') line++;
+                        append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n') {
+                    if (c == '\r') {
+                        int d = in.read();
+                        if (d != '\n') pushback = d;
+                    }
+                    line++;
+                    fields.add(field.toString());
+                    return fields;
+                } else {
+                    append((char) c);
+                }
+                c = in.read();
+            }
+        }
+
+        private void append(char c) throws IOException {
+            if (field.length() == MAX_IMPORT_LINE) {
+                throw new IOException("field on line " + line + " is longer than " + MAX_IMPORT_LINE + " characters");
+            }
+            field.append(c);
+        }
+
+        /**
+         * Applies the rules of POST /tasks to a row
+         * @return row ready for TaskDAO.importTasks, or null if it was rejected
+         */
+        private Map<String, String> validate(int at, Map<String, String> m) {
+            String title = Objects.requireNonNullElse(m.get("title"), "").trim();
+            if (title.isEmpty()) {
+                return reject(at, "Title is required");
+            }
+            if (title.codePointCount(0, title.length()) > 255) {
+                return reject(at, "Title is longer than 255 characters");
+            }
+            String priority = m.get("priority");
+            if (priority == null || priority.isEmpty()) {
+                priority = "Medium";
+            } else if (priority.codePointCount(0, priority.length()) > 50) {
+                return reject(at, "Priority is longer than 50 characters");
+            }
+            Map<String, String> row = new HashMap<>();
+            row.put("title", title);
+            row.put("description", Objects.requireNonNullElse(m.get("description"), ""));
+            row.put("priority", priority);
+            for (String time : TaskDAO.TIMESTAMP_COLUMNS) {
+                row.put(time, m.get(time));
+            }
+            try {
+                normalizeTimes(row);
+            } catch (IllegalArgumentException e) {
+                return reject(at, e.getMessage());
+            }
+            if (row.get("remind_at") != null) {
+                reminders = true;
+            }
+            priorities.merge(priority, 1L, Long::sum);
+            return row;
+        }
+
+        private Map<String, String> reject(int at, String error) {
+            skipped++;
+            if (errors.size() < MAX_IMPORT_ERRORS) {
+                errors.add("{\"line\":" + at + ",\"error\":\"" + escape(error) + "\"}");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parser for one flat JSON object, as written by the NDJSON export: every value
+     * is a string, number, true, false or null. Strings take every JSON escape;
+     * numbers and booleans are kept as written.
+     */
+    private static final class FlatJsonObject {
+        private final String text;
+        private int pos;
+
+        FlatJsonObject(String text) {
+            this.text = text;
+        }
+
+        /**
+         * @return the object's members; a null value is kept as null
+         * @throws IllegalArgumentException if the text is not one flat JSON object
+         */
+        Map<String, String> parse() {
+            Map<String, String> members = new HashMap<>();
+            skipSpace();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipSpace();
+                    String key = string();
+                    skipSpace();
+                    expect(':');
+                    skipSpace();
+                    members.put(key, value());
+                    skipSpace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("Expected , or }");
+                    }
+                }
+            }
+            skipSpace();
+            if (pos < text.length()) {
+                throw error("Unexpected text after the object");
+            }
+            return members;
+        }
+
+        private String value() {
+            char c = peek();
+            switch (c) {
+                case '"':
+                    return string();
+                case '{':
+                case '[':
+                    throw error("Nested objects and arrays are not supported");
+                case 'n':
+                    literal("null");
+                    return null;
+                case 't':
+                    return literal("true");
+                case 'f':
+                    return literal("false");
+                default:
+                    int start = pos;
+                    while (pos < text.length() && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0) {
+                        pos++;
+                    }
+                    if (pos == start) {
+                        throw error("Unexpected character '" + c + "'");
+                    }
+                    return text.substring(start, pos);
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c < 0x20) {
+                    throw error("Unescaped control character in string");
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = next();
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(e);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Incomplete \\u escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ignored) {
+                            throw error("Invalid \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape \\" + e);
+                }
+            }
+        }
+
+        private String literal(String word) {
+            if (!text.startsWith(word, pos)) {
+                throw error("Unexpected character '" + peek() + "'");
+            }
+            pos += word.length();
+            return word;
+        }
+
+        private void skipSpace() {
+            while (pos < text.length() && " \t\r\n".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                pos--;
+                throw error("Expected " + c);
+            }
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of line");
+            }
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (pos + 1));
+        }
+    }
+
+    /**
+     * A response produced once and written to every request that shared its read
+     */
+    static final class Rendered {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final Map<String, String> headers;
+
+        Rendered(int status, String contentType, byte[] body, Map<String, String> headers) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        static Rendered json(int status, String body, Map<String, String> headers) {
+            return new Rendered(status, "application/json; charset=utf-8", body.getBytes(StandardCharsets.UTF_8), headers);
+        }
+    }
+
+    /**
+     * Starts a database call under a request's context from whichever thread runs
+     * it, e.g. when a shared read is rerun for a request that was waiting on it
+     */
+    private static <T> CompletableFuture<T> under(RequestContext ctx, Callable<CompletableFuture<T>> call) {
+        try {
+            return ctx.propagate(call).call();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Second half of a handler, run with the result of a database call
+     */
+    @FunctionalInterface
+    private interface Responder<T> {
+        void respond(T result) throws IOException, SQLException;
+    }
+
+    /**
+     * Writes the response once a database call completes, on the thread that
+     * completed it. Failures are answered as the blocking handlers did: 412 with the
+     * current ETag on a version conflict, sendDatabaseError for other database
+     * errors and 400 for invalid input.
+     * @return future completed once the response is written
+     */
+    private static <T> CompletableFuture<Void> respond(HttpExchange ex, CompletableFuture<T> result, Responder<T> responder) {
+        return result.handle((value, error) -> {
+            try {
+                respondNow(ex, value, error, responder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        });
+    }
+
+    private static <T> void respondNow(HttpExchange ex, T value, Throwable error, Responder<T> responder) throws IOException {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        try {
+            if (cause == null) {
+                responder.respond(value);
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw (UncheckedIOException) cause;
+            } else {
+                throw new CompletionException(cause);
+            }
+        } catch (TaskDAO.VersionConflictException e) {
+            setETag(ex, e.getCurrent());
+            sendResponse(ex, 412, "{\"error\":\"Task was modified, current version is "
+                + e.getCurrent().get("version") + "\"}");
+        } catch (SQLException e) {
+            sendDatabaseError(ex, e);
+        } catch (IllegalArgumentException e) {
+            sendResponse(ex, 400, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+        } catch (UncheckedIOException e) {
+            // Request body of an import could not be read or parsed
+            sendResponse(ex, 400, "{\"error\":\"Could not read import: " + escape(e.getCause().getMessage()) + "\"}");
+        }
+    }
+
+    /**
+     * Lets the HTTP thread return while the response is produced on a database
+     * thread. Once it is written the handler share and request context are released
+     * and the exchange is closed; if producing it failed, 500 is sent unless a
+     * response has already started.
+     */
+    private static void finishAsync(HttpExchange ex, CompletableFuture<Void> response,
+                                    TenantBudget.Permit permit, RequestContext ctx) {
+        ex.setAttribute(NioHttpExchange.ASYNC_ATTRIBUTE, Boolean.TRUE);
+        ctx.detach();
+        response.whenComplete((ignored, error) -> {
+            try {
+                if (error != null && ex.getResponseCode() == -1) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    sendResponse(ex, 500, "{\"error\":\"" + escape(String.valueOf(cause.getMessage())) + "\"}");
+                }
+            } catch (IOException e) {
+                // client is gone; nothing left to answer
+            } finally {
+                permit.close();
+                ctx.end();
+                ex.close();
+            }
+        });
+    }
+
     // --- helpers ---
+    /**
+     * Answers a failed database call: 504 if the request ran out of time or was
+     * cancelled, 503 if it may succeed when retried (e.g. its shard slot is moving),
+     * 500 otherwise
+     */
+    private static void sendDatabaseError(HttpExchange ex, SQLException e) throws IOException {
+        // Called on a database thread, where the context is no longer current
+        RequestContext ctx = (RequestContext) ex.getAttribute(RequestContext.ATTRIBUTE);
+        if (ctx != null && ctx.isTimeout(e)) {
+            ctx.recordTimeout();
+            sendResponse(ex, 504, "{\"error\":\"Request timed out\"}");
+            return;
+        }
+        if (e instanceof SQLTransientException) {
+            ex.getResponseHeaders().set("Retry-After", "1");
+            sendResponse(ex, 503, "{\"error\":\"" + escape(e.getMessage()) + "\"}");
+            return;
+        }
+        sendResponse(ex, 500, "{\"error\":\"Database error: " + e.getMessage() + "\"}");
+    }
+
+    /**
+     * Reads the version out of an If-Match header
+     * @param ifMatch header value: "N" (the ETag of version N) or *
+     * @return expected version, null for none or *, -1 for a tag that can never match
+     */
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) return null;
+        String tag = ifMatch.trim();
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) return -1L;
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Reads ?include=archived, which adds tasks moved to the archive to reads
+     * @throws IllegalArgumentException for any other include value
+     */
+    private static boolean includeArchived(Map<String, String> query) {
+        boolean archived = false;
+        for (String include : query.getOrDefault("include", "").split(",")) {
+            if (include.trim().equals("archived")) {
+                archived = true;
+            } else if (!include.trim().isEmpty()) {
+                throw new IllegalArgumentException("Unknown include: " + include.trim());
+            }
+        }
+        return archived;
+    }
+
+    private static void setETag(HttpExchange ex, Map<String, String> task) {
+        if (task.get("version") != null) {
+            ex.getResponseHeaders().set("ETag", "\"" + task.get("version") + "\"");
+        }
+    }
+
     private static String readBody(HttpExchange ex) throws IOException {
         try (InputStream is = ex.getRequestBody()) {
             return new String(is.readAllBytes(), StandardCharsets.UTF_8);
@@ -204,25 +1629,117 @@ public class TaskServer {
     }
 
     private static void sendResponse(HttpExchange ex, int code, String body) throws IOException {
-        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
         ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (compressor.isCompressible(body.length())) {
+            ex.getResponseHeaders().set("Vary", "Accept-Encoding");
+            String encoding = compressor.negotiate(ex.getRequestHeaders().getFirst("Accept-Encoding"), body.length());
+            if (encoding != null) {
+                // Length unknown up front: stream the compressed body chunked
+                ex.getResponseHeaders().set("Content-Encoding", encoding);
+                ex.sendResponseHeaders(code, 0);
+                try (Writer w = new OutputStreamWriter(compressor.wrap(ex.getResponseBody(), encoding), StandardCharsets.UTF_8)) {
+                    w.write(body);
+                }
+                return;
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static void sendRendered(HttpExchange ex, Rendered rendered) throws IOException {
+        rendered.headers.forEach((name, value) -> ex.getResponseHeaders().set(name, value));
+        sendBytes(ex, rendered.status, rendered.contentType, rendered.body);
+    }
+
+    private static void sendBytes(HttpExchange ex, int code, String contentType, byte[] bytes) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        if (!ex.getResponseHeaders().containsKey("Vary")) {
+            ex.getResponseHeaders().set("Vary", "Accept-Encoding");
+        }
+        String encoding = compressor.negotiate(ex.getRequestHeaders().getFirst("Accept-Encoding"), bytes.length);
+        if (encoding != null) {
+            ex.getResponseHeaders().set("Content-Encoding", encoding);
+            ex.sendResponseHeaders(code, 0);
+            try (OutputStream os = compressor.wrap(ex.getResponseBody(), encoding)) {
+                os.write(bytes);
+            }
+            return;
+        }
         ex.sendResponseHeaders(code, bytes.length);
         try (OutputStream os = ex.getResponseBody()) {
             os.write(bytes);
         }
     }
 
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> out = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return out;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            out.put(key, value);
+        }
+        return out;
+    }
+
+    /**
+     * Writes a task as JSON; fields missing from the map (not selected) are left out
+     */
     private static String mapToJsonObject(String id, Map<String,String> map) {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
-        sb.append("\"id\":\"").append(escape(id)).append("\",");
-        sb.append("\"title\":\"").append(escape(map.getOrDefault("title", ""))).append("\",");
-        sb.append("\"description\":\"").append(escape(map.getOrDefault("description", ""))).append("\",");
-        sb.append("\"priority\":\"").append(escape(map.getOrDefault("priority", "Medium"))).append("\"");
+        sb.append("\"id\":\"").append(escape(id)).append("\"");
+        for (String field : TaskDAO.PATCHABLE_COLUMNS) {
+            if (!map.containsKey(field)) {
+                continue;
+            }
+            sb.append(",\"").append(field).append("\":");
+            if (map.get(field) == null && TaskDAO.TIMESTAMP_COLUMNS.contains(field)) {
+                sb.append("null");
+            } else {
+                sb.append("\"").append(escape(map.get(field))).append("\"");
+            }
+        }
+        if (map.get("version") != null) {
+            sb.append(",\"version\":").append(map.get("version"));
+        }
+        if (map.get("archived") != null) {
+            sb.append(",\"archived\":").append(map.get("archived"));
+        }
         sb.append("}");
         return sb.toString();
     }
 
+    /**
+     * Brings due_at and remind_at in a request body to the form stored and returned:
+     * an ISO-8601 instant in UTC with millisecond precision. An empty value becomes null.
+     * @param m request fields; only the time fields present are touched
+     * @throws IllegalArgumentException if a time cannot be parsed
+     */
+    private static void normalizeTimes(Map<String,String> m) {
+        for (String field : TaskDAO.TIMESTAMP_COLUMNS) {
+            String value = m.get(field);
+            if (value == null) {
+                continue;
+            }
+            if (value.isBlank()) {
+                m.put(field, null);
+                continue;
+            }
+            try {
+                Instant time = OffsetDateTime.parse(value.trim()).toInstant();
+                m.put(field, time.truncatedTo(ChronoUnit.MILLIS).toString());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid " + field + ", expected a time such as 2026-10-20T09:00:00Z");
+            }
+        }
+    }
+
     private static Map<String,String> parseJsonToMap(String json) {
         Map<String,String> out = new LinkedHashMap<>();
         if (json == null) return out;
@@ -236,6 +1753,10 @@ public class TaskServer {
             if (kv.length < 2) continue;
             String key = kv[0].trim().replaceAll("^\"|\"$", "");
             String val = kv[1].trim();
+            if (val.equals("null")) {
+                out.put(key, null);
+                continue;
+            }
             val = val.replaceAll("^\"|\"$", "");
             val = val.replace("\\n", "\n").replace("\\\"", "\"").replace("\\\\", "\\");
             out.put(key, val);
@@ -0,0 +1,239 @@
+package com.example;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Task Statistics
+ *
+ * Keeps each tenant's task counts by priority, and how many tasks were created,
+ * updated and deleted recently, in memory, so GET /tasks/stats answers in
+ * constant time however many tasks there are. The handlers report every write
+ * that succeeds. A background job recounts the tasks table every so often and
+ * corrects the counters for changes made elsewhere: other servers, the archiver
+ * or plain SQL.
+ */
+public class TaskStats {
+
+    /** Kinds of write counted over the recent windows */
+    public enum Activity { CREATED, UPDATED, DELETED }
+
+    /** Lengths of the activity windows reported, in minutes */
+    public static final int[] WINDOW_MINUTES = {1, 5, 15};
+    // Activity is counted in buckets of this size; a window is a whole number of buckets
+    private static final long BUCKET_MS = 5000;
+    private static final int BUCKETS = (int) (15 * 60_000 / BUCKET_MS);
+
+    private final ConcurrentMap<String, TenantStats> tenants = new ConcurrentHashMap<>();
+    private final LongAdder reconciliations = new LongAdder();
+    private final LongAdder corrected = new LongAdder();
+    private volatile Instant reconciledAt;
+
+    /**
+     * Counts of one tenant. Counters are only ever added to, so reconciliation can
+     * correct them while writes go on.
+     */
+    private static class TenantStats {
+        final ConcurrentMap<String, LongAdder> byPriority = new ConcurrentHashMap<>();
+        // Per bucket: the bucket number it currently holds and its count for each activity
+        final long[] bucketOf = new long[BUCKETS];
+        final long[][] activity = new long[Activity.values().length][BUCKETS];
+
+        void add(String priority, long n) {
+            byPriority.computeIfAbsent(priority, k -> new LongAdder()).add(n);
+        }
+
+        synchronized void record(Activity kind, long n, long nowMs) {
+            long bucket = nowMs / BUCKET_MS;
+            int i = (int) (bucket % BUCKETS);
+            if (bucketOf[i] != bucket) {
+                // Slot last held a bucket a full round ago; start it afresh
+                bucketOf[i] = bucket;
+                for (long[] counts : activity) {
+                    counts[i] = 0;
+                }
+            }
+            activity[kind.ordinal()][i] += n;
+        }
+
+        synchronized long sum(Activity kind, int minutes, long nowMs) {
+            long current = nowMs / BUCKET_MS;
+            long oldest = current - minutes * 60_000L / BUCKET_MS;
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (bucketOf[i] > oldest && bucketOf[i] <= current) {
+                    total += activity[kind.ordinal()][i];
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Runs a reconciliation now and then every intervalMs on a daemon thread
+     * @param dao source of the true counts
+     * @param intervalMs delay between the end of one run and the start of the next
+     */
+    public void start(TaskDAO dao, long intervalMs) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile(dao);
+            } catch (SQLException e) {
+                AccessLog.event("stats", "Task count reconciliation failed: " + e.getMessage());
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Counts a new task
+     * @param tenantId tenant of the task
+     * @param priority priority of the task
+     */
+    public void created(String tenantId, String priority) {
+        created(tenantId, priority, 1);
+    }
+
+    /**
+     * Counts new tasks of one priority, e.g. from an import
+     * @param tenantId tenant of the tasks
+     * @param priority priority of the tasks
+     * @param n number of tasks
+     */
+    public void created(String tenantId, String priority, long n) {
+        TenantStats stats = tenant(tenantId);
+        stats.add(priority, n);
+        stats.record(Activity.CREATED, n, System.currentTimeMillis());
+    }
+
+    /**
+     * Counts an updated task
+     * @param tenantId tenant of the task
+     * @param previousPriority priority before the update, or null if the update did not set it
+     * @param priority priority after the update
+     */
+    public void updated(String tenantId, String previousPriority, String priority) {
+        TenantStats stats = tenant(tenantId);
+        if (previousPriority != null && !previousPriority.equals(priority)) {
+            stats.add(previousPriority, -1);
+            stats.add(priority, 1);
+        }
+        stats.record(Activity.UPDATED, 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Counts a deleted task
+     * @param tenantId tenant of the task
+     * @param priority priority the task had
+     */
+    public void deleted(String tenantId, String priority) {
+        TenantStats stats = tenant(tenantId);
+        stats.add(priority, -1);
+        stats.record(Activity.DELETED, 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Brings the counters in line with the tasks table. The counters are read before
+     * the tasks are counted and corrected by the difference, so writes reported
+     * while the count runs are kept; a write that is both in the count and reported
+     * during it is off by one until the next run.
+     * @param dao source of the true counts
+     * @throws SQLException if a shard cannot be counted
+     */
+    public void reconcile(TaskDAO dao) throws SQLException {
+        Map<String, Map<String, Long>> before = new HashMap<>();
+        tenants.forEach((tenantId, stats) -> {
+            Map<String, Long> counts = new HashMap<>();
+            stats.byPriority.forEach((priority, n) -> counts.put(priority, n.sum()));
+            before.put(tenantId, counts);
+        });
+        Map<String, Map<String, Long>> actual = dao.countTasks();
+        long drift = 0;
+        for (Map.Entry<String, Map<String, Long>> t : actual.entrySet()) {
+            Map<String, Long> was = before.getOrDefault(t.getKey(), Map.of());
+            for (Map.Entry<String, Long> p : t.getValue().entrySet()) {
+                long delta = p.getValue() - was.getOrDefault(p.getKey(), 0L);
+                if (delta != 0) {
+                    tenant(t.getKey()).add(p.getKey(), delta);
+                    drift += Math.abs(delta);
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Long>> t : before.entrySet()) {
+            Map<String, Long> is = actual.getOrDefault(t.getKey(), Map.of());
+            for (Map.Entry<String, Long> p : t.getValue().entrySet()) {
+                if (!is.containsKey(p.getKey()) && p.getValue() != 0) {
+                    tenant(t.getKey()).add(p.getKey(), -p.getValue());
+                    drift += Math.abs(p.getValue());
+                }
+            }
+        }
+        if (reconciledAt != null) {
+            // The first run loads the counts rather than correcting them
+            corrected.add(drift);
+        }
+        reconciliations.increment();
+        reconciledAt = Instant.now();
+    }
+
+    /**
+     * @return time of the last reconciliation, or null until the first has finished
+     */
+    public Instant getReconciledAt() {
+        return reconciledAt;
+    }
+
+    /**
+     * @param tenantId tenant to report
+     * @return the tenant's task counts by priority, leaving out priorities with no tasks
+     */
+    public Map<String, Long> getCounts(String tenantId) {
+        Map<String, Long> counts = new TreeMap<>();
+        TenantStats stats = tenants.get(tenantId);
+        if (stats != null) {
+            stats.byPriority.forEach((priority, n) -> {
+                long sum = n.sum();
+                if (sum != 0) {
+                    counts.put(priority, sum);
+                }
+            });
+        }
+        return counts;
+    }
+
+    /**
+     * @param tenantId tenant to report
+     * @param kind kind of write
+     * @param minutes window length, one of WINDOW_MINUTES
+     * @return writes of that kind in the last minutes
+     */
+    public long getActivity(String tenantId, Activity kind, int minutes) {
+        TenantStats stats = tenants.get(tenantId);
+        return stats == null ? 0 : stats.sum(kind, minutes, System.currentTimeMillis());
+    }
+
+    private TenantStats tenant(String tenantId) {
+        return tenants.computeIfAbsent(tenantId, k -> new TenantStats());
+    }
+
+    /**
+     * @return one-line summary: reconciliations run and how far the counters had drifted
+     */
+    public String getStats() {
+        return String.format("Task stats: %d reconciliations, %d tasks of drift corrected",
+            reconciliations.sum(), corrected.sum());
+    }
+}
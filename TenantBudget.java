@@ -0,0 +1,164 @@
+package com.example;
+
+import java.sql.SQLTransientException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-tenant Fair Share of a Shared Resource
+ *
+ * Counts how many units of a resource (handler threads, database connections)
+ * each tenant holds. While more than one tenant is using or waiting for the
+ * resource, a tenant may hold at most maxShare of the capacity, so one tenant can
+ * never take everything from the others; a tenant on its own may use all of it,
+ * as in a single-tenant setup. Once the resource is fully used, a tenant
+ * may only take more while it holds less than an equal share among the tenants
+ * currently using or waiting for it; the others wait until units are released.
+ */
+public class TenantBudget {
+
+    private final String name;
+    private volatile int capacity;
+    private volatile double maxShare;
+    // Units held and threads waiting, per tenant; guarded by this
+    private final Map<String, int[]> usage = new HashMap<>();
+    private int total;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a budget
+     * @param name resource name used in messages and stats
+     * @param capacity units the node has in total
+     * @param maxShare largest fraction of the capacity one tenant may hold while others are active, 0 to 1
+     */
+    public TenantBudget(String name, int capacity, double maxShare) {
+        this.name = name;
+        configure(capacity, maxShare);
+    }
+
+    /**
+     * Changes capacity and share; units already held are kept and count against the new limits
+     */
+    public synchronized void configure(int capacity, double maxShare) {
+        this.capacity = Math.max(1, capacity);
+        this.maxShare = maxShare;
+        notifyAll();
+    }
+
+    /**
+     * Takes one unit for a tenant without waiting
+     * @return a permit to close when the unit is released, or null if the tenant is over its share
+     */
+    public synchronized Permit tryAcquire(String tenant) {
+        if (!allowed(tenant, counts(tenant))) {
+            rejected.increment();
+            removeIfIdle(tenant);
+            return null;
+        }
+        return take(tenant);
+    }
+
+    /**
+     * Takes one unit for a tenant, waiting while it is over its share
+     * @param tenant tenant id
+     * @param timeoutMs longest wait
+     * @return a permit to close when the unit is released
+     * @throws SQLTransientException if no unit became available in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Permit acquire(String tenant, long timeoutMs) throws SQLTransientException, InterruptedException {
+        int[] counts = counts(tenant);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        counts[1]++;
+        try {
+            while (!allowed(tenant, counts)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejected.increment();
+                    throw new SQLTransientException("Tenant " + tenant + " is using its full share of " + name);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } finally {
+            counts[1]--;
+            removeIfIdle(tenant);
+        }
+        return take(tenant);
+    }
+
+    private int[] counts(String tenant) {
+        return usage.computeIfAbsent(tenant, k -> new int[2]);
+    }
+
+    private boolean allowed(String tenant, int[] counts) {
+        int cap = capacity;
+        // A lone tenant keeps nobody waiting, so the cap only applies once there are others
+        int limit = usage.size() > 1 ? Math.max(1, (int) (cap * maxShare)) : cap;
+        if (counts[0] >= limit) {
+            return false;
+        }
+        // Full: only tenants below an equal split among the active ones get the next unit
+        return total < cap || counts[0] < Math.max(1, cap / usage.size());
+    }
+
+    private Permit take(String tenant) {
+        counts(tenant)[0]++;
+        total++;
+        return new Permit(tenant);
+    }
+
+    private synchronized void release(String tenant) {
+        int[] counts = usage.get(tenant);
+        counts[0]--;
+        total--;
+        removeIfIdle(tenant);
+        notifyAll();
+    }
+
+    private void removeIfIdle(String tenant) {
+        int[] counts = usage.get(tenant);
+        if (counts != null && counts[0] == 0 && counts[1] == 0) {
+            usage.remove(tenant);
+        }
+    }
+
+    /**
+     * @return units held per tenant right now
+     */
+    public synchronized Map<String, Integer> getUsage() {
+        Map<String, Integer> out = new TreeMap<>();
+        usage.forEach((tenant, counts) -> out.put(tenant, counts[0]));
+        return out;
+    }
+
+    /**
+     * @return one-line summary: capacity and how often tenants were held back
+     */
+    public String getStats() {
+        return String.format("Tenant share of %s: capacity %d, max %.0f%% per tenant, %d requests held back",
+            name, capacity, maxShare * 100, rejected.sum());
+    }
+
+    /**
+     * One unit held by a tenant; closing it releases the unit exactly once
+     */
+    public final class Permit implements AutoCloseable {
+        private final String tenant;
+        private boolean closed;
+
+        private Permit(String tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(tenant);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Tenant Directory
+ *
+ * Maps API keys to tenant ids. Keys are configured in taskserver.tenants as
+ * "tenant:sha256-of-key" pairs, so the config file never holds a usable key.
+ * With no tenants configured the server is single-tenant and every request
+ * belongs to DEFAULT_TENANT, which is also the tenant of rows that predate
+ * multi-tenancy.
+ *
+ * Run "java com.example.Tenants <api-key>" to print the hash to configure.
+ */
+public class Tenants {
+
+    /** Tenant of every request in single-tenant mode and of pre-existing rows */
+    public static final String DEFAULT_TENANT = "default";
+
+    private static final Pattern TENANT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    private volatile Map<String, String> tenantsByKeyHash = Map.of();
+
+    /**
+     * Replaces the key table
+     * @param spec comma-separated tenant:sha256hex pairs; empty for single-tenant mode
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public void configure(String spec) {
+        this.tenantsByKeyHash = parse(spec);
+    }
+
+    /**
+     * Checks a taskserver.tenants value without applying it
+     * @return null if valid, otherwise the problem
+     */
+    public static String validate(String spec) {
+        try {
+            parse(spec);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static Map<String, String> parse(String spec) {
+        Map<String, String> out = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            String tenant = colon < 0 ? "" : entry.substring(0, colon).trim();
+            String hash = colon < 0 ? "" : entry.substring(colon + 1).trim().toLowerCase();
+            if (!TENANT_ID.matcher(tenant).matches() || !SHA256_HEX.matcher(hash).matches()) {
+                throw new IllegalArgumentException("expected tenant:sha256hex, got \"" + entry.trim() + "\"");
+            }
+            out.put(hash, tenant);
+        }
+        return Map.copyOf(out);
+    }
+
+    /**
+     * @return true if API keys are required
+     */
+    public boolean isMultiTenant() {
+        return !tenantsByKeyHash.isEmpty();
+    }
+
+    /**
+     * Finds the tenant a request acts for
+     * @param apiKey X-API-Key header value, may be null
+     * @return tenant id, or null if keys are required and this one is missing or unknown
+     */
+    public String resolve(String apiKey) {
+        Map<String, String> tenants = tenantsByKeyHash;
+        if (tenants.isEmpty()) {
+            return DEFAULT_TENANT;
+        }
+        if (apiKey == null || apiKey.isEmpty()) {
+            return null;
+        }
+        return tenants.get(sha256(apiKey));
+    }
+
+    static String sha256(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java com.example.Tenants <api-key>");
+            System.exit(2);
+        }
+        System.out.println(sha256(args[0]));
+    }
+}
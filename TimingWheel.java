@@ -0,0 +1,192 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical Timing Wheel
+ *
+ * Holds timers keyed by a long id, each due at a tick number. Level 0 has one
+ * bucket per tick for the next 64 ticks; every bucket of level n spans a whole
+ * turn of level n-1, so six levels cover 64^6 ticks (over 2000 years of 1 s ticks).
+ * A timer sits in the lowest level whose range reaches its due tick and is moved
+ * down a level ("cascaded") when time reaches its bucket. Scheduling and
+ * cancelling are O(1), and each tick only touches the buckets that come due,
+ * however many timers are pending.
+ *
+ * Not thread-safe: callers synchronize.
+ */
+final class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    // Timers further out are parked in the top level and re-placed as it turns
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final Timer[] buckets = new Timer[LEVELS * SLOTS];
+    private final Map<Long, Timer> timers = new HashMap<>();
+    private long currentTick;
+
+    /**
+     * @param startTick tick the wheel starts at; timers due at or before it fire on the first advance
+     */
+    TimingWheel(long startTick) {
+        this.currentTick = startTick;
+    }
+
+    /**
+     * Adds a timer, replacing any pending timer with the same id
+     * @param id timer key
+     * @param dueTick tick at which the timer expires
+     * @param payload value handed back on expiry
+     */
+    void schedule(long id, long dueTick, long payload) {
+        cancel(id);
+        Timer timer = new Timer(id, dueTick, payload);
+        timers.put(id, timer);
+        place(timer);
+    }
+
+    /**
+     * Adds a timer unless one with the same id is already pending
+     * @return true if the timer was added
+     */
+    boolean scheduleIfAbsent(long id, long dueTick, long payload) {
+        if (timers.containsKey(id)) {
+            return false;
+        }
+        schedule(id, dueTick, payload);
+        return true;
+    }
+
+    /**
+     * Removes a pending timer
+     * @return true if a timer with this id was pending
+     */
+    boolean cancel(long id) {
+        Timer timer = timers.remove(id);
+        if (timer == null) {
+            return false;
+        }
+        unlink(timer);
+        return true;
+    }
+
+    /**
+     * @return number of pending timers
+     */
+    int size() {
+        return timers.size();
+    }
+
+    /**
+     * @return the last tick processed
+     */
+    long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Moves time forward by one tick
+     * @param expired receives the timers that came due; they are no longer pending
+     */
+    void advance(List<Timer> expired) {
+        currentTick++;
+        // When a level wraps around, pull the next bucket of the level above down
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & MASK));
+        }
+        int index = (int) (currentTick & MASK);
+        Timer timer = buckets[index];
+        buckets[index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            timer.bucket = -1;
+            timers.remove(timer.id);
+            expired.add(timer);
+            timer = next;
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        int index = level * SLOTS + slot;
+        Timer timer = buckets[index];
+        buckets[index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            if (timer.dueTick <= currentTick) {
+                // Due this very tick: join the level 0 bucket that is about to expire
+                link(timer, (int) (currentTick & MASK));
+            } else {
+                place(timer);
+            }
+            timer = next;
+        }
+    }
+
+    private void place(Timer timer) {
+        long delta = timer.dueTick - currentTick;
+        int index;
+        if (delta <= 0) {
+            // Already due: fire on the next tick
+            index = (int) ((currentTick + 1) & MASK);
+        } else {
+            delta = Math.min(delta, MAX_DELTA);
+            int level = (63 - Long.numberOfLeadingZeros(delta)) / SLOT_BITS;
+            long due = currentTick + delta;
+            index = level * SLOTS + (int) ((due >>> (SLOT_BITS * level)) & MASK);
+        }
+        link(timer, index);
+    }
+
+    private void link(Timer timer, int index) {
+        timer.bucket = index;
+        timer.next = buckets[index];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        buckets[index] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else if (timer.bucket >= 0) {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.bucket = -1;
+    }
+
+    /**
+     * A pending timer; a node of its bucket's doubly linked list
+     */
+    static final class Timer {
+        final long id;
+        final long dueTick;
+        final long payload;
+        Timer prev;
+        Timer next;
+        int bucket = -1;
+
+        Timer(long id, long dueTick, long payload) {
+            this.id = id;
+            this.dueTick = dueTick;
+            this.payload = payload;
+        }
+    }
+}
@@ -4,16 +4,25 @@ public class Task {
     private String title;
     private String description;
     private String priority;
+    // ISO-8601 instants such as 2026-10-20T09:00:00Z, or null when not set
+    private String dueAt;
+    private String remindAt;
 
     public Task(String title, String description, String priority) {
         this(null, title, description, priority);
     }
 
     public Task(String id, String title, String description, String priority) {
+        this(id, title, description, priority, null, null);
+    }
+
+    public Task(String id, String title, String description, String priority, String dueAt, String remindAt) {
         this.id = id;
         this.title = title;
         this.description = description;
         this.priority = priority;
+        this.dueAt = dueAt;
+        this.remindAt = remindAt;
     }
 
     public String getId() { return id; }
@@ -21,6 +30,8 @@ public class Task {
     public String getTitle() { return title; }
     public String getDescription() { return description; }
     public String getPriority() { return priority; }
+    public String getDueAt() { return dueAt; }
+    public String getRemindAt() { return remindAt; }
 
     @Override
     public String toString() {
@@ -0,0 +1,75 @@
+package com.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Decoder for TaskServer's compact binary task list format.
+ *
+ * Layout (integers are unsigned LEB128 varints): count, then per task an id,
+ * length-prefixed UTF-8 title and description, and a priority byte
+ * (0 Low, 1 Medium, 2 High, 0xFF followed by a length-prefixed string).
+ * The server sends it only when ?fields= selects no other field, so the list
+ * request must name its fields; otherwise the answer is JSON.
+ */
+public class TaskBinaryCodec {
+
+    public static final String MEDIA_TYPE = "application/x-tasks-binary";
+
+    private static final String[] PRIORITIES = { "Low", "Medium", "High" };
+    private static final int CUSTOM_PRIORITY = 0xFF;
+
+    private final byte[] data;
+    private int pos;
+
+    private TaskBinaryCodec(byte[] data) {
+        this.data = data;
+    }
+
+    public static ArrayList<Task> decode(byte[] data) throws IOException {
+        TaskBinaryCodec r = new TaskBinaryCodec(data);
+        int count = (int) r.readVarint();
+        ArrayList<Task> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = String.valueOf(r.readVarint());
+            String title = r.readString();
+            String description = r.readString();
+            int code = r.readByte();
+            String priority;
+            if (code == CUSTOM_PRIORITY) {
+                priority = r.readString();
+            } else if (code < PRIORITIES.length) {
+                priority = PRIORITIES[code];
+            } else {
+                throw new IOException("Unknown priority code " + code);
+            }
+            list.add(new Task(id, title, description, priority));
+        }
+        return list;
+    }
+
+    private int readByte() throws IOException {
+        if (pos >= data.length) throw new EOFException("Truncated task list");
+        return data[pos++] & 0xFF;
+    }
+
+    private long readVarint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private String readString() throws IOException {
+        int len = (int) readVarint();
+        if (len < 0 || pos + len > data.length) throw new EOFException("Truncated task list");
+        String s = new String(data, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+}
@@ -3,35 +3,74 @@ package com.example;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 public class TaskManager {
     // Point this to server; server default below uses port 8000
     private static final String BASE_URL = "http://localhost:8000/tasks";
+    // Large list responses are much smaller compressed; HttpClient does not decode them itself
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    // The list only shows title and priority; the full task is fetched when it is viewed
+    private static final String LIST_FIELDS = "id,title,priority";
+    private static final int DETAILS_CACHE_SIZE = 50;
+    // Identifies the tenant on a multi-tenant server; not needed on a single-tenant one
+    private static final String API_KEY = System.getenv("TASKS_API_KEY");
 
     private final ObservableList<Task> tasks = FXCollections.observableArrayList();
     private final HttpClient http = HttpClient.newHttpClient();
+    // Recently viewed tasks with all fields by task id, least recently used evicted first
+    private final Map<String, Task> details = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Task> eldest) {
+            return size() > DETAILS_CACHE_SIZE;
+        }
+    };
 
     public ObservableList<Task> getTasks() { return tasks; }
 
+    private static HttpRequest.Builder newRequest() {
+        HttpRequest.Builder builder = HttpRequest.newBuilder();
+        if (API_KEY != null && !API_KEY.isEmpty()) builder.header("X-API-Key", API_KEY);
+        return builder;
+    }
+
     public void fetchAll() throws IOException, InterruptedException {
         try {
-            HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create(BASE_URL))
+            HttpRequest req = newRequest()
+                    .uri(URI.create(BASE_URL + "?fields=" + LIST_FIELDS))
+                    .header("Accept", TaskBinaryCodec.MEDIA_TYPE + ", application/json;q=0.9")
+                    .header("Accept-Encoding", ACCEPT_ENCODING)
                     .GET().build();
-            HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<byte[]> resp = http.send(req, TaskManager::decodingBytesHandler);
+            String contentType = resp.headers().firstValue("Content-Type").orElse("");
             if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
-                ArrayList<Task> list = tasksFromJson(resp.body());
+                ArrayList<Task> list = contentType.startsWith(TaskBinaryCodec.MEDIA_TYPE)
+                        ? TaskBinaryCodec.decode(resp.body())
+                        : tasksFromJson(new String(resp.body(), StandardCharsets.UTF_8));
+                // Descriptions were not requested: mark them as not loaded
+                list.replaceAll(t -> new Task(t.getId(), t.getTitle(), null, t.getPriority()));
+                synchronized (details) {
+                    details.clear();
+                }
                 tasks.setAll(list);
             } else {
-                throw new IOException("Fetch failed: HTTP " + resp.statusCode() + " - " + resp.body());
+                throw new IOException("Fetch failed: HTTP " + resp.statusCode() + " - " + new String(resp.body(), StandardCharsets.UTF_8));
             }
         } catch (java.net.ConnectException e) {
             throw new IOException("Cannot connect to server at " + BASE_URL + ". Make sure TaskServer is running on port 8000.", e);
@@ -43,31 +82,51 @@ public class TaskManager {
 
     public Task addTask(Task t) throws IOException, InterruptedException {
         String json = taskToJson(t, false);
-        HttpRequest req = HttpRequest.newBuilder()
+        HttpRequest req = newRequest()
                 .uri(URI.create(BASE_URL))
                 .header("Content-Type", "application/json")
+                .header("Accept-Encoding", ACCEPT_ENCODING)
                 .POST(HttpRequest.BodyPublishers.ofString(json)).build();
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> resp = http.send(req, TaskManager::decodingBodyHandler);
         if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
             Task created = singleTaskFromJson(resp.body());
-            if (created != null) tasks.add(created);
+            if (created != null) {
+                tasks.add(created);
+                synchronized (details) {
+                    details.put(created.getId(), created);
+                }
+            }
             return created;
         } else {
             throw new IOException("Add failed: " + resp.statusCode() + " " + resp.body());
         }
     }
 
+    /**
+     * Saves the fields of t that differ from the cached copy with the same id,
+     * using PATCH so the server writes only those columns. If the full task has not
+     * been loaded, only the title and priority (the fields the list has) are saved;
+     * the other fields of t are ignored so unknown values are never overwritten.
+     */
     public Task updateTask(Task t) throws IOException, InterruptedException {
         if (t.getId() == null) throw new IllegalArgumentException("ID required");
-        String json = taskToJson(t, true);
+        Task cached = getCachedDetails(t);
+        Task listed = findById(t.getId());
+        String json = cached != null ? changesToJson(cached, t) : listChangesToJson(listed, t);
+        if (json.equals("{}")) return cached != null ? cached : listed;
         String url = BASE_URL + "/" + t.getId();
-        HttpRequest req = HttpRequest.newBuilder()
+        HttpRequest req = newRequest()
                 .uri(URI.create(url))
-                .header("Content-Type", "application/json")
-                .PUT(HttpRequest.BodyPublishers.ofString(json)).build();
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+                .header("Content-Type", "application/merge-patch+json")
+                .header("Accept-Encoding", ACCEPT_ENCODING)
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(json)).build();
+        HttpResponse<String> resp = http.send(req, TaskManager::decodingBodyHandler);
         if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
             Task updated = singleTaskFromJson(resp.body());
+            synchronized (details) {
+                if (updated != null) details.put(t.getId(), updated);
+                else details.remove(t.getId());
+            }
             if (updated != null) {
                 for (int i = 0; i < tasks.size(); i++) {
                     Task cur = tasks.get(i);
@@ -83,21 +142,95 @@ public class TaskManager {
         }
     }
 
+    /**
+     * @return the task with all fields (description, due and reminder times) if it
+     *         has been loaded, otherwise null
+     */
+    public Task getCachedDetails(Task t) {
+        if (t.getId() == null) return null;
+        synchronized (details) {
+            return details.get(t.getId());
+        }
+    }
+
+    /**
+     * Returns a task with all fields, fetching it from the server unless it is cached.
+     * Safe to call off the FX thread.
+     */
+    public Task loadDetails(Task t) throws IOException, InterruptedException {
+        Task cached = getCachedDetails(t);
+        if (cached != null) return cached;
+        HttpRequest req = newRequest()
+                .uri(URI.create(BASE_URL + "/" + t.getId()))
+                .header("Accept-Encoding", ACCEPT_ENCODING)
+                .GET().build();
+        HttpResponse<String> resp = http.send(req, TaskManager::decodingBodyHandler);
+        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+            throw new IOException("Load failed: " + resp.statusCode() + " " + resp.body());
+        }
+        Task full = singleTaskFromJson(resp.body());
+        if (full == null) throw new IOException("Load failed: empty response");
+        synchronized (details) {
+            details.put(t.getId(), full);
+        }
+        return full;
+    }
+
+    private Task findById(String id) {
+        for (Task cur : tasks) {
+            if (id.equals(cur.getId())) return cur;
+        }
+        return null;
+    }
+
     public void removeTask(Task t) throws IOException, InterruptedException {
         if (t.getId() == null) {
             tasks.remove(t);
             return;
         }
         String url = BASE_URL + "/" + t.getId();
-        HttpRequest req = HttpRequest.newBuilder().uri(URI.create(url)).DELETE().build();
+        HttpRequest req = newRequest().uri(URI.create(url)).DELETE().build();
         HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
         if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
             tasks.remove(t);
+            synchronized (details) {
+                details.remove(t.getId());
+            }
         } else {
             throw new IOException("Delete failed: " + resp.statusCode() + " " + resp.body());
         }
     }
 
+    // ----- response decoding -----
+    private static HttpResponse.BodySubscriber<String> decodingBodyHandler(HttpResponse.ResponseInfo info) {
+        return HttpResponse.BodySubscribers.mapping(decodingBytesHandler(info),
+                bytes -> new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static HttpResponse.BodySubscriber<byte[]> decodingBytesHandler(HttpResponse.ResponseInfo info) {
+        String encoding = info.headers().firstValue("Content-Encoding").orElse("identity");
+        return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(),
+                bytes -> decodeBody(bytes, encoding));
+    }
+
+    private static byte[] decodeBody(byte[] bytes, String encoding) {
+        try {
+            InputStream in;
+            if ("gzip".equalsIgnoreCase(encoding)) {
+                in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+            } else if ("deflate".equalsIgnoreCase(encoding)) {
+                in = new InflaterInputStream(new ByteArrayInputStream(bytes));
+            } else {
+                return bytes;
+            }
+            try (InputStream is = in) {
+                return is.readAllBytes();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode " + encoding + " response", e);
+        }
+    }
+
     // ----- minimal JSON helpers (no external libs) -----
     private String escape(String s) {
         if (s == null) return "";
@@ -113,10 +246,41 @@ public class TaskManager {
         sb.append("\"title\":\"").append(escape(t.getTitle())).append("\",");
         sb.append("\"description\":\"").append(escape(t.getDescription())).append("\",");
         sb.append("\"priority\":\"").append(escape(t.getPriority())).append("\"");
+        if (t.getDueAt() != null) sb.append(",\"due_at\":").append(jsonValue(t.getDueAt()));
+        if (t.getRemindAt() != null) sb.append(",\"remind_at\":").append(jsonValue(t.getRemindAt()));
         sb.append("}");
         return sb.toString();
     }
 
+    private String changesToJson(Task before, Task after) {
+        StringBuilder sb = new StringBuilder();
+        appendIfChanged(sb, "title", before.getTitle(), after.getTitle());
+        appendIfChanged(sb, "description", before.getDescription(), after.getDescription());
+        appendIfChanged(sb, "priority", before.getPriority(), after.getPriority());
+        appendIfChanged(sb, "due_at", before.getDueAt(), after.getDueAt());
+        appendIfChanged(sb, "remind_at", before.getRemindAt(), after.getRemindAt());
+        return "{" + sb + "}";
+    }
+
+    // Only the fields a list item carries; a missing list item sends both
+    private String listChangesToJson(Task before, Task after) {
+        StringBuilder sb = new StringBuilder();
+        appendIfChanged(sb, "title", before != null ? before.getTitle() : null, after.getTitle());
+        appendIfChanged(sb, "priority", before != null ? before.getPriority() : null, after.getPriority());
+        return "{" + sb + "}";
+    }
+
+    private void appendIfChanged(StringBuilder sb, String key, String before, String after) {
+        if (Objects.equals(before, after)) return;
+        if (sb.length() > 0) sb.append(",");
+        sb.append("\"").append(key).append("\":").append(jsonValue(after));
+    }
+
+    // A quoted string, or null (which clears the field in a merge patch)
+    private String jsonValue(String s) {
+        return s == null ? "null" : "\"" + escape(s) + "\"";
+    }
+
     private ArrayList<Task> tasksFromJson(String json) {
         ArrayList<Task> list = new ArrayList<>();
         if (json == null || json.isEmpty()) return list;
@@ -143,7 +307,11 @@ public class TaskManager {
         String title = getStringField(obj, "title");
         String description = getStringField(obj, "description");
         String priority = getStringField(obj, "priority");
-        return new Task(id, title, description, priority);
+        // Unset times arrive as JSON null, which getStringField reports as ""
+        String dueAt = getStringField(obj, "due_at");
+        String remindAt = getStringField(obj, "remind_at");
+        return new Task(id, title, description, priority,
+                dueAt.isEmpty() ? null : dueAt, remindAt.isEmpty() ? null : remindAt);
     }
 
     private String getStringField(String obj, String key) {
@@ -0,0 +1,139 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Search index over a snapshot of the task list. Titles, priorities and the
+ * descriptions known at build time are lowercased and split into words once;
+ * a query then only looks up its words' prefixes in the sorted word list instead
+ * of scanning every task's text. Building and matching are meant to run off the
+ * FX thread.
+ */
+public class TaskSearch {
+    // Checked for cancellation after this many postings have been merged
+    private static final int CANCEL_CHECK = 4096;
+
+    private final List<Task> source;
+    private final String[] words;
+    private final int[][] postings;
+
+    private TaskSearch(List<Task> source, String[] words, int[][] postings) {
+        this.source = source;
+        this.words = words;
+        this.postings = postings;
+    }
+
+    /**
+     * Indexes every word of the tasks' text
+     * @param tasks snapshot of the list; must not change afterwards
+     * @param description full description of a task if known, otherwise null
+     */
+    public static TaskSearch build(List<Task> tasks, Function<Task, String> description) {
+        Map<String, int[]> byWord = new HashMap<>();
+        // Per word: task positions in ascending order, the count in slot 0 of a growing array
+        for (int i = 0; i < tasks.size(); i++) {
+            Task t = tasks.get(i);
+            String desc = t.getDescription() != null ? t.getDescription() : description.apply(t);
+            String text = Objects.toString(t.getTitle(), "") + " " + Objects.toString(t.getPriority(), "") + " "
+                    + Objects.toString(desc, "");
+            for (String word : words(text)) {
+                int[] list = byWord.get(word);
+                if (list == null) {
+                    list = new int[4];
+                    byWord.put(word, list);
+                } else if (list[list[0]] == i) {
+                    continue;   // word repeats within this task
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    byWord.put(word, list);
+                }
+                list[++list[0]] = i;
+            }
+        }
+        String[] words = byWord.keySet().toArray(new String[0]);
+        Arrays.sort(words);
+        int[][] postings = new int[words.length][];
+        for (int w = 0; w < words.length; w++) {
+            int[] list = byWord.get(words[w]);
+            postings[w] = Arrays.copyOfRange(list, 1, list[0] + 1);
+        }
+        return new TaskSearch(tasks, words, postings);
+    }
+
+    /**
+     * @return the task list this index was built from
+     */
+    public List<Task> getSource() {
+        return source;
+    }
+
+    /**
+     * Finds the tasks containing a word starting with each word of the query
+     * @param query text typed by the user
+     * @param cancelled polled while matching; returns true once the result is no longer wanted
+     * @return matching tasks (by identity), or null if cancelled
+     */
+    public Set<Task> match(String query, BooleanSupplier cancelled) {
+        BitSet result = null;
+        int merged = 0;
+        for (String prefix : words(query)) {
+            BitSet hits = new BitSet(source.size());
+            int w = Arrays.binarySearch(words, prefix);
+            for (w = w < 0 ? -w - 1 : w; w < words.length && words[w].startsWith(prefix); w++) {
+                for (int i : postings[w]) {
+                    hits.set(i);
+                }
+                merged += postings[w].length;
+                if (merged >= CANCEL_CHECK) {
+                    if (cancelled.getAsBoolean()) return null;
+                    merged = 0;
+                }
+            }
+            if (result == null) {
+                result = hits;
+            } else {
+                result.and(hits);
+            }
+            if (result.isEmpty()) break;
+        }
+        if (result == null) {
+            // Nothing to look for (e.g. only punctuation): everything matches
+            result = new BitSet(source.size());
+            result.set(0, source.size());
+        }
+        Set<Task> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            matched.add(source.get(i));
+        }
+        return cancelled.getAsBoolean() ? null : matched;
+    }
+
+    // Lowercase runs of letters and digits
+    private static List<String> words(String text) {
+        List<String> out = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                out.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return out;
+    }
+}
@@ -1,6 +1,9 @@
 package com.example;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -8,17 +11,62 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ToDoApp extends Application {
 
     private TaskManager taskManager;
-
+    // Fetches selected tasks in full without blocking the FX thread
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "details-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Builds the search index and matches queries without blocking the FX thread
+    private final ScheduledExecutorService searcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "task-search");
+        t.setDaemon(true);
+        return t;
+    });
+    // Typing pause before a search runs
+    private static final long SEARCH_DELAY_MS = 150;
+    // Bumped for every new search; a run whose number is no longer current stops
+    private final AtomicLong searchRun = new AtomicLong();
+    private ScheduledFuture<?> pendingSearch;
+    // Copy of the task list the next search indexes; null once the list has changed
+    private List<Task> searchSnapshot;
+    // Only touched on the search thread
+    private TaskSearch searchIndex;
+
+    private FilteredList<Task> visibleTasks;
+    private TextField searchField;
+    private Label listHeader;
     private ListView<Task> listView;
     private TextField titleField;
     private TextArea descArea;
     private ChoiceBox<String> priorityChoice;
+    private TextField dueField;
+    private TextField remindField;
     private Label detailTitle;
     private Label detailPriority;
+    private Label detailDue;
     private TextArea detailDesc;
+    private Button retryDetailsBtn;
+    // Selected task whose details failed to load; only its title and priority can be saved
+    private Task detailsFailed;
 
     @Override
     public void start(Stage primaryStage) {
@@ -28,7 +76,7 @@ public class ToDoApp extends Application {
         BorderPane root = new BorderPane();
         root.setPadding(new Insets(12));
 
-        VBox left = new VBox(10, new Label("Tasks"), listView, createControlButtons());
+        VBox left = new VBox(10, listHeader, searchField, listView, createControlButtons());
         left.setPrefWidth(300);
         left.setPadding(new Insets(0,12,0,0));
 
@@ -47,9 +95,13 @@ public class ToDoApp extends Application {
     }
 
     private void initializeComponents() {
+        visibleTasks = new FilteredList<>(taskManager.getTasks());
         listView = new ListView<>();
-        listView.setItems(taskManager.getTasks());
+        listView.setItems(visibleTasks);
         listView.setPrefHeight(300);
+        listHeader = new Label("Tasks");
+        searchField = new TextField();
+        searchField.setPromptText("Search title, priority, description");
 
         titleField = new TextField();
         titleField.setPromptText("Title");
@@ -62,13 +114,22 @@ public class ToDoApp extends Application {
         priorityChoice.getItems().addAll("Low", "Medium", "High");
         priorityChoice.setValue("Medium");
 
+        dueField = new TextField();
+        dueField.setPromptText("e.g. 2026-10-20T09:00:00Z");
+        remindField = new TextField();
+        remindField.setPromptText("e.g. 2026-10-20T08:30:00Z");
+
         detailTitle = new Label();
         detailTitle.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
         detailPriority = new Label();
+        detailDue = new Label();
         detailDesc = new TextArea();
         detailDesc.setEditable(false);
         detailDesc.setWrapText(true);
         detailDesc.setPrefRowCount(6);
+        retryDetailsBtn = new Button("Retry loading details");
+        retryDetailsBtn.setOnAction(e -> retryDetails());
+        showRetry(false);
     }
 
     private VBox createDetailPane() {
@@ -87,6 +148,10 @@ public class ToDoApp extends Application {
         form.add(priorityChoice, 1, 1);
         form.add(new Label("Description:"), 0, 2);
         form.add(descArea, 1, 2);
+        form.add(new Label("Due:"), 0, 3);
+        form.add(dueField, 1, 3);
+        form.add(new Label("Remind at:"), 0, 4);
+        form.add(remindField, 1, 4);
 
         HBox actionRow = new HBox(10);
         actionRow.setAlignment(Pos.CENTER);
@@ -105,8 +170,10 @@ public class ToDoApp extends Application {
                 new Label("Selected:"),
                 detailTitle,
                 detailPriority,
+                detailDue,
                 new Label("Description:"),
-                detailDesc
+                detailDesc,
+                retryDetailsBtn
         );
         detailsBox.setPadding(new Insets(8,0,0,0));
 
@@ -128,30 +195,143 @@ public class ToDoApp extends Application {
             showDetails(newV);
             populateForm(newV);
         });
+        searchField.textProperty().addListener((obs, oldV, newV) -> scheduleSearch());
+        taskManager.getTasks().addListener((ListChangeListener.Change<? extends Task> c) -> {
+            searchSnapshot = null;
+            scheduleSearch();
+        });
+    }
+
+    /**
+     * Runs the search in the field once typing pauses. Any search still waiting or
+     * running is abandoned; the result replaces the filter in one change. With an
+     * empty field everything is shown at once and only the index is (re)built, so
+     * it is ready for the first keystroke.
+     */
+    private void scheduleSearch() {
+        long run = searchRun.incrementAndGet();
+        if (pendingSearch != null) pendingSearch.cancel(false);
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            visibleTasks.setPredicate(null);
+            updateListHeader();
+        }
+        if (searchSnapshot == null) searchSnapshot = new ArrayList<>(taskManager.getTasks());
+        List<Task> snapshot = searchSnapshot;
+        pendingSearch = searcher.schedule(() -> {
+            if (searchIndex == null || searchIndex.getSource() != snapshot) {
+                searchIndex = TaskSearch.build(snapshot, t -> {
+                    Task full = taskManager.getCachedDetails(t);
+                    return full != null ? full.getDescription() : null;
+                });
+            }
+            if (query.isEmpty()) return;
+            Set<Task> matched = searchIndex.match(query, () -> searchRun.get() != run);
+            if (matched == null) return;
+            Platform.runLater(() -> {
+                if (searchRun.get() != run) return;
+                visibleTasks.setPredicate(matched::contains);
+                updateListHeader();
+            });
+        }, SEARCH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void updateListHeader() {
+        int total = taskManager.getTasks().size();
+        listHeader.setText(visibleTasks.size() == total ? "Tasks" : "Tasks (" + visibleTasks.size() + " of " + total + ")");
     }
 
     private void populateForm(Task t) {
         if (t == null) {
-            titleField.clear();
-            descArea.clear();
-            priorityChoice.setValue("Medium");
+            clearForm();
             return;
         }
+        detailsFailed = null;
+        showRetry(false);
         titleField.setText(t.getTitle());
-        descArea.setText(t.getDescription());
+        Task full = taskManager.getCachedDetails(t);
+        fillLoadedFields(full);
         priorityChoice.setValue(t.getPriority() == null ? "Medium" : t.getPriority());
     }
 
+    // Editable once the full task has loaded, so an update cannot blank these fields
+    private void fillLoadedFields(Task full) {
+        descArea.setText(full != null ? full.getDescription() : "");
+        dueField.setText(full != null && full.getDueAt() != null ? full.getDueAt() : "");
+        remindField.setText(full != null && full.getRemindAt() != null ? full.getRemindAt() : "");
+        setLoadedFieldsDisabled(full == null);
+    }
+
+    private void setLoadedFieldsDisabled(boolean disabled) {
+        descArea.setDisable(disabled);
+        dueField.setDisable(disabled);
+        remindField.setDisable(disabled);
+    }
+
     private void showDetails(Task t) {
         if (t == null) {
             detailTitle.setText("");
             detailPriority.setText("");
+            detailDue.setText("");
             detailDesc.clear();
             return;
         }
         detailTitle.setText(t.getTitle());
         detailPriority.setText("Priority: " + (t.getPriority() == null ? "None" : t.getPriority()));
-        detailDesc.setText(t.getDescription());
+        Task full = taskManager.getCachedDetails(t);
+        if (full != null) {
+            showLoadedDetails(full);
+        } else {
+            detailDue.setText("");
+            detailDesc.setText("Loading...");
+            loadDetails(t);
+        }
+    }
+
+    private void showLoadedDetails(Task full) {
+        String due = full.getDueAt() != null ? "Due: " + full.getDueAt() : "No due date";
+        detailDue.setText(full.getRemindAt() != null ? due + "  (reminder " + full.getRemindAt() + ")" : due);
+        detailDesc.setText(full.getDescription());
+    }
+
+    private void loadDetails(Task t) {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return taskManager.loadDetails(t);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, loader).whenComplete((full, err) -> Platform.runLater(() -> {
+            // Ignore the result if the user has moved on to another task
+            if (listView.getSelectionModel().getSelectedItem() != t) return;
+            if (err != null) {
+                detailDesc.setText("(task details could not be loaded)");
+                // Stop waiting: title and priority can still be saved; the other fields stay disabled
+                detailsFailed = t;
+                showRetry(true);
+                return;
+            }
+            detailsFailed = null;
+            showRetry(false);
+            showLoadedDetails(full);
+            fillLoadedFields(full);
+        }));
+    }
+
+    private void retryDetails() {
+        Task t = listView.getSelectionModel().getSelectedItem();
+        if (t == null || t != detailsFailed) return;
+        showRetry(false);
+        detailDesc.setText("Loading...");
+        loadDetails(t);
+    }
+
+    private void showRetry(boolean visible) {
+        retryDetailsBtn.setVisible(visible);
+        retryDetailsBtn.setManaged(visible);
     }
 
     private void refreshFromServer() {
@@ -182,7 +362,8 @@ public class ToDoApp extends Application {
     private void handleAdd() {
         String title = titleField.getText().trim();
         if (title.isEmpty()) { showError("Title required"); return; }
-        Task t = new Task(title, descArea.getText(), priorityChoice.getValue());
+        Task t = new Task(null, title, descArea.getText(), priorityChoice.getValue(),
+                blankToNull(dueField.getText()), blankToNull(remindField.getText()));
         try {
             Task created = taskManager.addTask(t);
             if (created != null) listView.getSelectionModel().select(created);
@@ -195,7 +376,10 @@ public class ToDoApp extends Application {
     private void handleUpdate() {
         Task selected = listView.getSelectionModel().getSelectedItem();
         if (selected == null) { showError("Select task to update"); return; }
-        selected = new Task(selected.getId(), titleField.getText(), descArea.getText(), priorityChoice.getValue());
+        if (taskManager.getCachedDetails(selected) == null && selected != detailsFailed) { showError("Task details are still loading"); return; }
+        // Without loaded details TaskManager saves only the title and priority
+        selected = new Task(selected.getId(), titleField.getText(), descArea.getText(), priorityChoice.getValue(),
+                blankToNull(dueField.getText()), blankToNull(remindField.getText()));
         if (selected.getTitle() == null || selected.getTitle().trim().isEmpty()) { showError("Title required"); return; }
         try {
             Task updated = taskManager.updateTask(selected);
@@ -224,9 +408,18 @@ public class ToDoApp extends Application {
     private void clearForm() {
         titleField.clear();
         descArea.clear();
+        dueField.clear();
+        remindField.clear();
+        setLoadedFieldsDisabled(false);
+        detailsFailed = null;
+        showRetry(false);
         priorityChoice.setValue("Medium");
     }
 
+    private static String blankToNull(String s) {
+        return s == null || s.trim().isEmpty() ? null : s.trim();
+    }
+
     private void showError(String msg) {
         Alert a = new Alert(Alert.AlertType.ERROR);
         a.setHeaderText(null);
@@ -0,0 +1,91 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TaskSearchTest {
+
+    private final Task groceries = new Task("1", "Buy groceries", "Milk, eggs and bread", "High");
+    private final Task report = new Task("2", "Write report", null, "Medium");
+    private final Task garden = new Task("3", "Water the garden", "Tomatoes first", "Low");
+    private final List<Task> tasks = List.of(groceries, report, garden);
+
+    @Test
+    void wordPrefixesMatch() {
+        TaskSearch search = TaskSearch.build(tasks, t -> null);
+
+        assertEquals(Set.of(groceries), match(search, "groc"));
+        assertEquals(Set.of(groceries, garden), match(search, "g"));
+        assertEquals(Set.of(report), match(search, "REP"));
+    }
+
+    @Test
+    void prefixMustStartAWord() {
+        TaskSearch search = TaskSearch.build(tasks, t -> null);
+
+        assertEquals(Set.of(), match(search, "ocer"));
+        assertEquals(Set.of(), match(search, "reports"));
+    }
+
+    @Test
+    void everyQueryWordMustMatch() {
+        TaskSearch search = TaskSearch.build(tasks, t -> null);
+
+        assertEquals(Set.of(groceries), match(search, "buy mil"));
+        assertEquals(Set.of(), match(search, "buy tomato"));
+        assertEquals(Set.of(garden), match(search, "  tomato,   low! "));
+    }
+
+    @Test
+    void priorityAndLoadedDescriptionsAreSearched() {
+        TaskSearch search = TaskSearch.build(tasks, t -> t == report ? "Quarterly numbers" : null);
+
+        assertEquals(Set.of(report), match(search, "quarter"));
+        assertEquals(Set.of(report), match(search, "medium"));
+    }
+
+    @Test
+    void queryWithoutWordsMatchesEverything() {
+        TaskSearch search = TaskSearch.build(tasks, t -> null);
+
+        assertEquals(Set.copyOf(tasks), match(search, " ,.! "));
+        assertEquals(Set.copyOf(tasks), match(search, ""));
+    }
+
+    @Test
+    void tasksAreMatchedByIdentity() {
+        Task twin = new Task("1", "Buy groceries", "Milk, eggs and bread", "High");
+        List<Task> withTwin = List.of(groceries, twin);
+        TaskSearch search = TaskSearch.build(withTwin, t -> null);
+
+        Set<Task> matched = match(search, "buy");
+
+        assertEquals(2, matched.size());
+        assertTrue(matched.contains(groceries) && matched.contains(twin));
+    }
+
+    @Test
+    void cancelledSearchReturnsNull() {
+        List<Task> many = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            many.add(new Task(String.valueOf(i), "Task number " + i, null, "Low"));
+        }
+        TaskSearch search = TaskSearch.build(many, t -> null);
+        AtomicInteger polls = new AtomicInteger();
+
+        assertNull(search.match("task", () -> polls.incrementAndGet() > 0));
+        assertTrue(polls.get() > 0);
+    }
+
+    private static Set<Task> match(TaskSearch search, String query) {
+        return search.match(query, () -> false);
+    }
+}
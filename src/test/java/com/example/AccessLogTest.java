@@ -0,0 +1,115 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class AccessLogTest {
+
+    @Test
+    void ringHandsEntriesOutInOrder() {
+        AccessLog.Ring ring = new AccessLog.Ring(8);
+        List<AccessLog.Entry> offered = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            AccessLog.Entry entry = new AccessLog.Entry("test", "m" + i);
+            offered.add(entry);
+            assertTrue(ring.offer(entry));
+        }
+
+        for (AccessLog.Entry entry : offered) {
+            assertSame(entry, ring.poll());
+        }
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void fullRingRejectsUntilTheConsumerFreesASlot() {
+        AccessLog.Ring ring = new AccessLog.Ring(8);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ring.offer(new AccessLog.Entry("test", "m" + i)), "entry " + i);
+        }
+        assertFalse(ring.offer(new AccessLog.Entry("test", "extra")));
+
+        assertEquals("m0", ring.poll().message);
+        AccessLog.Entry late = new AccessLog.Entry("test", "late");
+        assertTrue(ring.offer(late));
+        for (int i = 1; i < 8; i++) {
+            assertEquals("m" + i, ring.poll().message);
+        }
+        assertSame(late, ring.poll());
+    }
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        AccessLog.Ring ring = new AccessLog.Ring(5);
+        int accepted = 0;
+        while (ring.offer(new AccessLog.Entry("test", "m"))) {
+            accepted++;
+        }
+
+        assertEquals(8, accepted);
+    }
+
+    @Test
+    void concurrentProducersLoseNothingButWhatWasRejected() throws InterruptedException {
+        AccessLog.Ring ring = new AccessLog.Ring(64);
+        int producers = 4;
+        int perProducer = 20_000;
+        AtomicInteger rejected = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String source = "p" + p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    if (!ring.offer(new AccessLog.Entry(source, Integer.toString(i)))) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        int[] lastSeen = new int[producers];
+        Arrays.fill(lastSeen, -1);
+        int received = 0;
+        while (received + rejected.get() < producers * perProducer) {
+            AccessLog.Entry entry = ring.poll();
+            if (entry == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int producer = Integer.parseInt(entry.source.substring(1));
+            int seq = Integer.parseInt(entry.message);
+            // Each producer's entries come out in the order it offered them
+            assertTrue(seq > lastSeen[producer], entry.source + " " + seq + " after " + lastSeen[producer]);
+            lastSeen[producer] = seq;
+            received++;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertNull(ring.poll());
+        assertEquals(producers * perProducer, received + rejected.get());
+    }
+
+    @Test
+    void eventEntryIsWrittenAsEscapedJson() {
+        StringBuilder sb = new StringBuilder();
+
+        new AccessLog.Entry("pool", "say \"hi\"\\\n").appendJson(sb, false);
+
+        String line = sb.toString();
+        assertTrue(line.endsWith("\"event\":\"pool\",\"message\":\"say \\\"hi\\\"\\\\\\u000a\"}\n"), line);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ImportRowsTest {
+
+    @Test
+    void ndjsonExportImportsBackUnchanged() {
+        String title = "Braces {and} brackets [x], \"quotes\": and, commas";
+        String description = "tab\there\r\nnew line, back\\slash \\\" é ✓ 😀 and a bell \u0007";
+        String line = exportLine("7340032", title, description, "High", "2026-10-20T09:00:00.000Z", null, 3);
+
+        List<Map<String, String>> rows = importNdjson(line + "\n");
+
+        assertEquals(1, rows.size());
+        Map<String, String> row = rows.get(0);
+        assertEquals(title, row.get("title"));
+        assertEquals(description, row.get("description"));
+        assertEquals("High", row.get("priority"));
+        assertEquals("2026-10-20T09:00:00Z", row.get("due_at"));
+        assertNull(row.get("remind_at"));
+    }
+
+    @Test
+    void everyJsonEscapeIsDecoded() {
+        String line = "{\"title\":\"a\\/b\\u00e9\\ud83d\\ude00\",\"description\":\"\\b\\f\\t \\\\n is not \\n\"}";
+
+        Map<String, String> row = importNdjson(line).get(0);
+
+        assertEquals("a/bé😀", row.get("title"));
+        assertEquals("\b\f\t \\n is not \n", row.get("description"));
+    }
+
+    @Test
+    void numbersBooleansAndWhitespaceAreAccepted() {
+        String line = "  { \"title\" : \"t\" , \"version\" : -1.5e3, \"done\" : true, \"priority\" : null }  ";
+
+        Map<String, String> row = importNdjson(line).get(0);
+
+        assertEquals("t", row.get("title"));
+        assertEquals("Medium", row.get("priority"));
+    }
+
+    @Test
+    void malformedLinesAreSkippedWithTheirLineNumber() {
+        String body = String.join("\n",
+            "{\"title\":\"ok 1\"}",
+            "{\"title\":{\"nested\":1}}",
+            "{\"title\":\"bad escape \\x\"}",
+            "{\"title\":\"unterminated}",
+            "{\"title\":\"trailing\"} x",
+            "[1, 2]",
+            "",
+            "{\"title\":\"ok 2\"}");
+        TaskServer.ImportRows rows = rows(body, false);
+
+        List<String> titles = new ArrayList<>();
+        rows.forEachRemaining(row -> titles.add(row.get("title")));
+
+        assertEquals(List.of("ok 1", "ok 2"), titles);
+        assertEquals(5, rows.getSkipped());
+        List<String> errors = rows.getErrors();
+        assertTrue(errors.get(0).startsWith("{\"line\":2,\"error\":\"Nested objects"), errors.get(0));
+        assertTrue(errors.get(1).startsWith("{\"line\":3,\"error\":\"Invalid escape"), errors.get(1));
+        assertTrue(errors.get(2).startsWith("{\"line\":4,\"error\":\"Unexpected end of line"), errors.get(2));
+        assertTrue(errors.get(3).startsWith("{\"line\":5,\"error\":\"Unexpected text after the object"), errors.get(3));
+        assertEquals("{\"line\":6,\"error\":\"Not a JSON object\"}", errors.get(4));
+    }
+
+    @Test
+    void csvExportImportsBack() {
+        String body = "id,title,description,priority,due_at,remind_at,version\n"
+            + "1,\"a, \"\"b\"\"\",\"two\nlines\",Low,,2026-10-20T09:00:00.000Z,1\n";
+        TaskServer.ImportRows rows = rows(body, true);
+
+        Map<String, String> row = rows.next();
+
+        assertEquals("a, \"b\"", row.get("title"));
+        assertEquals("two\nlines", row.get("description"));
+        assertEquals("Low", row.get("priority"));
+        assertEquals("2026-10-20T09:00:00Z", row.get("remind_at"));
+        assertTrue(rows.hasReminders());
+        assertFalse(rows.hasNext());
+    }
+
+    private static List<Map<String, String>> importNdjson(String body) {
+        TaskServer.ImportRows rows = rows(body, false);
+        List<Map<String, String>> out = new ArrayList<>();
+        rows.forEachRemaining(out::add);
+        assertEquals(List.of(), rows.getErrors());
+        return out;
+    }
+
+    private static TaskServer.ImportRows rows(String body, boolean csv) {
+        return new TaskServer.ImportRows(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), csv);
+    }
+
+    /**
+     * Writes a line the way the NDJSON export's json_build_object does
+     */
+    private static String exportLine(String id, String title, String description, String priority,
+                                     String dueAt, String remindAt, long version) {
+        return "{\"id\" : " + pgJson(id) + ", \"title\" : " + pgJson(title)
+            + ", \"description\" : " + pgJson(description) + ", \"priority\" : " + pgJson(priority)
+            + ", \"due_at\" : " + pgJson(dueAt) + ", \"remind_at\" : " + pgJson(remindAt)
+            + ", \"version\" : " + version + "}";
+    }
+
+    /**
+     * PostgreSQL's escape_json: short escapes where JSON has them, \\u00XX for other
+     * control characters, everything else as is
+     */
+    private static String pgJson(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+    @Test
+    void burstIsAllowedThenRejectedWithWait() {
+        // One token per 1000 s: nothing refills while the test runs
+        RateLimiter limiter = new RateLimiter("test", 0.001, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("ip:10.0.0.1"), "request " + i);
+        }
+        long wait = limiter.tryAcquire("ip:10.0.0.1");
+
+        assertTrue(wait > 990_000_000_000L && wait <= 1_000_000_000_000L, "wait " + wait);
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    void clientsHaveSeparateBuckets() {
+        RateLimiter limiter = new RateLimiter("test", 0.001, 1);
+
+        assertEquals(0, limiter.tryAcquire("tenant:a"));
+        assertTrue(limiter.tryAcquire("tenant:a") > 0);
+        assertEquals(0, limiter.tryAcquire("tenant:b"));
+        assertEquals(2, limiter.getTrackedClients());
+    }
+
+    @Test
+    void tokensRefillAtTheRate() throws InterruptedException {
+        // One token per 20 ms
+        RateLimiter limiter = new RateLimiter("test", 50, 1);
+
+        assertEquals(0, limiter.tryAcquire("k"));
+        long wait = limiter.tryAcquire("k");
+        assertTrue(wait > 0 && wait <= 20_000_000L, "wait " + wait);
+        Thread.sleep(wait / 1_000_000 + 5);
+
+        assertEquals(0, limiter.tryAcquire("k"));
+    }
+
+    @Test
+    void rejectedRequestsDoNotUseTokens() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter("test", 50, 1);
+
+        assertEquals(0, limiter.tryAcquire("k"));
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("k");
+        }
+        Thread.sleep(25);
+
+        assertEquals(0, limiter.tryAcquire("k"));
+    }
+
+    @Test
+    void setRateAppliesToExistingBuckets() {
+        RateLimiter limiter = new RateLimiter("test", 0.001, 1);
+        assertEquals(0, limiter.tryAcquire("k"));
+        assertTrue(limiter.tryAcquire("k") > 0);
+
+        limiter.setRate(0.001, 1000);
+
+        assertEquals(0, limiter.tryAcquire("k"));
+    }
+
+    @Test
+    void onlyFullBucketsAreEvicted() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter("test", 1000, 1);
+        RateLimiter slow = new RateLimiter("slow", 0.001, 1);
+        limiter.tryAcquire("k");
+        slow.tryAcquire("k");
+        Thread.sleep(5);
+
+        assertEquals(1, limiter.evictIdle());
+        assertEquals(0, limiter.getTrackedClients());
+        assertEquals(0, slow.evictIdle());
+        assertEquals(1, slow.getTrackedClients());
+    }
+}
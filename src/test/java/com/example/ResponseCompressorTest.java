@@ -0,0 +1,41 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class ResponseCompressorTest {
+
+    private final ResponseCompressor compressor = new ResponseCompressor(100, 6);
+
+    @Test
+    void listedCodingIsChosenWithGzipFirst() {
+        assertEquals("gzip", compressor.negotiate("gzip", 1000));
+        assertEquals("deflate", compressor.negotiate("deflate", 1000));
+        assertEquals("gzip", compressor.negotiate("deflate, GZIP;q=0.5", 1000));
+        assertNull(compressor.negotiate("br, identity", 1000));
+    }
+
+    @Test
+    void refusedCodingIsNotUsed() {
+        assertNull(compressor.negotiate("gzip;q=0", 1000));
+        assertEquals("deflate", compressor.negotiate("gzip; q=0.0, deflate", 1000));
+        assertNull(compressor.negotiate("gzip;level=1;q=0", 1000));
+    }
+
+    @Test
+    void wildcardDoesNotBringBackARefusedCoding() {
+        assertEquals("deflate", compressor.negotiate("gzip;q=0, *", 1000));
+        assertEquals("deflate", compressor.negotiate("*, gzip;q=0", 1000));
+        assertNull(compressor.negotiate("gzip;q=0, deflate;q=0, *", 1000));
+        assertEquals("gzip", compressor.negotiate("*", 1000));
+        assertNull(compressor.negotiate("*;q=0", 1000));
+    }
+
+    @Test
+    void smallOrUnnegotiatedBodyIsSentAsIs() {
+        assertNull(compressor.negotiate("gzip", 99));
+        assertNull(compressor.negotiate(null, 1000));
+    }
+}
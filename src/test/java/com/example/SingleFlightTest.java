@@ -0,0 +1,169 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+    // Stands in for a failure that belongs to the caller, such as its own deadline
+    private static final class CallerTimeout extends RuntimeException {
+        CallerTimeout() {
+            super("deadline passed");
+        }
+    }
+
+    private final SingleFlight<String> flight = new SingleFlight<>("test", e -> e instanceof CallerTimeout);
+
+    @Test
+    void identicalCallsInFlightShareOneRun() throws Exception {
+        CompletableFuture<String> read = new CompletableFuture<>();
+        AtomicInteger runs = new AtomicInteger();
+        Supplier<CompletableFuture<String>> call = () -> {
+            runs.incrementAndGet();
+            return read;
+        };
+
+        CompletableFuture<String> first = flight.run("t1", "list", call);
+        CompletableFuture<String> second = flight.run("t1", "list", call);
+        read.complete("rows");
+
+        assertEquals("rows", get(first));
+        assertEquals("rows", get(second));
+        assertEquals(1, runs.get());
+        assertTrue(flight.getStats().contains("1 calls, 1 requests coalesced"), flight.getStats());
+    }
+
+    @Test
+    void differentKeysAndScopesRunSeparately() {
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        Supplier<CompletableFuture<String>> call = () -> {
+            runs.incrementAndGet();
+            return pending;
+        };
+
+        flight.run("t1", "a", call);
+        flight.run("t1", "b", call);
+        flight.run("t2", "a", call);
+
+        assertEquals(3, runs.get());
+    }
+
+    @Test
+    void completedCallIsNotCached() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        Supplier<CompletableFuture<String>> call = () -> CompletableFuture.completedFuture("run " + runs.incrementAndGet());
+
+        assertEquals("run 1", get(flight.run("t1", "list", call)));
+        assertEquals("run 2", get(flight.run("t1", "list", call)));
+    }
+
+    @Test
+    void failureIsSharedWithEveryCaller() throws Exception {
+        CompletableFuture<String> read = new CompletableFuture<>();
+        AtomicInteger runs = new AtomicInteger();
+        Supplier<CompletableFuture<String>> call = () -> {
+            runs.incrementAndGet();
+            return read;
+        };
+        IllegalStateException failure = new IllegalStateException("query failed");
+
+        CompletableFuture<String> first = flight.run("t1", "list", call);
+        CompletableFuture<String> second = flight.run("t1", "list", call);
+        read.completeExceptionally(failure);
+
+        assertSame(failure, cause(first));
+        assertSame(failure, cause(second));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void callThatThrowsFailsItsFutureAndLeavesTheFlight() throws Exception {
+        IllegalArgumentException failure = new IllegalArgumentException("bad key");
+
+        CompletableFuture<String> failed = flight.run("t1", "list", () -> {
+            throw failure;
+        });
+
+        assertSame(failure, cause(failed));
+        assertEquals("ok", get(flight.run("t1", "list", () -> CompletableFuture.completedFuture("ok"))));
+    }
+
+    @Test
+    void callerOwnFailureMakesWaitersRerun() throws Exception {
+        CompletableFuture<String> leaderRead = new CompletableFuture<>();
+        AtomicInteger waiterRuns = new AtomicInteger();
+
+        CompletableFuture<String> leader = flight.run("t1", "list", () -> leaderRead);
+        CompletableFuture<String> waiter = flight.run("t1", "list", () -> {
+            waiterRuns.incrementAndGet();
+            return CompletableFuture.completedFuture("waiter's rows");
+        });
+        leaderRead.completeExceptionally(new CallerTimeout());
+
+        assertTrue(cause(leader) instanceof CallerTimeout);
+        assertEquals("waiter's rows", get(waiter));
+        assertEquals(1, waiterRuns.get());
+        assertTrue(flight.getStats().contains("1 rerun"), flight.getStats());
+    }
+
+    @Test
+    void rerunIsNotRetriedAgain() throws Exception {
+        CompletableFuture<String> leaderRead = new CompletableFuture<>();
+        AtomicInteger waiterRuns = new AtomicInteger();
+
+        flight.run("t1", "list", () -> leaderRead);
+        CompletableFuture<String> waiter = flight.run("t1", "list", () -> {
+            waiterRuns.incrementAndGet();
+            return CompletableFuture.failedFuture(new CallerTimeout());
+        });
+        leaderRead.completeExceptionally(new CallerTimeout());
+
+        assertTrue(cause(waiter) instanceof CallerTimeout);
+        assertEquals(1, waiterRuns.get());
+    }
+
+    @Test
+    void readAfterInvalidateDoesNotJoinOlderRead() throws Exception {
+        CompletableFuture<String> before = new CompletableFuture<>();
+        flight.run("t1", "list", () -> before);
+
+        flight.invalidate("t1");
+        CompletableFuture<String> after = flight.run("t1", "list", () -> CompletableFuture.completedFuture("fresh"));
+
+        assertEquals("fresh", get(after));
+        assertFalse(before.isDone());
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheOthers() throws Exception {
+        CompletableFuture<String> read = new CompletableFuture<>();
+        CompletableFuture<String> first = flight.run("t1", "list", () -> read);
+        CompletableFuture<String> second = flight.run("t1", "list", () -> read);
+
+        first.cancel(true);
+        read.complete("rows");
+
+        assertEquals("rows", get(second));
+    }
+
+    private static String get(CompletableFuture<String> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static Throwable cause(CompletableFuture<String> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class TaskBinaryCodecTest {
+
+    private static Map<String, String> task(String id, String title, String description, String priority) {
+        Map<String, String> task = new LinkedHashMap<>();
+        task.put("id", id);
+        task.put("title", title);
+        task.put("description", description);
+        task.put("priority", priority);
+        return task;
+    }
+
+    @Test
+    void roundTripKeepsEveryField() throws IOException {
+        List<Map<String, String>> tasks = List.of(
+            task("1", "Buy milk", "", "Low"),
+            task("127", "Edge of one varint byte", "two\nlines", "Medium"),
+            task("128", "Größe prüfen ✓", "Ünïcödé and emoji 🎉", "High"),
+            task(String.valueOf(Long.MAX_VALUE), "Largest id", "x", "Urgent"));
+
+        assertEquals(tasks, TaskBinaryCodec.decode(TaskBinaryCodec.encode(tasks)));
+    }
+
+    @Test
+    void emptyListIsOneByte() throws IOException {
+        byte[] encoded = TaskBinaryCodec.encode(List.of());
+
+        assertArrayEquals(new byte[] {0}, encoded);
+        assertTrue(TaskBinaryCodec.decode(encoded).isEmpty());
+    }
+
+    @Test
+    void missingFieldsDecodeAsDefaults() throws IOException {
+        Map<String, String> sparse = new LinkedHashMap<>();
+        sparse.put("id", "5");
+
+        Map<String, String> decoded = TaskBinaryCodec.decode(TaskBinaryCodec.encode(List.of(sparse))).get(0);
+
+        assertEquals(task("5", "", "", "Medium"), decoded);
+    }
+
+    @Test
+    void truncatedDataIsRejected() {
+        byte[] encoded = TaskBinaryCodec.encode(List.of(task("300", "Title", "Description", "High")));
+
+        for (int length = 0; length < encoded.length; length++) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertThrows(IOException.class, () -> TaskBinaryCodec.decode(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void unknownPriorityCodeIsRejected() {
+        byte[] encoded = TaskBinaryCodec.encode(List.of(task("1", "", "", "Low")));
+        encoded[encoded.length - 1] = 7;
+
+        assertThrows(IOException.class, () -> TaskBinaryCodec.decode(encoded));
+    }
+
+    @Test
+    void onlyFieldsInTheLayoutAreCarried() {
+        assertTrue(TaskBinaryCodec.carries(Set.of("id", "title", "priority")));
+        assertTrue(TaskBinaryCodec.carries(Set.of("id", "title", "description", "priority")));
+        assertFalse(TaskBinaryCodec.carries(Set.of("id", "title", "due_at", "remind_at")));
+        assertFalse(TaskBinaryCodec.carries(Set.of("id", "version")));
+        // No ?fields= means every column, including the ones the layout lacks
+        assertFalse(TaskBinaryCodec.carries(null));
+    }
+
+    @Test
+    void acceptHeaderSelectsBinary() {
+        assertTrue(TaskBinaryCodec.isAccepted("application/json, application/x-tasks-binary"));
+        assertFalse(TaskBinaryCodec.isAccepted("application/json"));
+        assertFalse(TaskBinaryCodec.isAccepted(null));
+    }
+}
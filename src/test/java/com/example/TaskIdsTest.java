@@ -0,0 +1,136 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class TaskIdsTest {
+
+    // Id clock reading, in ms since TaskIds.EPOCH_MS
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final TaskIds ids = new TaskIds(21, () -> TaskIds.EPOCH_MS + now.get());
+
+    @Test
+    void idCarriesTimeNodeSequenceAndSlot() {
+        long id = ids.next(1000);
+
+        assertTrue(id > 0);
+        assertEquals(1_000_000, TaskIds.timeOf(id));
+        assertEquals(21, node(id));
+        assertEquals(0, sequence(id));
+        assertEquals(1000, ShardMap.slotOf(id));
+        assertEquals(1, sequence(ids.next(3)));
+    }
+
+    @Test
+    void largestTimeStaysPositive() {
+        now.set((1L << 41) - 1);
+
+        long id = new TaskIds(TaskIds.MAX_NODE, () -> TaskIds.EPOCH_MS + now.get()).next(ShardMap.SLOTS - 1);
+
+        assertTrue(id > 0);
+        assertEquals((1L << 41) - 1, TaskIds.timeOf(id));
+    }
+
+    @Test
+    void nodeOutOfRangeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new TaskIds(-1));
+        assertThrows(IllegalArgumentException.class, () -> new TaskIds(TaskIds.MAX_NODE + 1));
+    }
+
+    @Test
+    void sequenceOverflowTakesTheNextMillisecond() {
+        long last = 0;
+        for (int i = 0; i < 128; i++) {
+            long id = ids.next(0);
+            assertEquals(1_000_000, TaskIds.timeOf(id));
+            assertEquals(i, sequence(id));
+            assertTrue(id > last);
+            last = id;
+        }
+
+        long borrowed = ids.next(0);
+
+        assertEquals(1_000_001, TaskIds.timeOf(borrowed));
+        assertEquals(0, sequence(borrowed));
+        assertTrue(borrowed > last);
+        assertTrue(ids.getStats().contains("1 ms taken early"), ids.getStats());
+        // Once the clock reaches the borrowed millisecond, ids carry on within it
+        now.set(1_000_001);
+        assertEquals(1, sequence(ids.next(0)));
+    }
+
+    @Test
+    void clockSteppingBackKeepsIdsIncreasing() {
+        long before = ids.next(0);
+
+        now.set(999_000);
+        long after = ids.next(0);
+
+        assertTrue(after > before);
+        assertEquals(1_000_000, TaskIds.timeOf(after));
+        assertTrue(ids.getStats().contains("1 clock steps back"), ids.getStats());
+        // The clock catching up moves ids on again
+        now.set(1_000_005);
+        assertEquals(1_000_005, TaskIds.timeOf(ids.next(0)));
+    }
+
+    @Test
+    void smallBackwardSlewIsNotCounted() {
+        ids.next(0);
+        now.addAndGet(-5);
+        ids.next(0);
+
+        assertTrue(ids.getStats().contains("0 clock steps back"), ids.getStats());
+    }
+
+    @Test
+    void seedMovesPastAStoredIdFromTheFuture() {
+        TaskIds other = new TaskIds(3, () -> TaskIds.EPOCH_MS + 2_000_000);
+        long stored = other.next(7);
+
+        ids.seed(stored);
+        long id = ids.next(0);
+
+        assertTrue(id > stored);
+        assertEquals(2_000_001, TaskIds.timeOf(id));
+        assertEquals(0, sequence(id));
+    }
+
+    @Test
+    void seedWithAnOlderIdChangesNothing() {
+        long first = ids.next(0);
+        TaskIds other = new TaskIds(3, () -> TaskIds.EPOCH_MS + 500_000);
+
+        ids.seed(other.next(0));
+        long second = ids.next(0);
+
+        assertEquals(1_000_000, TaskIds.timeOf(second));
+        assertEquals(sequence(first) + 1, sequence(second));
+    }
+
+    @Test
+    void idsOnOneNodeStrictlyIncreaseWhateverTheClockDoes() {
+        Random random = new Random(7);
+        long last = 0;
+        for (int i = 0; i < 100_000; i++) {
+            now.addAndGet(random.nextInt(5) - 2);
+            long id = ids.next(random.nextInt(ShardMap.SLOTS));
+            assertTrue(id > last, "id " + i);
+            last = id;
+        }
+    }
+
+    private static int node(long id) {
+        return (int) (id >>> (TaskIds.SEQUENCE_BITS + ShardMap.SLOT_BITS)) & TaskIds.MAX_NODE;
+    }
+
+    private static int sequence(long id) {
+        return (int) (id >>> ShardMap.SLOT_BITS) & ((1 << TaskIds.SEQUENCE_BITS) - 1);
+    }
+}
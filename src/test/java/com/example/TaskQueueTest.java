@@ -0,0 +1,146 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TaskQueueTest {
+
+    private final TaskQueue queue = new TaskQueue();
+
+    @Test
+    void tasksComeOutByPriorityThenAge() {
+        queue.put("t", 5, "Low");
+        queue.put("t", 4, "High");
+        queue.put("t", 3, "Someday");
+        queue.put("t", 2, "Medium");
+        queue.put("t", 1, "Low");
+        queue.put("t", 6, (String) null);
+
+        assertEquals(List.of(4L, 2L, 6L, 1L, 5L, 3L), ranked("t"));
+        assertEquals(List.of(), ranked("other tenant"));
+    }
+
+    @Test
+    void priorityChangeMovesTheTask() {
+        queue.put("t", 1, "High");
+        queue.put("t", 2, "Low");
+
+        queue.put("t", "2", "High");
+
+        assertEquals(List.of(1L, 2L), ranked("t"));
+        assertTrue(queue.getStats().contains("2 tasks"), queue.getStats());
+    }
+
+    @Test
+    void removedAndDroppedTasksAreGone() {
+        queue.put("t", 1, "High");
+        queue.put("t", 2, "High");
+        queue.put("t", 3, "High");
+
+        queue.remove("t", "1");
+        queue.drop("t", 2);
+        queue.drop("t", 2);
+
+        assertEquals(List.of(3L), ranked("t"));
+        assertTrue(queue.getStats().contains("1 stale entries dropped"), queue.getStats());
+    }
+
+    @Test
+    void batchIsRecordedWithEachTasksRank() {
+        TaskQueue.Batch batch = new TaskQueue.Batch();
+        for (long id = 1; id <= 100; id++) {
+            batch.add(id, id % 2 == 0 ? "High" : "Low");
+        }
+
+        queue.putAll("t", batch);
+
+        List<Long> ids = ranked("t");
+        assertEquals(100, ids.size());
+        assertEquals(2L, ids.get(0));
+        assertEquals(100L, ids.get(49));
+        assertEquals(1L, ids.get(50));
+        assertEquals(99L, ids.get(99));
+    }
+
+    @Test
+    void rebuildReplacesTheIndexWithTheScan() throws SQLException {
+        queue.put("t", 1, "High");   // gone from the database by now
+        assertNull(queue.getBuiltAt());
+
+        queue.rebuild(visitor -> {
+            visitor.visit("t", 2, "Low");
+            visitor.visit("u", 3, "Medium");
+        });
+
+        assertEquals(List.of(2L), ranked("t"));
+        assertEquals(List.of(3L), ranked("u"));
+        assertNotNull(queue.getBuiltAt());
+    }
+
+    @Test
+    void changesDuringTheScanAreReplayedOntoTheNewIndex() throws SQLException {
+        queue.put("t", 1, "Low");
+        queue.put("t", 2, "Low");
+
+        queue.rebuild(visitor -> {
+            visitor.visit("t", 1, "Low");
+            visitor.visit("t", 2, "Low");
+            visitor.visit("t", 5, "Low");
+            // Written while the scan runs: a new task, one it read and changed, one it read and deleted
+            queue.put("t", 9, "High");
+            queue.put("t", 1, "High");
+            queue.remove("t", "2");
+            // Reads keep using the old index until the new one is installed
+            assertEquals(List.of(1L, 9L), ranked("t"));
+        });
+
+        assertEquals(List.of(1L, 9L, 5L), ranked("t"));
+    }
+
+    @Test
+    void failedRebuildKeepsTheOldIndex() {
+        queue.put("t", 1, "High");
+
+        assertThrows(SQLException.class, () -> queue.rebuild(visitor -> {
+            visitor.visit("t", 2, "High");
+            throw new SQLException("shard down");
+        }));
+        queue.put("t", 3, "High");
+
+        assertEquals(List.of(1L, 3L), ranked("t"));
+        assertNull(queue.getBuiltAt());
+    }
+
+    @Test
+    void changeDuringWalkIsSeenAtMostOnce() {
+        queue.put("t", 1, "Low");
+        queue.put("t", 2, "Low");
+        Iterator<Long> walk = queue.ranked("t");
+
+        assertEquals(1L, walk.next());
+        queue.put("t", 1, "Low");
+        queue.put("t", 2, "High");
+        queue.put("t", 1, "Someday");
+        List<Long> rest = new ArrayList<>();
+        walk.forEachRemaining(rest::add);
+
+        assertFalse(rest.contains(1L), rest.toString());
+    }
+
+    private List<Long> ranked(String tenant) {
+        List<Long> ids = new ArrayList<>();
+        queue.ranked(tenant).forEachRemaining(ids::add);
+        return ids;
+    }
+}
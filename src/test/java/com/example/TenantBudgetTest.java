@@ -0,0 +1,145 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLTransientException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TenantBudgetTest {
+
+    @Test
+    void loneTenantMayUseTheFullCapacity() {
+        TenantBudget budget = new TenantBudget("test", 4, 0.5);
+
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(budget.tryAcquire("default"));
+        }
+
+        assertNull(budget.tryAcquire("default"));
+        assertEquals(Map.of("default", 4), budget.getUsage());
+    }
+
+    @Test
+    void newTenantCapsTheOneHoldingEverything() {
+        TenantBudget budget = new TenantBudget("test", 4, 0.5);
+        TenantBudget.Permit first = budget.tryAcquire("a");
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(budget.tryAcquire("a"));
+        }
+        // Full: b is below an equal split, so it may go past the capacity
+        assertNotNull(budget.tryAcquire("b"));
+
+        first.close();
+
+        // a still holds 3, over its share now that b is active
+        assertNull(budget.tryAcquire("a"));
+        assertNotNull(budget.tryAcquire("b"));
+    }
+
+    @Test
+    void tenantIsCappedAtMaxShare() {
+        TenantBudget budget = new TenantBudget("test", 4, 0.5);
+        assertNotNull(budget.tryAcquire("b"));
+
+        assertNotNull(budget.tryAcquire("a"));
+        assertNotNull(budget.tryAcquire("a"));
+        assertNull(budget.tryAcquire("a"));
+        assertNotNull(budget.tryAcquire("b"));
+        assertTrue(budget.getStats().contains("1 requests held back"), budget.getStats());
+    }
+
+    @Test
+    void whenFullOnlyTenantsBelowAnEqualSplitGetMore() {
+        TenantBudget budget = new TenantBudget("test", 4, 1.0);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(budget.tryAcquire("a"));
+        }
+        assertNotNull(budget.tryAcquire("b"));
+
+        // Full: a holds 3 of 4, more than half
+        assertNull(budget.tryAcquire("a"));
+        // b holds 1, less than half, so it may go past the capacity
+        assertNotNull(budget.tryAcquire("b"));
+        assertNull(budget.tryAcquire("b"));
+    }
+
+    @Test
+    void closingAPermitReleasesItOnce() {
+        TenantBudget budget = new TenantBudget("test", 4, 0.5);
+        TenantBudget.Permit permit = budget.tryAcquire("a");
+        TenantBudget.Permit other = budget.tryAcquire("b");
+
+        permit.close();
+        permit.close();
+
+        assertEquals(Map.of("b", 1), budget.getUsage());
+        assertNotNull(budget.tryAcquire("a"));
+        assertNotNull(budget.tryAcquire("a"));
+        assertNull(budget.tryAcquire("a"));
+        other.close();
+    }
+
+    @Test
+    void idleTenantsAreForgotten() {
+        TenantBudget budget = new TenantBudget("test", 2, 0.5);
+        budget.tryAcquire("a").close();
+        // a held nothing, so b is alone and is not capped at half
+        assertNotNull(budget.tryAcquire("b"));
+        assertNotNull(budget.tryAcquire("b"));
+
+        assertEquals(Map.of("b", 2), budget.getUsage());
+    }
+
+    @Test
+    void acquireTimesOutWhileOverShare() {
+        TenantBudget budget = new TenantBudget("test", 4, 0.5);
+        budget.tryAcquire("b");
+        budget.tryAcquire("a");
+        budget.tryAcquire("a");
+
+        assertThrows(SQLTransientException.class, () -> budget.acquire("a", 20));
+    }
+
+    @Test
+    void acquireWaitsForARelease() throws Exception {
+        TenantBudget budget = new TenantBudget("test", 1, 0.5);
+        TenantBudget.Permit held = budget.tryAcquire("a");
+
+        CompletableFuture<TenantBudget.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire("a", 10_000);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+        held.close();
+
+        assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(Map.of("a", 1), budget.getUsage());
+    }
+
+    @Test
+    void configureAppliesToUnitsAlreadyHeld() {
+        TenantBudget budget = new TenantBudget("test", 8, 0.5);
+        assertNotNull(budget.tryAcquire("b"));
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(budget.tryAcquire("a"));
+        }
+
+        budget.configure(4, 0.5);
+
+        assertNull(budget.tryAcquire("a"));
+        assertNotNull(budget.tryAcquire("b"));
+    }
+}
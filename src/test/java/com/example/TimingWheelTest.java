@@ -0,0 +1,132 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+    @Test
+    void timersFireAtTheirDueTickAcrossLevels() {
+        TimingWheel wheel = new TimingWheel(0);
+        // Either side of each level boundary, so every cascade path is taken
+        long[] dues = { 1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 262_143, 262_144, 262_145 };
+        for (long due : dues) {
+            wheel.schedule(due, due, due * 10);
+        }
+
+        Map<Long, Long> fired = run(wheel, 262_145);
+
+        assertEquals(dues.length, fired.size());
+        for (long due : dues) {
+            assertEquals(due, fired.get(due), "timer " + due);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void randomTimersFireExactlyOnceOnTime() {
+        Random random = new Random(42);
+        long start = 4090;   // just short of a level 1 wrap
+        TimingWheel wheel = new TimingWheel(start);
+        Map<Long, Long> dueById = new HashMap<>();
+        for (long id = 0; id < 2000; id++) {
+            long due = start + 1 + random.nextInt(20_000);
+            wheel.schedule(id, due, id);
+            dueById.put(id, due);
+        }
+
+        Map<Long, Long> fired = run(wheel, start + 20_000);
+
+        assertEquals(dueById, fired);
+    }
+
+    @Test
+    void overdueTimerFiresOnTheNextAdvance() {
+        TimingWheel wheel = new TimingWheel(100);
+        wheel.schedule(1, 50, 0);
+        wheel.schedule(2, 100, 0);
+
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        wheel.advance(expired);
+
+        assertEquals(2, expired.size());
+        assertEquals(101, wheel.currentTick());
+    }
+
+    @Test
+    void payloadIsHandedBack() {
+        TimingWheel wheel = new TimingWheel(0);
+        wheel.schedule(7, 3, 99);
+
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            wheel.advance(expired);
+        }
+
+        assertEquals(1, expired.size());
+        assertEquals(7, expired.get(0).id);
+        assertEquals(99, expired.get(0).payload);
+    }
+
+    @Test
+    void cancelledTimerNeverFires() {
+        TimingWheel wheel = new TimingWheel(0);
+        wheel.schedule(1, 10, 0);
+        wheel.schedule(2, 10, 0);
+        wheel.schedule(3, 10, 0);
+
+        assertTrue(wheel.cancel(2));
+        assertFalse(wheel.cancel(2));
+        Map<Long, Long> fired = run(wheel, 10);
+
+        assertEquals(Map.of(1L, 10L, 3L, 10L), fired);
+    }
+
+    @Test
+    void scheduleReplacesAPendingTimer() {
+        TimingWheel wheel = new TimingWheel(0);
+        wheel.schedule(1, 5, 0);
+        wheel.schedule(1, 500, 0);
+
+        assertEquals(1, wheel.size());
+        assertEquals(Map.of(1L, 500L), run(wheel, 500));
+    }
+
+    @Test
+    void scheduleIfAbsentKeepsThePendingTimer() {
+        TimingWheel wheel = new TimingWheel(0);
+
+        assertTrue(wheel.scheduleIfAbsent(1, 5, 0));
+        assertFalse(wheel.scheduleIfAbsent(1, 500, 0));
+        assertEquals(Map.of(1L, 5L), run(wheel, 500));
+        assertTrue(wheel.scheduleIfAbsent(1, 600, 0));
+    }
+
+    /**
+     * Advances the wheel up to and including tick `end`
+     * @return tick at which each timer fired, by id
+     */
+    private static Map<Long, Long> run(TimingWheel wheel, long end) {
+        Map<Long, Long> fired = new HashMap<>();
+        List<TimingWheel.Timer> expired = new ArrayList<>();
+        while (wheel.currentTick() < end) {
+            wheel.advance(expired);
+            for (TimingWheel.Timer timer : expired) {
+                Long previous = fired.put(timer.id, wheel.currentTick());
+                assertNull(previous, "timer " + timer.id + " fired twice");
+            }
+            expired.clear();
+        }
+        return fired;
+    }
+}